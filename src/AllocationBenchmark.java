@@ -0,0 +1,122 @@
+import com.sun.management.ThreadMXBean;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+
+/**
+ * This class measures how much the engine allocates per command on a
+ * steady-state workload of short read-write transactions, each reading
+ * and writing replicated and unreplicated variables and committing.
+ * Commands are fed through the binary protocol so that input parsing
+ * does not count, and output goes to a null stream. The text parser
+ * is measured separately on pre-built lines.
+ * Usage: java AllocationBenchmark [transactions]
+ *
+ * Updated: 10/18/2026
+ */
+public class AllocationBenchmark {
+
+    private static final int OPERATIONS_PER_TRANSACTION = 8;
+    private static final int VARIABLE_COUNT = 20;
+
+    public static void main(String[] args) throws IOException {
+        int transactionCount = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        ThreadMXBean threadBean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        PrintStream console = System.out;
+
+        TransactionManager transactionManager = new TransactionManager();
+        byte[] warmup = buildWorkload(1, transactionCount);
+        byte[] measured = buildWorkload(transactionCount + 1, transactionCount);
+        int commandCount = transactionCount * (OPERATIONS_PER_TRANSACTION + 2);
+
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            transactionManager.startBinaryMode(new ByteArrayInputStream(warmup));
+            long gcCount = getGcCount();
+            long gcMillis = getGcMillis();
+            long allocated = threadBean.getCurrentThreadAllocatedBytes();
+            long start = System.nanoTime();
+            transactionManager.startBinaryMode(new ByteArrayInputStream(measured));
+            long elapsed = System.nanoTime() - start;
+            allocated = threadBean.getCurrentThreadAllocatedBytes() - allocated;
+            gcCount = getGcCount() - gcCount;
+            gcMillis = getGcMillis() - gcMillis;
+            System.setOut(console);
+            console.format("engine: %s commands in %s ms, %.1f bytes/command, %s GCs (%s ms)%n",
+                    commandCount, elapsed / 1_000_000, (double) allocated / commandCount, gcCount, gcMillis);
+        } finally {
+            System.setOut(console);
+        }
+
+        String[] lines = {"begin(T12)", "R(T12, x4)", "W(T12, x17, 1234)", "W(T12,x2,-5)", "end(T12)", "dump(x3)"};
+        Command command = new Command();
+        for (int i = 0; i < 200000; i++) {
+            command.parse(lines[i % lines.length]);
+        }
+        long allocated = threadBean.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < 1000000; i++) {
+            command.parse(lines[i % lines.length]);
+        }
+        allocated = threadBean.getCurrentThreadAllocatedBytes() - allocated;
+        console.format("parser: %.1f bytes/line%n", (double) allocated / 1000000);
+        transactionManager.shutdown();
+    }
+
+    /**
+     * Encode a workload of transactions that each read and write a few variables and commit.
+     * @param firstTransactionId - id of the first transaction
+     * @param transactionCount - number of transactions
+     * @return binary protocol stream
+     * @throws IOException
+     */
+    private static byte[] buildWorkload(int firstTransactionId, int transactionCount) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Command command = new Command();
+        try (BinaryProtocol.Writer writer = new BinaryProtocol.Writer(bytes, 256)) {
+            for (int i = 0; i < transactionCount; i++) {
+                int transactionId = firstTransactionId + i;
+                command.setTransactionCommand(Command.Type.BEGIN, transactionId);
+                writer.write(command);
+                for (int j = 0; j < OPERATIONS_PER_TRANSACTION; j++) {
+                    int variableId = 1 + (i * 7 + j * 3) % VARIABLE_COUNT;
+                    if (j % 2 == 0) {
+                        command.setOperation(Command.Type.READ, transactionId, variableId, -1);
+                    } else {
+                        command.setOperation(Command.Type.WRITE, transactionId, variableId, i + j);
+                    }
+                    writer.write(command);
+                }
+                command.setTransactionCommand(Command.Type.END, transactionId);
+                writer.write(command);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @return number of collections so far
+     */
+    private static long getGcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    /**
+     * @return time spent collecting so far
+     */
+    private static long getGcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, gc.getCollectionTime());
+        }
+        return millis;
+    }
+}
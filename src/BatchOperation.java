@@ -0,0 +1,87 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * This class holds a batch command of a transaction, which reads
+ * or writes several variables as one command. The operations are
+ * kept in ascending variable id order, so that every batch takes
+ * its locks in the same order and batches cannot deadlock each
+ * other, and they are issued one at a time: when one has to wait,
+ * the rest of the batch is issued once it is executed.
+ *
+ * Updated: 10/18/2026
+ */
+public class BatchOperation {
+
+    private final int transactionId; // transaction id
+    private final Operation.OperationType type; // operation type of every operation in the batch
+    private final List<Operation> operationList; // operations in ascending variable id order
+    private int nextIndex; // next operation to issue
+
+    public BatchOperation(int transactionId, Operation.OperationType type, List<Operation> operations) {
+        this.transactionId = transactionId;
+        this.type = type;
+        this.operationList = new ArrayList<>(operations);
+        this.operationList.sort(Comparator.comparingInt(Operation::getVariableId));
+        this.nextIndex = 0;
+        for (Operation operation : operationList) {
+            operation.setBatch(this);
+        }
+    }
+
+    /**
+     * Get transaction id.
+     * @return transaction id
+     */
+    public int getTransactionId() {
+        return transactionId;
+    }
+
+    /**
+     * Get operation type.
+     * @return operation type
+     */
+    public Operation.OperationType getType() {
+        return type;
+    }
+
+    /**
+     * Get the operations of the batch.
+     * @return operations in ascending variable id order
+     */
+    public List<Operation> getOperations() {
+        return Collections.unmodifiableList(operationList);
+    }
+
+    /**
+     * Tests if some operation has not been issued yet.
+     * @return true if there is a next operation
+     */
+    public boolean hasNext() {
+        return nextIndex < operationList.size();
+    }
+
+    /**
+     * Get the next operation to issue.
+     * @return next operation
+     */
+    public Operation next() {
+        return operationList.get(nextIndex++);
+    }
+
+    /**
+     * Print the values read by the batch as one record.
+     */
+    public void printReadValues() {
+        StringBuilder record = new StringBuilder();
+        for (Operation operation : operationList) {
+            if (record.length() > 0) {
+                record.append(", ");
+            }
+            record.append('x').append(operation.getVariableId()).append(": ").append(operation.formatValue());
+        }
+        System.out.println(record);
+    }
+}
@@ -0,0 +1,328 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * This class reads and writes the binary command protocol, which
+ * carries the same commands as the text syntax without any text
+ * parsing. A stream starts with a magic number and a version,
+ * followed by frames. A frame is an unsigned 16-bit record count
+ * followed by that many fixed-size records of an opcode byte and
+ * three big-endian ints a, b and c:
+ *  - begin, beginRO, end: a = transaction id
+ *  - read: a = transaction id, b = variable id; in a batch, c = last
+ *    id of a range starting at b, -1 for a single id
+ *  - write: a = transaction id, b = variable id, c = value
+ *  - fail, recover: a = site id
+ *  - dump: a = site id, b = variable id, -1 for none
+ *  - stats: no argument
+ *  - hotkeys: c = count, -1 for the default
+ * A batch command is a run of read or write records of one
+ * transaction, where every record but the last has the batch bit
+ * of its opcode set. Runs may span frames.
+ *
+ * Updated: 10/18/2026
+ */
+public class BinaryProtocol {
+
+    private static final int MAGIC = 0x52434250; // "RCBP"
+    private static final int VERSION = 1;
+    private static final int RECORD_SIZE = 13; // opcode and three ints
+    private static final int MAX_FRAME_RECORDS = 0xFFFF;
+
+    private static final int BEGIN = 1;
+    private static final int BEGIN_RO = 2;
+    private static final int END = 3;
+    private static final int READ = 4;
+    private static final int WRITE = 5;
+    private static final int FAIL = 6;
+    private static final int RECOVER = 7;
+    private static final int DUMP = 8;
+    private static final int STATS = 9;
+    private static final int HOT_KEYS = 10;
+    private static final int BATCH_CONTINUES = 0x80; // set on every record of a batch but the last
+    private static final int OPCODE_MASK = 0x7F;
+
+    /**
+     * Decodes commands from a binary stream into a reusable Command.
+     */
+    public static class Reader implements Closeable {
+        private final DataInputStream in;
+        private byte[] frame; // records of the current frame, grown to the largest frame read
+        private ByteBuffer frameBuffer; // view of frame positioned at the next record
+
+        public Reader(InputStream input) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(input));
+            this.frame = new byte[0];
+            this.frameBuffer = ByteBuffer.wrap(frame);
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a binary command stream");
+            }
+            int version = in.readUnsignedByte();
+            if (version != VERSION) {
+                throw new IOException("Unsupported binary command version " + version);
+            }
+        }
+
+        /**
+         * Decode the next command, reading frames as needed.
+         * @param command - command overwritten with the decoded one
+         * @return false at the end of the stream
+         * @throws IOException if the stream is malformed
+         */
+        public boolean next(Command command) throws IOException {
+            if (!nextRecord()) {
+                return false;
+            }
+            int opcode = frameBuffer.get() & 0xFF;
+            int a = frameBuffer.getInt();
+            int b = frameBuffer.getInt();
+            int c = frameBuffer.getInt();
+            switch (opcode & OPCODE_MASK) {
+                case BEGIN:
+                    command.setTransactionCommand(Command.Type.BEGIN, a);
+                    break;
+                case BEGIN_RO:
+                    command.setTransactionCommand(Command.Type.BEGIN_RO, a);
+                    break;
+                case END:
+                    command.setTransactionCommand(Command.Type.END, a);
+                    break;
+                case READ:
+                case WRITE:
+                    boolean isRead = (opcode & OPCODE_MASK) == READ;
+                    if ((opcode & BATCH_CONTINUES) == 0 && !(isRead && c >= 0)) { // a lone read range is still a batch
+                        command.setOperation(isRead ? Command.Type.READ : Command.Type.WRITE, a, b, c);
+                    } else {
+                        readBatch(command, isRead ? Command.Type.MULTI_READ : Command.Type.MULTI_WRITE, opcode, a, b, c);
+                    }
+                    break;
+                case FAIL:
+                    command.setSiteCommand(Command.Type.FAIL, a, -1);
+                    break;
+                case RECOVER:
+                    command.setSiteCommand(Command.Type.RECOVER, a, -1);
+                    break;
+                case DUMP:
+                    command.setSiteCommand(Command.Type.DUMP, a, b);
+                    break;
+                case STATS:
+                    command.clear(Command.Type.STATS);
+                    break;
+                case HOT_KEYS:
+                    command.setHotKeys(c);
+                    break;
+                default:
+                    throw new IOException("Unknown opcode " + opcode);
+            }
+            return true;
+        }
+
+        /**
+         * Decode the records of a batch, starting with one already read.
+         * @param command - command receiving the batch
+         * @param type - MULTI_READ or MULTI_WRITE
+         * @param opcode - opcode of the first record
+         * @param transactionId - transaction id of the first record
+         * @param variableId - variable id of the first record
+         * @param value - value of the first record
+         * @throws IOException if the batch is truncated or mixes transactions or opcodes
+         */
+        private void readBatch(Command command, Command.Type type, int opcode, int transactionId,
+                               int variableId, int value) throws IOException {
+            command.setTransactionCommand(type, transactionId);
+            command.addBatchEntry(variableId, value);
+            int batchOpcode = opcode & OPCODE_MASK;
+            while ((opcode & BATCH_CONTINUES) != 0) {
+                if (!nextRecord()) {
+                    throw new EOFException("Truncated batch");
+                }
+                opcode = frameBuffer.get() & 0xFF;
+                int a = frameBuffer.getInt();
+                int b = frameBuffer.getInt();
+                int c = frameBuffer.getInt();
+                if ((opcode & OPCODE_MASK) != batchOpcode || a != transactionId) {
+                    throw new IOException("Malformed batch of T" + transactionId);
+                }
+                command.addBatchEntry(b, c);
+            }
+        }
+
+        /**
+         * Make sure a record is available, reading the next frame if needed.
+         * @return false at the end of the stream
+         * @throws IOException if a frame is truncated
+         */
+        private boolean nextRecord() throws IOException {
+            while (!frameBuffer.hasRemaining()) {
+                int high = in.read();
+                if (high < 0) {
+                    return false;
+                }
+                int count = (high << 8) | in.readUnsignedByte();
+                if (frame.length < count * RECORD_SIZE) {
+                    frame = new byte[count * RECORD_SIZE];
+                    frameBuffer = ByteBuffer.wrap(frame);
+                }
+                in.readFully(frame, 0, count * RECORD_SIZE);
+                frameBuffer.clear();
+                frameBuffer.limit(count * RECORD_SIZE);
+            }
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * Encodes commands into frames of up to a given number of records.
+     */
+    public static class Writer implements Closeable {
+        private final DataOutputStream out;
+        private final ByteBuffer frameBuffer; // records of the frame being built
+        private final int frameRecords; // records per frame
+
+        public Writer(OutputStream output, int frameRecords) throws IOException {
+            this.out = new DataOutputStream(new BufferedOutputStream(output));
+            this.frameRecords = Math.max(1, Math.min(MAX_FRAME_RECORDS, frameRecords));
+            this.frameBuffer = ByteBuffer.allocate(this.frameRecords * RECORD_SIZE);
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+        }
+
+        /**
+         * Encode a command.
+         * @param command - command to encode
+         * @throws IOException if the command cannot be encoded
+         */
+        public void write(Command command) throws IOException {
+            switch (command.getType()) {
+                case BEGIN:
+                    writeRecord(BEGIN, command.getTransactionId(), -1, -1);
+                    break;
+                case BEGIN_RO:
+                    writeRecord(BEGIN_RO, command.getTransactionId(), -1, -1);
+                    break;
+                case END:
+                    writeRecord(END, command.getTransactionId(), -1, -1);
+                    break;
+                case READ:
+                    writeRecord(READ, command.getTransactionId(), command.getVariableId(), -1);
+                    break;
+                case WRITE:
+                    if (command.getValueType() != Value.Type.INT) {
+                        throw new IOException("Cannot encode typed value: " + command.toText());
+                    }
+                    writeRecord(WRITE, command.getTransactionId(), command.getVariableId(), command.getValue());
+                    break;
+                case MULTI_READ:
+                case MULTI_WRITE:
+                    if (command.getBatchSize() == 0) {
+                        throw new IOException("Cannot encode an empty batch: " + command.toText());
+                    }
+                    int opcode = command.getType() == Command.Type.MULTI_READ ? READ : WRITE;
+                    for (int i = 0; i < command.getBatchSize(); i++) {
+                        boolean last = i == command.getBatchSize() - 1;
+                        writeRecord(last ? opcode : opcode | BATCH_CONTINUES, command.getTransactionId(),
+                                command.getBatchVariableId(i), command.getBatchValue(i));
+                    }
+                    break;
+                case FAIL:
+                    writeRecord(FAIL, command.getSiteId(), -1, -1);
+                    break;
+                case RECOVER:
+                    writeRecord(RECOVER, command.getSiteId(), -1, -1);
+                    break;
+                case DUMP:
+                    writeRecord(DUMP, command.getSiteId(), command.getVariableId(), -1);
+                    break;
+                case STATS:
+                    writeRecord(STATS, -1, -1, -1);
+                    break;
+                case HOT_KEYS:
+                    writeRecord(HOT_KEYS, -1, -1, command.getValue());
+                    break;
+                case EMPTY:
+                    break;
+                default:
+                    throw new IOException("Cannot encode: " + command.toText());
+            }
+        }
+
+        /**
+         * Append a record, writing the frame out once it is full.
+         * @param opcode - opcode and flags
+         * @param a - first argument
+         * @param b - second argument
+         * @param c - third argument
+         * @throws IOException
+         */
+        private void writeRecord(int opcode, int a, int b, int c) throws IOException {
+            frameBuffer.put((byte) opcode).putInt(a).putInt(b).putInt(c);
+            if (!frameBuffer.hasRemaining()) {
+                flush();
+            }
+        }
+
+        /**
+         * Write out the records appended so far as one frame.
+         * @throws IOException
+         */
+        public void flush() throws IOException {
+            int count = frameBuffer.position() / RECORD_SIZE;
+            if (count > 0) {
+                out.writeShort(count);
+                out.write(frameBuffer.array(), 0, frameBuffer.position());
+                frameBuffer.clear();
+            }
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+            out.close();
+        }
+    }
+
+    /**
+     * Convert a file of text commands into the binary protocol.
+     * Usage: java BinaryProtocol input.txt output.bin [records per frame]
+     * @param args - input path, output path and optional frame size (default 256)
+     */
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.out.println("Usage: java BinaryProtocol <text input> <binary output> [records per frame]");
+            return;
+        }
+        int frameRecords = args.length > 2 ? Integer.parseInt(args[2]) : 256;
+        Command command = new Command();
+        int commandCount = 0;
+        try (BufferedReader reader = new BufferedReader(new FileReader(args[0]));
+             Writer writer = new Writer(new FileOutputStream(args[1]), frameRecords)) {
+            String line;
+            while ((line = reader.readLine()) != null && !line.isEmpty()) {
+                command.parse(line);
+                writer.write(command);
+                commandCount += 1;
+            }
+        } catch (IOException e) {
+            System.out.println("Cannot convert: " + e.getMessage());
+            return;
+        }
+        System.out.println("Converted " + commandCount + " commands");
+    }
+}
@@ -0,0 +1,90 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntFunction;
+
+/**
+ * This class stores byte values one after another in slabs and
+ * refers to each of them by a long handle holding its offset and
+ * length, so a store keeps a byte value in the same 64-bit slot
+ * as a long. Values never span slabs: one that does not fit in the
+ * rest of a slab starts the next one. Values are never freed, like
+ * the versions that refer to them. The slabs come from a factory,
+ * so they can be heap, direct or mapped buffers. Not thread-safe.
+ *
+ * Updated: 10/18/2026
+ */
+public class ByteArena {
+
+    public static final int SLAB_SIZE = 1 << 20; // bytes per slab, larger than any value
+
+    private final IntFunction<ByteBuffer> slabFactory; // provides slab i of SLAB_SIZE bytes
+    private final List<ByteBuffer> slabs; // slabs in use
+    private long size; // bytes used, including the unused ends of full slabs
+
+    /**
+     * Create an arena, getting back the slabs of an existing one.
+     * @param slabFactory - provides slab i of SLAB_SIZE bytes
+     * @param size - bytes already used, 0 for a new arena
+     */
+    public ByteArena(IntFunction<ByteBuffer> slabFactory, long size) {
+        this.slabFactory = slabFactory;
+        this.slabs = new ArrayList<>();
+        this.size = size;
+        while ((long) slabs.size() * SLAB_SIZE < size) {
+            slabs.add(slabFactory.apply(slabs.size()));
+        }
+    }
+
+    /**
+     * Copy a value into the arena.
+     * @param bytes - value of at most Value.MAX_BYTES_LENGTH bytes
+     * @return handle of the copy
+     */
+    public long append(byte[] bytes) {
+        if (bytes.length > Value.MAX_BYTES_LENGTH) {
+            throw new IllegalArgumentException("Value of " + bytes.length + " bytes is too long");
+        }
+        if (size % SLAB_SIZE + bytes.length > SLAB_SIZE) {
+            size = (size / SLAB_SIZE + 1) * SLAB_SIZE;
+        }
+        if (size == (long) slabs.size() * SLAB_SIZE) {
+            slabs.add(slabFactory.apply(slabs.size()));
+        }
+        long offset = size;
+        slabs.get((int) (offset / SLAB_SIZE)).put((int) (offset % SLAB_SIZE), bytes);
+        size += bytes.length;
+        return offset << 16 | bytes.length;
+    }
+
+    /**
+     * Copy a value out of the arena.
+     * @param handle - handle returned by append
+     * @return new array holding the value
+     */
+    public byte[] get(long handle) {
+        long offset = handle >>> 16;
+        byte[] bytes = new byte[(int) (handle & 0xFFFF)];
+        if (bytes.length == 0) {
+            return bytes; // an empty value may point past the last slab
+        }
+        slabs.get((int) (offset / SLAB_SIZE)).get((int) (offset % SLAB_SIZE), bytes);
+        return bytes;
+    }
+
+    /**
+     * Get the number of bytes used, to reopen the arena later.
+     * @return size
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Get the slabs in use.
+     * @return slabs, not to be modified
+     */
+    public List<ByteBuffer> getSlabs() {
+        return slabs;
+    }
+}
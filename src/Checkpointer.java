@@ -0,0 +1,279 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * This class writes and loads the snapshot file of a single site.
+ * A checkpoint is fuzzy: it starts at a write-ahead log segment
+ * boundary and copies a few variables (with all retained versions)
+ * at a time while transactions keep committing. Replaying the log
+ * from that segment on top of the snapshot is idempotent, since
+ * versions are keyed by commit time, so the log segments before it
+ * can be dropped once the snapshot is complete. A LONG, BYTES or
+ * DELETED version is stored with a negated commit time followed by its type
+ * and value, so INT versions keep their fixed 12-byte entry.
+ *
+ * Updated: 10/18/2026
+ */
+public class Checkpointer {
+
+    /**
+     * Receives the versions read back from the snapshot.
+     */
+    public interface Loader {
+        void loadVersion(int variableId, long updateTime, int value);
+
+        void loadTypedVersion(int variableId, long updateTime, Value value);
+    }
+
+    private static final int MAGIC = 0x52434350; // "RCCP"
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 16; // magic + format version + log segment
+    private static final int FOOTER_SIZE = 8; // variable count + checksum
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final Value.Type[] TYPES = Value.Type.values();
+
+    private final File snapshotFile; // latest complete snapshot
+    private final File temporaryFile; // snapshot being written
+    private final int interval; // commits between checkpoints, 0 to only load the snapshot
+    private final int stepSize; // variables copied per step
+    private final CRC32 checksum; // checksum of the snapshot being written
+    private int commitsSinceCheckpoint; // commits since the last checkpoint started
+    private FileChannel channel; // channel of the snapshot being written, null if idle
+    private ByteBuffer buffer; // staged snapshot bytes
+    private int[] variableIds; // variables to copy in the running checkpoint
+    private int nextIndex; // next variable to copy
+    private long segment; // log segment the running checkpoint starts at
+
+    public Checkpointer(File snapshotFile, int interval, int stepSize) {
+        this.snapshotFile = snapshotFile;
+        this.temporaryFile = new File(snapshotFile.getPath() + ".tmp");
+        this.interval = Math.max(0, interval);
+        this.stepSize = Math.max(1, stepSize);
+        this.checksum = new CRC32();
+        this.commitsSinceCheckpoint = 0;
+    }
+
+    /**
+     * Load the latest snapshot through a read-only memory mapping.
+     * @param loader - receives every version in the snapshot
+     * @return the first log segment to replay, or 0 if there is no snapshot
+     * @throws IOException if the snapshot is unreadable or corrupted
+     */
+    public long load(Loader loader) throws IOException {
+        Files.deleteIfExists(temporaryFile.toPath()); // unfinished checkpoint
+        if (!snapshotFile.exists()) {
+            return 0;
+        }
+        try (FileChannel in = FileChannel.open(snapshotFile.toPath(), StandardOpenOption.READ)) {
+            long size = in.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot too large to map: " + snapshotFile);
+            }
+            if (size < HEADER_SIZE + FOOTER_SIZE) {
+                throw new IOException("Truncated snapshot: " + snapshotFile);
+            }
+            MappedByteBuffer mapped = in.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            int bodyEnd = (int) size - FOOTER_SIZE;
+            ByteBuffer body = mapped.duplicate();
+            body.position(0).limit(bodyEnd + 4);
+            checksum.reset();
+            checksum.update(body);
+            if ((int) checksum.getValue() != mapped.getInt(bodyEnd + 4)) {
+                throw new IOException("Corrupted snapshot: " + snapshotFile);
+            }
+            if (mapped.getInt() != MAGIC || mapped.getInt() != FORMAT_VERSION) {
+                throw new IOException("Unknown snapshot format: " + snapshotFile);
+            }
+            long firstSegment = mapped.getLong();
+            int variableCount = 0;
+            while (mapped.position() < bodyEnd) {
+                int variableId = mapped.getInt();
+                int versionCount = mapped.getInt();
+                for (int i = 0; i < versionCount; i++) {
+                    long updateTime = mapped.getLong();
+                    if (updateTime >= 0) {
+                        loader.loadVersion(variableId, updateTime, mapped.getInt());
+                        continue;
+                    }
+                    Value.Type type = TYPES[mapped.get()];
+                    if (type == Value.Type.LONG) {
+                        loader.loadTypedVersion(variableId, ~updateTime, Value.ofLong(mapped.getLong()));
+                    } else if (type == Value.Type.DELETED) {
+                        loader.loadTypedVersion(variableId, ~updateTime, Value.ofDeleted());
+                    } else {
+                        byte[] bytes = new byte[mapped.getShort() & 0xFFFF];
+                        mapped.get(bytes);
+                        loader.loadTypedVersion(variableId, ~updateTime, Value.ofBytes(bytes));
+                    }
+                }
+                variableCount += 1;
+            }
+            if (variableCount != mapped.getInt(bodyEnd)) {
+                throw new IOException("Incomplete snapshot: " + snapshotFile);
+            }
+            return firstSegment;
+        }
+    }
+
+    /**
+     * Count a commit towards the next checkpoint.
+     */
+    public void recordCommit() {
+        commitsSinceCheckpoint += 1;
+    }
+
+    /**
+     * Check if a new checkpoint should be started.
+     * @return true if checkpoints are taken, enough commits happened and no checkpoint is running
+     */
+    public boolean isDue() {
+        return interval > 0 && channel == null && commitsSinceCheckpoint >= interval;
+    }
+
+    /**
+     * Check if a checkpoint is being written.
+     * @return true if a checkpoint is running
+     */
+    public boolean isInProgress() {
+        return channel != null;
+    }
+
+    /**
+     * Start a checkpoint. The log must have been rolled to the given segment,
+     * so that every commit not in the snapshot is in that segment or later.
+     * @param segment - first log segment the snapshot does not cover
+     * @param variableIds - variables to copy
+     * @throws IOException if the snapshot file cannot be created
+     */
+    public void start(long segment, int[] variableIds) throws IOException {
+        this.segment = segment;
+        this.variableIds = variableIds;
+        this.nextIndex = 0;
+        this.commitsSinceCheckpoint = 0;
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+        buffer.clear();
+        checksum.reset();
+        channel = FileChannel.open(temporaryFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        buffer.putInt(MAGIC);
+        buffer.putInt(FORMAT_VERSION);
+        buffer.putLong(segment);
+    }
+
+    /**
+     * Copy the next few variables into the snapshot, and complete the
+     * checkpoint once every variable has been copied.
+     * @param variableStore - live variables of the site
+     * @return true if the checkpoint completed in this step
+     * @throws IOException if the snapshot cannot be written
+     */
+    public boolean step(VariableStore variableStore) throws IOException {
+        int end = Math.min(variableIds.length, nextIndex + stepSize);
+        for (; nextIndex < end; nextIndex++) {
+            Map<Long, Value> versions = variableStore.getVersionsAfter(variableIds[nextIndex], -1);
+            ensureCapacity(8);
+            buffer.putInt(variableIds[nextIndex]);
+            buffer.putInt(versions.size());
+            for (Map.Entry<Long, Value> version : versions.entrySet()) {
+                putVersion(version.getKey(), version.getValue());
+            }
+        }
+        if (nextIndex < variableIds.length) {
+            return false;
+        }
+        ensureCapacity(4);
+        buffer.putInt(variableIds.length);
+        writeBuffer();
+        buffer.putInt((int) checksum.getValue());
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+        channel.force(true);
+        channel.close();
+        channel = null;
+        Files.move(temporaryFile.toPath(), snapshotFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return true;
+    }
+
+    /**
+     * Get the first log segment not covered by the last started checkpoint.
+     * @return log segment
+     */
+    public long getSegment() {
+        return segment;
+    }
+
+    /**
+     * Stage one version of a variable.
+     * @param updateTime - commit time of the version
+     * @param value - value of the version
+     * @throws IOException if the snapshot cannot be written
+     */
+    private void putVersion(long updateTime, Value value) throws IOException {
+        switch (value.getType()) {
+            case INT:
+                ensureCapacity(12);
+                buffer.putLong(updateTime);
+                buffer.putInt((int) value.getNumber());
+                break;
+            case LONG:
+                ensureCapacity(17);
+                buffer.putLong(~updateTime);
+                buffer.put((byte) Value.Type.LONG.ordinal());
+                buffer.putLong(value.getNumber());
+                break;
+            case DELETED:
+                ensureCapacity(9);
+                buffer.putLong(~updateTime);
+                buffer.put((byte) Value.Type.DELETED.ordinal());
+                break;
+            default:
+                ensureCapacity(11 + value.getBytes().length);
+                buffer.putLong(~updateTime);
+                buffer.put((byte) Value.Type.BYTES.ordinal());
+                buffer.putShort((short) value.getBytes().length);
+                buffer.put(value.getBytes());
+        }
+    }
+
+    /**
+     * Make room in the staging buffer, writing out staged bytes if needed.
+     * @param size - number of bytes about to be staged
+     * @throws IOException if the snapshot cannot be written
+     */
+    private void ensureCapacity(int size) throws IOException {
+        if (buffer.remaining() >= size) {
+            return;
+        }
+        writeBuffer();
+        if (buffer.capacity() < size) {
+            buffer = ByteBuffer.allocateDirect(size);
+        }
+    }
+
+    /**
+     * Write the staged bytes to the snapshot and add them to the checksum.
+     * @throws IOException if the snapshot cannot be written
+     */
+    private void writeBuffer() throws IOException {
+        buffer.flip();
+        checksum.update(buffer.duplicate());
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
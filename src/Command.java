@@ -0,0 +1,514 @@
+import java.util.Arrays;
+
+/**
+ * This class holds one decoded input command as plain ints, so that
+ * text lines and binary frames are executed by the same handlers.
+ * An instance is meant to be reused: parsing or decoding a command
+ * overwrites the previous one. Unused fields are -1. Batch commands
+ * keep their variables (and values, for writes) in growable arrays.
+ * A single write may also carry a LONG value, written with an L
+ * suffix as in W(T1, x2, 5000000000L), or a BYTES value, written as
+ * an even number of hex digits after 0x as in W(T1, x2, 0x0a1b).
+ * A delete, D(T1, x2), is a write of a DELETED value.
+ *
+ * Updated: 10/18/2026
+ */
+public class Command {
+
+    public enum Type {
+        BEGIN, // begin(T1)
+        BEGIN_RO, // beginRO(T1)
+        END, // end(T1)
+        READ, // R(T1, x2)
+        WRITE, // W(T1, x2, 5), W(T1, x2, 5L), W(T1, x2, 0x05) or D(T1, x2)
+        MULTI_READ, // MR(T1, x1..x5) or MR(T1, x2, x7)
+        MULTI_WRITE, // MW(T1, x2=5, x4=7)
+        FAIL, // fail(1)
+        RECOVER, // recover(1)
+        DUMP, // dump(), dump(1) or dump(x2)
+        STATS, // stats()
+        HOT_KEYS, // hotkeys(5) or hotkeys()
+        EMPTY, // blank line
+        UNKNOWN, // anything else
+    }
+
+    private static final String WRITE_PREFIX = "W";
+    private static final String READ_PREFIX = "R";
+    private static final String DELETE_PREFIX = "D";
+    private static final String MULTI_WRITE_PREFIX = "MW";
+    private static final String MULTI_READ_PREFIX = "MR";
+    private static final String RANGE_SEPARATOR = "..";
+    private static final String BEGIN_PREFIX = "begin";
+    private static final String BEGIN_RO_PREFIX = "beginRO";
+    private static final String END_PREFIX = "end";
+    private static final String DUMP_PREFIX = "dump";
+    private static final String FAIL_PREFIX = "fail";
+    private static final String RECOVER_PREFIX = "recover";
+    private static final String STATS_PREFIX = "stats";
+    private static final String HOT_KEYS_PREFIX = "hotkeys";
+
+    private Type type; // kind of command
+    private int transactionId; // transaction id
+    private int variableId; // variable id of a read, write or variable dump
+    private int value; // value of a write, or count of a hot key report
+    private Value.Type valueType; // type of the value of a write
+    private long longValue; // LONG value of a write
+    private byte[] bytesValue; // BYTES value of a write, null otherwise
+    private int siteId; // site id of a failure, recovery or site dump
+    private int[] batchVariableIds; // variable ids of a batch command, in input order
+    private int[] batchValues; // values of a batch write, or last id of a batch read range, -1 for a single id
+    private int batchSize; // number of variables of a batch command
+    private String text; // text the command was parsed from, null if decoded from binary
+
+    public Command() {
+        this.batchVariableIds = new int[8];
+        this.batchValues = new int[8];
+        clear(Type.EMPTY);
+    }
+
+    /**
+     * Reset the command to a type with every field unused.
+     * @param type - kind of command
+     */
+    public void clear(Type type) {
+        this.type = type;
+        this.transactionId = -1;
+        this.variableId = -1;
+        this.value = -1;
+        this.valueType = Value.Type.INT;
+        this.longValue = 0;
+        this.bytesValue = null;
+        this.siteId = -1;
+        this.batchSize = 0;
+        this.text = null;
+    }
+
+    /**
+     * Set a transaction command: begin, beginRO or end.
+     * @param type - kind of command
+     * @param transactionId
+     */
+    public void setTransactionCommand(Type type, int transactionId) {
+        clear(type);
+        this.transactionId = transactionId;
+    }
+
+    /**
+     * Set a read or write.
+     * @param type - READ or WRITE
+     * @param transactionId
+     * @param variableId
+     * @param value - value to write, ignored for reads
+     */
+    public void setOperation(Type type, int transactionId, int variableId, int value) {
+        clear(type);
+        this.transactionId = transactionId;
+        this.variableId = variableId;
+        this.value = type == Type.WRITE ? value : -1;
+    }
+
+    /**
+     * Set a write of a value of any type.
+     * @param transactionId
+     * @param variableId
+     * @param valueType - type of the value
+     * @param number - INT or LONG value
+     * @param bytes - BYTES value
+     */
+    public void setTypedWrite(int transactionId, int variableId, Value.Type valueType, long number, byte[] bytes) {
+        setOperation(Type.WRITE, transactionId, variableId, valueType == Value.Type.INT ? (int) number : 0);
+        this.valueType = valueType;
+        this.longValue = number;
+        this.bytesValue = bytes;
+    }
+
+    /**
+     * Set a site command: fail, recover or dump.
+     * @param type - kind of command
+     * @param siteId - site id, -1 for none
+     * @param variableId - variable id of a variable dump, -1 for none
+     */
+    public void setSiteCommand(Type type, int siteId, int variableId) {
+        clear(type);
+        this.siteId = siteId;
+        this.variableId = variableId;
+    }
+
+    /**
+     * Set a hot key report.
+     * @param count - number of copies reported, -1 for the default
+     */
+    public void setHotKeys(int count) {
+        clear(Type.HOT_KEYS);
+        this.value = count;
+    }
+
+    /**
+     * Add a variable to a batch command.
+     * @param variableId - variable id, or first id of a batch read range
+     * @param value - value to write, or last id of a batch read range, -1 for a single read
+     */
+    public void addBatchEntry(int variableId, int value) {
+        if (batchSize == batchVariableIds.length) {
+            batchVariableIds = Arrays.copyOf(batchVariableIds, batchSize * 2);
+            batchValues = Arrays.copyOf(batchValues, batchSize * 2);
+        }
+        batchVariableIds[batchSize] = variableId;
+        batchValues[batchSize] = value;
+        batchSize += 1;
+    }
+
+    /**
+     * Parse a line of the text syntax into this command. Single-variable
+     * commands are scanned in place, without substrings or regular expressions;
+     * ids are made of all the digits in their field, as in T12 or x3.
+     * @param line - input line
+     * @throws NumberFormatException if the arguments of a recognized command are malformed
+     */
+    public void parse(String line) {
+        line = line.trim();
+        int end = line.length();
+        if (line.startsWith(BEGIN_RO_PREFIX)) {
+            setTransactionCommand(Type.BEGIN_RO, parseDigits(line, 0, end));
+        } else if (line.startsWith(BEGIN_PREFIX)) {
+            setTransactionCommand(Type.BEGIN, parseDigits(line, 0, end));
+        } else if (line.startsWith(END_PREFIX)) {
+            setTransactionCommand(Type.END, parseDigits(line, 0, end));
+        } else if (line.startsWith(DUMP_PREFIX)) {
+            if (line.equals("dump()")) {
+                setSiteCommand(Type.DUMP, -1, -1);
+            } else if (line.indexOf('x') >= 0) {
+                setSiteCommand(Type.DUMP, -1, parseDigits(line, 0, end));
+            } else { // Dumping single site
+                setSiteCommand(Type.DUMP, parseDigits(line, 0, end), -1);
+            }
+        } else if (line.startsWith(STATS_PREFIX)) {
+            clear(Type.STATS);
+        } else if (line.startsWith(HOT_KEYS_PREFIX)) {
+            setHotKeys(hasDigit(line, 0, end) ? parseDigits(line, 0, end) : -1);
+        } else if (line.startsWith(MULTI_READ_PREFIX)) {
+            parseMultiRead(line);
+        } else if (line.startsWith(MULTI_WRITE_PREFIX)) {
+            parseMultiWrite(line);
+        } else if (line.startsWith(DELETE_PREFIX)) {
+            // D(T1, x2): the same fields as a read
+            int first = line.indexOf(',', 2);
+            if (first < 0 || first >= end - 1) {
+                throw new NumberFormatException("Missing variable: " + line);
+            }
+            setTypedWrite(parseDigits(line, 2, first), parseDigits(line, first + 1, end - 1),
+                    Value.Type.DELETED, 0, null);
+        } else if (line.startsWith(READ_PREFIX) || line.startsWith(WRITE_PREFIX)) {
+            // R(T1, x2) or W(T1, x2, 5): fields between the parentheses, separated by commas
+            int first = line.indexOf(',', 2);
+            if (first < 0 || first >= end - 1) {
+                throw new NumberFormatException("Missing variable: " + line);
+            }
+            int second = line.indexOf(',', first + 1);
+            boolean isRead = line.startsWith(READ_PREFIX);
+            int variableEnd = second < 0 || second >= end - 1 ? end - 1 : second;
+            if (!isRead && variableEnd == end - 1) {
+                throw new NumberFormatException("Missing value: " + line);
+            }
+            if (!isRead && isTypedValue(line, variableEnd + 1, end - 1)) {
+                parseTypedWrite(line, parseDigits(line, 2, first), parseDigits(line, first + 1, variableEnd),
+                        variableEnd + 1, end - 1);
+            } else {
+                setOperation(isRead ? Type.READ : Type.WRITE,
+                        parseDigits(line, 2, first),
+                        parseDigits(line, first + 1, variableEnd),
+                        isRead ? -1 : parseSigned(line, variableEnd + 1, end - 1));
+            }
+        } else if (line.startsWith(FAIL_PREFIX)) {
+            setSiteCommand(Type.FAIL, parseDigits(line, 0, end), -1);
+        } else if (line.startsWith(RECOVER_PREFIX)) {
+            setSiteCommand(Type.RECOVER, parseDigits(line, 0, end), -1);
+        } else {
+            clear(line.isEmpty() ? Type.EMPTY : Type.UNKNOWN);
+        }
+        text = line;
+    }
+
+    /**
+     * Tests if a range of a string holds a digit.
+     * @param text - string
+     * @param from - first index
+     * @param to - index after the last
+     * @return true if some character is a digit
+     */
+    private static boolean hasDigit(String text, int from, int to) {
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            if (c >= '0' && c <= '9') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Read the number made of all the digits in a range of a string, skipping
+     * every other character, as in T12 or x3.
+     * @param text - string
+     * @param from - first index
+     * @param to - index after the last
+     * @return number
+     * @throws NumberFormatException if there is no digit or the number overflows
+     */
+    private static int parseDigits(String text, int from, int to) {
+        long number = 0;
+        boolean found = false;
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            if (c >= '0' && c <= '9') {
+                number = number * 10 + (c - '0');
+                found = true;
+                if (number > Integer.MAX_VALUE) {
+                    throw new NumberFormatException("Number too large: " + text);
+                }
+            }
+        }
+        if (!found) {
+            throw new NumberFormatException("Missing number: " + text);
+        }
+        return (int) number;
+    }
+
+    /**
+     * Read a signed decimal number in a range of a string, ignoring spaces.
+     * @param text - string
+     * @param from - first index
+     * @param to - index after the last
+     * @return number
+     * @throws NumberFormatException if the range holds anything else or the number overflows
+     */
+    private static int parseSigned(String text, int from, int to) {
+        long number = 0;
+        boolean negative = false;
+        boolean found = false;
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            if (c == ' ') {
+                continue;
+            }
+            if ((c == '-' || c == '+') && !found && !negative) {
+                negative = c == '-';
+            } else if (c >= '0' && c <= '9') {
+                number = number * 10 + (c - '0');
+                found = true;
+                if (number > (long) Integer.MAX_VALUE + 1) {
+                    throw new NumberFormatException("Number too large: " + text);
+                }
+            } else {
+                throw new NumberFormatException("Not a number: " + text);
+            }
+        }
+        number = negative ? -number : number;
+        if (!found || number > Integer.MAX_VALUE) {
+            throw new NumberFormatException("Not a number: " + text);
+        }
+        return (int) number;
+    }
+
+    /**
+     * Tests if the value of a write is a LONG or BYTES literal: a number followed by L,
+     * or 0x followed by hex digits.
+     * @param text - string
+     * @param from - first index of the value
+     * @param to - index after the last
+     * @return true if the value is not an INT
+     */
+    private static boolean isTypedValue(String text, int from, int to) {
+        while (from < to && text.charAt(from) == ' ') {
+            from++;
+        }
+        while (to > from && text.charAt(to - 1) == ' ') {
+            to--;
+        }
+        if (to == from) {
+            return false;
+        }
+        char last = text.charAt(to - 1);
+        return last == 'L' || last == 'l'
+                || to - from >= 2 && text.charAt(from) == '0' && (text.charAt(from + 1) == 'x' || text.charAt(from + 1) == 'X');
+    }
+
+    /**
+     * Parse a write of a LONG or BYTES literal.
+     * @param text - string
+     * @param transactionId
+     * @param variableId
+     * @param from - first index of the value
+     * @param to - index after the last
+     * @throws NumberFormatException if the literal is malformed or too long
+     */
+    private void parseTypedWrite(String text, int transactionId, int variableId, int from, int to) {
+        String literal = text.substring(from, to).trim();
+        char last = literal.charAt(literal.length() - 1);
+        if (last == 'L' || last == 'l') {
+            setTypedWrite(transactionId, variableId, Value.Type.LONG,
+                    Long.parseLong(literal.substring(0, literal.length() - 1)), null);
+            return;
+        }
+        int digitCount = literal.length() - 2;
+        if (digitCount % 2 != 0 || digitCount / 2 > Value.MAX_BYTES_LENGTH) {
+            throw new NumberFormatException("Not a byte value: " + text);
+        }
+        byte[] bytes = new byte[digitCount / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            int high = Character.digit(literal.charAt(2 + i * 2), 16);
+            int low = Character.digit(literal.charAt(3 + i * 2), 16);
+            if (high < 0 || low < 0) {
+                throw new NumberFormatException("Not a byte value: " + text);
+            }
+            bytes[i] = (byte) (high << 4 | low);
+        }
+        setTypedWrite(transactionId, variableId, Value.Type.BYTES, 0, bytes);
+    }
+
+    /**
+     * Parse a batch read such as MR(T1, x1..x5) or MR(T1, x2, x7)
+     * @param line - input line
+     */
+    private void parseMultiRead(String line) {
+        String info = line.substring(MULTI_READ_PREFIX.length() + 1, line.length() - 1).replace(" ", "");
+        String[] infos = info.split(",");
+        setTransactionCommand(Type.MULTI_READ, Integer.parseInt(infos[0].replaceAll("\\D+", "")));
+        for (int i = 1; i < infos.length; i++) {
+            int rangeIndex = infos[i].indexOf(RANGE_SEPARATOR);
+            if (rangeIndex >= 0) {
+                int first = Integer.parseInt(infos[i].substring(0, rangeIndex).replaceAll("\\D+", ""));
+                int last = Integer.parseInt(infos[i].substring(rangeIndex + RANGE_SEPARATOR.length()).replaceAll("\\D+", ""));
+                if (Math.max(1, first) <= last) {
+                    // kept as a range: it is expanded at run time over the variables that exist
+                    addBatchEntry(Math.max(1, first), last);
+                }
+            } else {
+                addBatchEntry(Integer.parseInt(infos[i].replaceAll("\\D+", "")), -1);
+            }
+        }
+    }
+
+    /**
+     * Parse a batch write such as MW(T1, x2=5, x4=7)
+     * @param line - input line
+     */
+    private void parseMultiWrite(String line) {
+        String info = line.substring(MULTI_WRITE_PREFIX.length() + 1, line.length() - 1).replace(" ", "");
+        String[] infos = info.split(",");
+        setTransactionCommand(Type.MULTI_WRITE, Integer.parseInt(infos[0].replaceAll("\\D+", "")));
+        for (int i = 1; i < infos.length; i++) {
+            String[] assignment = infos[i].split("=");
+            addBatchEntry(Integer.parseInt(assignment[0].replaceAll("\\D+", "")), Integer.parseInt(assignment[1]));
+        }
+    }
+
+    /**
+     * Get the command in the text syntax: the parsed line, or a rendering of a decoded command.
+     * @return text of the command
+     */
+    public String toText() {
+        if (text != null) {
+            return text;
+        }
+        switch (type) {
+            case BEGIN:
+                return "begin(T" + transactionId + ")";
+            case BEGIN_RO:
+                return "beginRO(T" + transactionId + ")";
+            case END:
+                return "end(T" + transactionId + ")";
+            case READ:
+                return "R(T" + transactionId + ", x" + variableId + ")";
+            case WRITE:
+                if (valueType == Value.Type.DELETED) {
+                    return "D(T" + transactionId + ", x" + variableId + ")";
+                }
+                return "W(T" + transactionId + ", x" + variableId + ", " + formatValue() + ")";
+            case MULTI_READ:
+            case MULTI_WRITE:
+                StringBuilder batch = new StringBuilder(type == Type.MULTI_READ ? "MR(T" : "MW(T").append(transactionId);
+                for (int i = 0; i < batchSize; i++) {
+                    batch.append(", x").append(batchVariableIds[i]);
+                    if (type == Type.MULTI_READ && batchValues[i] >= 0) {
+                        batch.append(RANGE_SEPARATOR).append('x').append(batchValues[i]);
+                    }
+                    if (type == Type.MULTI_WRITE) {
+                        batch.append('=').append(batchValues[i]);
+                    }
+                }
+                return batch.append(')').toString();
+            case FAIL:
+                return "fail(" + siteId + ")";
+            case RECOVER:
+                return "recover(" + siteId + ")";
+            case DUMP:
+                return variableId >= 0 ? "dump(x" + variableId + ")" : siteId >= 0 ? "dump(" + siteId + ")" : "dump()";
+            case STATS:
+                return "stats()";
+            case HOT_KEYS:
+                return value >= 0 ? "hotkeys(" + value + ")" : "hotkeys()";
+            default:
+                return "";
+        }
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public int getTransactionId() {
+        return transactionId;
+    }
+
+    public int getVariableId() {
+        return variableId;
+    }
+
+    public int getValue() {
+        return value;
+    }
+
+    public Value.Type getValueType() {
+        return valueType;
+    }
+
+    public long getLongValue() {
+        return longValue;
+    }
+
+    public byte[] getBytesValue() {
+        return bytesValue;
+    }
+
+    /**
+     * Format the value of a write as the text syntax writes it.
+     * @return value literal
+     */
+    private String formatValue() {
+        switch (valueType) {
+            case LONG:
+                return longValue + "L";
+            case BYTES:
+                return Value.format(valueType, 0, bytesValue);
+            default:
+                return Integer.toString(value);
+        }
+    }
+
+    public int getSiteId() {
+        return siteId;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public int getBatchVariableId(int index) {
+        return batchVariableIds[index];
+    }
+
+    public int getBatchValue(int index) {
+        return batchValues[index];
+    }
+}
@@ -0,0 +1,213 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This class reads and writes recorded command logs. A log starts
+ * with a magic number and a version, followed by one record per
+ * command: the logical time after the command, the wall time since
+ * the recording started, the command text and the output it printed.
+ * Times are stored as deltas from the previous record and every
+ * number is a variable-length integer, so a record of a short
+ * command with no output takes a handful of bytes.
+ *
+ * Updated: 10/18/2026
+ */
+public class CommandLog {
+
+    private static final int MAGIC = 0x52435243; // "RCRC"
+    private static final int VERSION = 1;
+
+    /**
+     * One recorded command.
+     */
+    public static class Entry {
+        private final long time; // logical time after the command
+        private final long nanos; // wall time since the recording started
+        private final String command; // command text as read
+        private final String output; // everything the command printed
+
+        public Entry(long time, long nanos, String command, String output) {
+            this.time = time;
+            this.nanos = nanos;
+            this.command = command;
+            this.output = output;
+        }
+
+        public long getTime() {
+            return time;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        public String getCommand() {
+            return command;
+        }
+
+        public String getOutput() {
+            return output;
+        }
+    }
+
+    /**
+     * Appends records to a new log file.
+     */
+    public static class Writer implements Closeable {
+        private final DataOutputStream out;
+        private final long startNanos; // wall time the recording started
+        private long lastTime; // logical time of the previous record
+        private long lastNanos; // wall time of the previous record
+
+        public Writer(File file) throws IOException {
+            this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            this.startNanos = System.nanoTime();
+            this.lastTime = 0;
+            this.lastNanos = 0;
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+        }
+
+        /**
+         * Append a record.
+         * @param time - logical time after the command
+         * @param wallNanos - System.nanoTime() when the command was read
+         * @param command - command text
+         * @param output - output of the command
+         * @throws IOException
+         */
+        public void append(long time, long wallNanos, String command, String output) throws IOException {
+            long nanos = Math.max(lastNanos, wallNanos - startNanos);
+            writeVarLong(out, time - lastTime);
+            writeVarLong(out, nanos - lastNanos);
+            writeString(out, command);
+            writeString(out, output);
+            lastTime = time;
+            lastNanos = nanos;
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    /**
+     * Reads the records of a log file in order.
+     */
+    public static class Reader implements Closeable {
+        private final DataInputStream in;
+        private long lastTime; // logical time of the previous record
+        private long lastNanos; // wall time of the previous record
+
+        public Reader(File file) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            this.lastTime = 0;
+            this.lastNanos = 0;
+            if (in.readInt() != MAGIC) {
+                in.close();
+                throw new IOException("Not a command log: " + file);
+            }
+            int version = in.readUnsignedByte();
+            if (version != VERSION) {
+                in.close();
+                throw new IOException("Unsupported command log version " + version);
+            }
+        }
+
+        /**
+         * Read the next record.
+         * @return record, or null at the end of the log
+         * @throws IOException
+         */
+        public Entry next() throws IOException {
+            int first = in.read();
+            if (first < 0) {
+                return null;
+            }
+            lastTime += readVarLong(in, first);
+            lastNanos += readVarLong(in, in.readUnsignedByte());
+            String command = readString(in);
+            String output = readString(in);
+            return new Entry(lastTime, lastNanos, command, output);
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * Write a non-negative number, seven bits per byte, low bits first.
+     * @param out - stream
+     * @param value - value to write
+     * @throws IOException
+     */
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    /**
+     * Read a number written by writeVarLong.
+     * @param in - stream
+     * @param first - first byte, already read
+     * @return value
+     * @throws IOException
+     */
+    private static long readVarLong(DataInputStream in, int first) throws IOException {
+        long value = first & 0x7F;
+        int shift = 7;
+        int current = first;
+        while ((current & 0x80) != 0) {
+            if (shift > 63) {
+                throw new IOException("Malformed command log");
+            }
+            current = in.readUnsignedByte();
+            value |= (long) (current & 0x7F) << shift;
+            shift += 7;
+        }
+        return value;
+    }
+
+    /**
+     * Write a string as its UTF-8 length and bytes.
+     * @param out - stream
+     * @param text - string to write
+     * @throws IOException
+     */
+    private static void writeString(DataOutputStream out, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(out, bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Read a string written by writeString.
+     * @param in - stream
+     * @return string
+     * @throws IOException
+     */
+    private static String readString(DataInputStream in) throws IOException {
+        long length = readVarLong(in, in.readUnsignedByte());
+        if (length > Integer.MAX_VALUE) {
+            throw new EOFException("Malformed command log");
+        }
+        byte[] bytes = new byte[(int) length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -3,10 +3,11 @@ import java.util.*;
 /**
  * This class serves as the deadlock manager. It will
  * construct a graph and use BFS topological sort
- * to detect any cycle.
+ * to detect any cycle, and can single out the
+ * transactions that are actually on a cycle.
  *
  * @author Weiqiang Li
- * Updated: 12/05/2018
+ * Updated: 10/18/2026
  */
 public class DeadlockManager {
 
@@ -84,9 +85,11 @@ public class DeadlockManager {
     }
 
     private Map<Vertex, Integer> graph; // <key: vertex, val: indegree>
+    private Map<Integer, Vertex> vertexMap; // <key: vertex id, val: vertex in the graph>
 
     public DeadlockManager() {
         graph = new HashMap<>();
+        vertexMap = new HashMap<>();
     }
 
     /**
@@ -94,7 +97,12 @@ public class DeadlockManager {
      * @param vertexId
      */
     public void addVertex(int vertexId) {
-        graph.put(new Vertex(vertexId), 0);
+        Vertex vertex = vertexMap.get(vertexId);
+        if (vertex == null) {
+            vertex = new Vertex(vertexId);
+            vertexMap.put(vertexId, vertex);
+        }
+        graph.put(vertex, 0);
     }
 
     /**
@@ -112,12 +120,7 @@ public class DeadlockManager {
      * @return vertex, or null if not exists in graph
      */
     private Vertex getVertex(int vertexId) {
-        for (Vertex vertex : graph.keySet()) {
-            if (vertex.getVertexId() == vertexId) {
-                return vertex;
-            }
-        }
-        return null;
+        return vertexMap.get(vertexId);
     }
 
     /**
@@ -150,9 +153,10 @@ public class DeadlockManager {
             graph.put(child, graph.get(child) - 1);
         }
         for (Vertex v : graph.keySet()) {
-            v.removeChild(vertexId);
+            v.removeChild(vertex);
         }
         graph.remove(vertex);
+        vertexMap.remove(vertexId);
     }
 
     /**
@@ -187,6 +191,94 @@ public class DeadlockManager {
         return deadlockList;
     }
 
+    /**
+     * Find the transactions that are actually on a cycle. The vertices left by
+     * detectDeadlock also include transactions that only wait for a cycle, so
+     * the strongly connected components among them are computed with Tarjan's
+     * algorithm, and each component with more than one vertex is a deadlock.
+     * @return one list of transaction ids per deadlock; empty if there is no deadlock
+     */
+    public List<List<Integer>> detectDeadlockCycles() {
+        Set<Integer> candidates = new HashSet<>(detectDeadlock());
+        List<List<Integer>> cycles = new ArrayList<>();
+        Map<Integer, Integer> indexMap = new HashMap<>();
+        Map<Integer, Integer> lowLinkMap = new HashMap<>();
+        Deque<Integer> stack = new ArrayDeque<>();
+        Set<Integer> onStack = new HashSet<>();
+        for (int vertexId : candidates) {
+            if (!indexMap.containsKey(vertexId)) {
+                connect(vertexId, candidates, indexMap, lowLinkMap, stack, onStack, cycles);
+            }
+        }
+        return cycles;
+    }
+
+    /**
+     * Count the edges between a vertex and the other members of its cycle,
+     * which grows with the number of cycles that go through it.
+     * @param vertexId - the vertex id
+     * @param cycle - ids of the vertices on the same cycle
+     * @return number of incoming and outgoing edges within the cycle
+     */
+    public int getCycleDegree(int vertexId, Collection<Integer> cycle) {
+        int degree = 0;
+        Vertex vertex = getVertex(vertexId);
+        for (int otherId : cycle) {
+            Vertex other = getVertex(otherId);
+            if (vertex.containsChild(other)) {
+                degree += 1;
+            }
+            if (other.containsChild(vertex)) {
+                degree += 1;
+            }
+        }
+        return degree;
+    }
+
+    /**
+     * Tarjan's depth-first step over the candidate vertices.
+     * @param vertexId - vertex being visited
+     * @param candidates - vertices left by the topological sort
+     * @param indexMap - visiting order of each vertex
+     * @param lowLinkMap - smallest visiting order reachable from each vertex
+     * @param stack - vertices of the components not completed yet
+     * @param onStack - the vertices currently on the stack
+     * @param cycles - receives every component with more than one vertex
+     */
+    private void connect(int vertexId, Set<Integer> candidates,
+                         Map<Integer, Integer> indexMap, Map<Integer, Integer> lowLinkMap,
+                         Deque<Integer> stack, Set<Integer> onStack, List<List<Integer>> cycles) {
+        int index = indexMap.size();
+        indexMap.put(vertexId, index);
+        lowLinkMap.put(vertexId, index);
+        stack.push(vertexId);
+        onStack.add(vertexId);
+        for (Vertex child : getVertex(vertexId).getChildren()) {
+            int childId = child.getVertexId();
+            if (!candidates.contains(childId)) {
+                continue;
+            }
+            if (!indexMap.containsKey(childId)) {
+                connect(childId, candidates, indexMap, lowLinkMap, stack, onStack, cycles);
+                lowLinkMap.put(vertexId, Math.min(lowLinkMap.get(vertexId), lowLinkMap.get(childId)));
+            } else if (onStack.contains(childId)) {
+                lowLinkMap.put(vertexId, Math.min(lowLinkMap.get(vertexId), indexMap.get(childId)));
+            }
+        }
+        if (lowLinkMap.get(vertexId).equals(indexMap.get(vertexId))) {
+            List<Integer> component = new ArrayList<>();
+            int memberId;
+            do {
+                memberId = stack.pop();
+                onStack.remove(memberId);
+                component.add(memberId);
+            } while (memberId != vertexId);
+            if (component.size() > 1) {
+                cycles.add(component);
+            }
+        }
+    }
+
     /**
      * Helper function for deadlock detection.
      * @return the detection graph used in deadlock detection
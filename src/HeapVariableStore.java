@@ -0,0 +1,189 @@
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * This class keeps the variables of a site on the heap, one
+ * Variable object with its version map per copy. Byte values
+ * are kept in an arena of heap slabs, allocated on the first
+ * one. It is the default store.
+ *
+ * Updated: 10/18/2026
+ */
+public class HeapVariableStore implements VariableStore {
+
+    private final Map<Integer, Variable> variableMap; // <key: Variable id, val: Variable object>
+    private final ByteArena byteArena; // BYTES values of every variable
+
+    public HeapVariableStore() {
+        this.variableMap = new HashMap<>();
+        this.byteArena = new ByteArena(index -> ByteBuffer.allocate(ByteArena.SLAB_SIZE), 0);
+    }
+
+    @Override
+    public void addVariable(int variableId, int initialValue) {
+        Variable variable = new Variable(variableId);
+        if (initialValue != variable.getValue()) {
+            variable.restoreVersion(initialValue, 0);
+        }
+        variableMap.put(variableId, variable);
+    }
+
+    @Override
+    public boolean containsVariable(int variableId) {
+        return variableMap.containsKey(variableId);
+    }
+
+    @Override
+    public int getVariableCount() {
+        return variableMap.size();
+    }
+
+    @Override
+    public int[] getVariableIds() {
+        int[] variableIds = new int[variableMap.size()];
+        int i = 0;
+        for (int variableId : new TreeSet<>(variableMap.keySet())) {
+            variableIds[i++] = variableId;
+        }
+        return variableIds;
+    }
+
+    @Override
+    public int getValue(int variableId) {
+        return variableMap.get(variableId).getValue();
+    }
+
+    @Override
+    public long getUpdateTime(int variableId) {
+        return variableMap.get(variableId).getUpdateTime();
+    }
+
+    @Override
+    public void updateValue(int variableId, int value, long updateTime) {
+        variableMap.get(variableId).updateValue(value, updateTime);
+    }
+
+    @Override
+    public void restoreVersion(int variableId, int value, long updateTime) {
+        variableMap.get(variableId).restoreVersion(value, updateTime);
+    }
+
+    @Override
+    public void updateTypedValue(int variableId, Value.Type type, long number, byte[] bytes, long updateTime) {
+        if (type == Value.Type.INT) {
+            updateValue(variableId, (int) number, updateTime);
+            return;
+        }
+        variableMap.get(variableId).updateTypedValue(type, typedValue(type, number, bytes), updateTime);
+    }
+
+    @Override
+    public void restoreVersion(int variableId, Value value, long updateTime) {
+        if (value.getType() == Value.Type.INT) {
+            restoreVersion(variableId, (int) value.getNumber(), updateTime);
+            return;
+        }
+        variableMap.get(variableId).restoreTypedVersion(value.getType(),
+                typedValue(value.getType(), value.getNumber(), value.getBytes()), updateTime);
+    }
+
+    @Override
+    public boolean hasTypedVersions(int variableId) {
+        return variableMap.get(variableId).hasTypedVersions();
+    }
+
+    @Override
+    public Value.Type getValueTypeAt(int variableId, long time) {
+        return variableMap.get(variableId).getTypeBeforeTime(time);
+    }
+
+    @Override
+    public long getLongValueAt(int variableId, long time) {
+        Variable variable = variableMap.get(variableId);
+        if (variable.getTypeBeforeTime(time) == Value.Type.INT) {
+            return variable.getValueBeforeTime(time);
+        }
+        return variable.getTypedValueBeforeTime(time);
+    }
+
+    @Override
+    public byte[] getBytesValueAt(int variableId, long time) {
+        return byteArena.get(variableMap.get(variableId).getTypedValueBeforeTime(time));
+    }
+
+    @Override
+    public boolean isReadable(int variableId) {
+        return variableMap.get(variableId).isReadable();
+    }
+
+    @Override
+    public void fail(int variableId) {
+        variableMap.get(variableId).fail();
+    }
+
+    @Override
+    public void recover(int variableId) {
+        variableMap.get(variableId).recover();
+    }
+
+    @Override
+    public long getLastAppliedSequence(int variableId) {
+        return variableMap.get(variableId).getLastAppliedSequence();
+    }
+
+    @Override
+    public void setLastAppliedSequence(int variableId, long sequence) {
+        variableMap.get(variableId).setLastAppliedSequence(sequence);
+    }
+
+    @Override
+    public int getValueAt(int variableId, long time) {
+        return variableMap.get(variableId).getValueBeforeTime(time);
+    }
+
+    @Override
+    public long getVersionTimeAt(int variableId, long time) {
+        return variableMap.get(variableId).getVersionTimeBeforeTime(time);
+    }
+
+    @Override
+    public long getLatestVersionTime(int variableId) {
+        return variableMap.get(variableId).getVersionTimeBeforeTime(Long.MAX_VALUE);
+    }
+
+    @Override
+    public int getVersionCount(int variableId) {
+        return variableMap.get(variableId).getVersionCount();
+    }
+
+    @Override
+    public NavigableMap<Long, Value> getVersionsAfter(int variableId, long time) {
+        Variable variable = variableMap.get(variableId);
+        NavigableMap<Long, Value> versions = new TreeMap<>();
+        for (Map.Entry<Long, Integer> version : variable.getVersions().tailMap(time, false).entrySet()) {
+            versions.put(version.getKey(), Value.ofInt(version.getValue()));
+        }
+        variable.forEachTypedVersionAfter(time, (updateTime, type, typedValue) -> versions.put(updateTime,
+                type == Value.Type.BYTES ? Value.ofBytes(byteArena.get(typedValue)) : Value.of(type, typedValue, null)));
+        return versions;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    /**
+     * Get what a Variable keeps for a LONG, BYTES or DELETED value, copying bytes into the arena.
+     * @param type - LONG, BYTES or DELETED
+     * @param number - LONG value
+     * @param bytes - BYTES value
+     * @return LONG value, arena handle, or 0 for DELETED
+     */
+    private long typedValue(Value.Type type, long number, byte[] bytes) {
+        return type == Value.Type.BYTES ? byteArena.append(bytes) : number;
+    }
+}
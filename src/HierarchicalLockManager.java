@@ -0,0 +1,276 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class holds the coarse locks of a single site for
+ * multiple granularity locking. The site and each range of
+ * variable ids are nodes above the per-variable locks kept by
+ * LockManager; a transaction takes intention locks (IS, IX)
+ * on both nodes before locking a variable, and a transaction
+ * holding too many variable locks is escalated to a single
+ * site lock (S or X) that covers all of them.
+ *
+ * Updated: 10/18/2026
+ */
+public class HierarchicalLockManager {
+
+    public enum LockMode {
+        IS, // intention to read some variables below
+        IX, // intention to write some variables below
+        S, // read everything below
+        SIX, // read everything below and write some of it
+        X, // write everything below
+    }
+
+    private static final boolean[][] COMPATIBLE = {
+            //        IS     IX     S      SIX    X
+            /* IS  */ {true, true, true, true, false},
+            /* IX  */ {true, true, false, false, false},
+            /* S   */ {true, false, true, false, false},
+            /* SIX */ {true, false, false, false, false},
+            /* X   */ {false, false, false, false, false},
+    };
+
+    private static final int SITE_NODE = 0; // range nodes are numbered from 1
+
+    private final int siteId; // site id
+    private final int rangeSize; // number of variable ids per range node
+    private final int escalationThreshold; // variable locks per transaction before escalation
+    private Map<Integer, Map<Integer, LockMode>> nodeLockMap;
+    // <key: node, val: <key: Transaction id, val: lock mode held on the node>>
+    private Map<Integer, Integer> variableLockCountMap; // <key: Transaction id, val: variable locks held>
+
+    public HierarchicalLockManager(int siteId, int rangeSize, int escalationThreshold) {
+        this.siteId = siteId;
+        this.rangeSize = Math.max(1, rangeSize);
+        this.escalationThreshold = escalationThreshold;
+        this.nodeLockMap = new HashMap<>();
+        this.variableLockCountMap = new HashMap<>();
+    }
+
+    /**
+     * Get site id.
+     * @return site id
+     */
+    public int getSiteId() {
+        return siteId;
+    }
+
+    /**
+     * Check if the coarse locks of other transactions allow a transaction to lock a variable.
+     * @param transactionId
+     * @param variableId
+     * @param write - true for a write lock, false for a read lock
+     * @return true if the needed intention locks are compatible
+     */
+    public boolean canLockVariable(int transactionId, int variableId, boolean write) {
+        LockMode intention = write ? LockMode.IX : LockMode.IS;
+        return isCompatible(transactionId, SITE_NODE, intention)
+                && isCompatible(transactionId, getRangeNode(variableId), intention);
+    }
+
+    /**
+     * Check if a coarse lock of the transaction already covers a variable lock.
+     * @param transactionId
+     * @param variableId
+     * @param write - true for a write lock, false for a read lock
+     * @return true if no variable lock is needed
+     */
+    public boolean covers(int transactionId, int variableId, boolean write) {
+        return covers(getMode(SITE_NODE, transactionId), write)
+                || covers(getMode(getRangeNode(variableId), transactionId), write);
+    }
+
+    /**
+     * Check if some transaction holds a coarse write lock covering a variable.
+     * @param variableId
+     * @return true if the variable may be written without a variable lock
+     */
+    public boolean isWriteCovered(int variableId) {
+        return nodeLockMap.getOrDefault(SITE_NODE, Collections.emptyMap()).containsValue(LockMode.X)
+                || nodeLockMap.getOrDefault(getRangeNode(variableId), Collections.emptyMap()).containsValue(LockMode.X);
+    }
+
+    /**
+     * Take the intention locks needed before locking a variable.
+     * @param transactionId
+     * @param variableId
+     * @param write - true for a write lock, false for a read lock
+     */
+    public void lockIntention(int transactionId, int variableId, boolean write) {
+        LockMode intention = write ? LockMode.IX : LockMode.IS;
+        lockNode(SITE_NODE, transactionId, intention);
+        lockNode(getRangeNode(variableId), transactionId, intention);
+    }
+
+    /**
+     * Count a new variable lock of the transaction.
+     * @param transactionId
+     * @return true if the transaction now holds enough variable locks to be escalated
+     */
+    public boolean recordVariableLock(int transactionId) {
+        int count = variableLockCountMap.merge(transactionId, 1, Integer::sum);
+        return escalationThreshold > 0 && count >= escalationThreshold;
+    }
+
+    /**
+     * Replace the variable locks of a transaction by one site lock, if the
+     * coarse locks of other transactions allow it.
+     * @param transactionId
+     * @param write - true if the transaction holds write locks on this site
+     * @return true if escalated, in which case its variable locks can be released
+     */
+    public boolean escalate(int transactionId, boolean write) {
+        LockMode mode = combine(getMode(SITE_NODE, transactionId), write ? LockMode.X : LockMode.S);
+        if (!isCompatible(transactionId, SITE_NODE, mode)) {
+            return false;
+        }
+        nodeLockMap.computeIfAbsent(SITE_NODE, node -> new HashMap<>()).put(transactionId, mode);
+        variableLockCountMap.remove(transactionId);
+        return true;
+    }
+
+    /**
+     * Get the other transactions whose coarse locks block a variable lock.
+     * @param transactionId
+     * @param variableId
+     * @param write - true for a write lock, false for a read lock
+     * @return ids of the conflicting transactions
+     */
+    public List<Integer> getConflictingTransactionIds(int transactionId, int variableId, boolean write) {
+        LockMode intention = write ? LockMode.IX : LockMode.IS;
+        List<Integer> conflictingIds = new ArrayList<>();
+        addConflicts(SITE_NODE, transactionId, intention, conflictingIds);
+        addConflicts(getRangeNode(variableId), transactionId, intention, conflictingIds);
+        return conflictingIds;
+    }
+
+    /**
+     * Release every coarse lock of a transaction. Called when it commits or aborts.
+     * @param transactionId
+     */
+    public void releaseLockByTransactionId(int transactionId) {
+        for (Map<Integer, LockMode> modeMap : nodeLockMap.values()) {
+            modeMap.remove(transactionId);
+        }
+        variableLockCountMap.remove(transactionId);
+    }
+
+    /**
+     * Clear all coarse locks. Called when site fails.
+     */
+    public void clear() {
+        nodeLockMap.clear();
+        variableLockCountMap.clear();
+    }
+
+    /**
+     * Raise the lock mode of a transaction on a node.
+     * @param node
+     * @param transactionId
+     * @param mode - mode requested
+     */
+    private void lockNode(int node, int transactionId, LockMode mode) {
+        Map<Integer, LockMode> modeMap = nodeLockMap.computeIfAbsent(node, n -> new HashMap<>());
+        modeMap.put(transactionId, combine(modeMap.get(transactionId), mode));
+    }
+
+    /**
+     * Check if a mode on a node is compatible with the modes other transactions hold there.
+     * @param transactionId - requesting transaction, whose own mode is ignored
+     * @param node
+     * @param mode - mode requested
+     * @return true if compatible
+     */
+    private boolean isCompatible(int transactionId, int node, LockMode mode) {
+        Map<Integer, LockMode> modeMap = nodeLockMap.get(node);
+        if (modeMap == null) {
+            return true;
+        }
+        for (Map.Entry<Integer, LockMode> held : modeMap.entrySet()) {
+            if (held.getKey() != transactionId && !COMPATIBLE[held.getValue().ordinal()][mode.ordinal()]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Collect the other transactions holding a mode on a node incompatible with the requested one.
+     * @param node
+     * @param transactionId - requesting transaction
+     * @param mode - mode requested
+     * @param conflictingIds - receives the conflicting transaction ids
+     */
+    private void addConflicts(int node, int transactionId, LockMode mode, List<Integer> conflictingIds) {
+        Map<Integer, LockMode> modeMap = nodeLockMap.get(node);
+        if (modeMap == null) {
+            return;
+        }
+        for (Map.Entry<Integer, LockMode> held : modeMap.entrySet()) {
+            if (held.getKey() != transactionId
+                    && !COMPATIBLE[held.getValue().ordinal()][mode.ordinal()]
+                    && !conflictingIds.contains(held.getKey())) {
+                conflictingIds.add(held.getKey());
+            }
+        }
+    }
+
+    /**
+     * Get the mode a transaction holds on a node.
+     * @param node
+     * @param transactionId
+     * @return lock mode, or null if it holds none
+     */
+    private LockMode getMode(int node, int transactionId) {
+        Map<Integer, LockMode> modeMap = nodeLockMap.get(node);
+        return modeMap == null ? null : modeMap.get(transactionId);
+    }
+
+    /**
+     * Get the range node of a variable.
+     * @param variableId
+     * @return node id of its range
+     */
+    private int getRangeNode(int variableId) {
+        return 1 + (variableId - 1) / rangeSize;
+    }
+
+    /**
+     * Check if a coarse mode covers a variable lock.
+     * @param mode - coarse mode held, or null
+     * @param write - true for a write lock, false for a read lock
+     * @return true if covered
+     */
+    private static boolean covers(LockMode mode, boolean write) {
+        if (mode == null) {
+            return false;
+        }
+        return write ? mode == LockMode.X : mode == LockMode.S || mode == LockMode.SIX || mode == LockMode.X;
+    }
+
+    /**
+     * Get the weakest mode at least as strong as both given modes.
+     * @param held - mode already held, or null
+     * @param requested - mode requested
+     * @return combined mode
+     */
+    private static LockMode combine(LockMode held, LockMode requested) {
+        if (held == null || held == requested) {
+            return requested;
+        }
+        if (held == LockMode.X || requested == LockMode.X) {
+            return LockMode.X;
+        }
+        if (held == LockMode.IS) {
+            return requested;
+        }
+        if (requested == LockMode.IS) {
+            return held;
+        }
+        return LockMode.SIX; // IX with S, or either with SIX
+    }
+}
@@ -0,0 +1,136 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class records a distribution of non-negative values in
+ * log-linear buckets: each power of two is split into a fixed
+ * number of sub-buckets, so any recorded value is reported with
+ * a relative error below 1 / SUB_BUCKET_COUNT while the bucket
+ * array stays small. Recording is a few atomic increments, so
+ * it is safe from any thread; values are never stored.
+ *
+ * Updated: 10/18/2026
+ */
+public class Histogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS; // sub-buckets per power of two
+    private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray bucketCounts; // values recorded per bucket
+    private final LongAdder count; // values recorded
+    private final LongAdder sum; // sum of the values recorded
+    private final LongAccumulator max; // largest value recorded
+
+    public Histogram() {
+        this.bucketCounts = new AtomicLongArray(BUCKET_COUNT);
+        this.count = new LongAdder();
+        this.sum = new LongAdder();
+        this.max = new LongAccumulator(Math::max, 0);
+    }
+
+    /**
+     * Record a value. Negative values are recorded as 0.
+     * @param value - value to record
+     */
+    public void record(long value) {
+        value = Math.max(0, value);
+        bucketCounts.incrementAndGet(toBucket(value));
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    /**
+     * Get the number of values recorded.
+     * @return count
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Get the sum of the values recorded.
+     * @return sum
+     */
+    public long getSum() {
+        return sum.sum();
+    }
+
+    /**
+     * Get the mean of the values recorded.
+     * @return mean, or 0 if nothing was recorded
+     */
+    public double getMean() {
+        long n = count.sum();
+        return n == 0 ? 0 : (double) sum.sum() / n;
+    }
+
+    /**
+     * Get the largest value recorded.
+     * @return max
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Get the value at a percentile, rounded up to the upper bound of its bucket.
+     * @param percentile - between 0 and 100
+     * @return value at the percentile, or 0 if nothing was recorded
+     */
+    public long getPercentile(double percentile) {
+        long n = count.sum();
+        if (n == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            seen += bucketCounts.get(bucket);
+            if (seen >= rank) {
+                return Math.min(getMax(), upperBound(bucket));
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * Format the distribution as one line of text.
+     * @return count, mean, percentiles and max
+     */
+    public String summary() {
+        return String.format("count=%s mean=%.1f p50=%s p90=%s p99=%s max=%s",
+                getCount(), getMean(), getPercentile(50), getPercentile(90), getPercentile(99), getMax());
+    }
+
+    /**
+     * Get the bucket of a value.
+     * @param value - non-negative value
+     * @return bucket index
+     */
+    private static int toBucket(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS + 1;
+        int subBucket = (int) (value >>> (exponent - 1)) & (SUB_BUCKET_COUNT - 1);
+        return exponent * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    /**
+     * Get the largest value that falls in a bucket.
+     * @param bucket - bucket index
+     * @return upper bound of the bucket
+     */
+    private static long upperBound(int bucket) {
+        int exponent = bucket / SUB_BUCKET_COUNT;
+        if (exponent == 0) {
+            return bucket;
+        }
+        long subBucket = bucket % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+        long lower = subBucket << (exponent - 1);
+        return lower + (1L << (exponent - 1)) - 1;
+    }
+}
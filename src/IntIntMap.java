@@ -0,0 +1,178 @@
+import java.util.Arrays;
+
+/**
+ * This class maps int keys to int values without boxing, for the
+ * small per-transaction maps touched by every read and write, and
+ * for the id index of the off-heap variable stores.
+ * Entries are kept in first-insertion order in two parallel
+ * arrays and found through an open-addressing index with linear
+ * probing. Entries cannot be removed one by one, only cleared,
+ * which is all a transaction needs. Not thread-safe.
+ *
+ * Updated: 10/18/2026
+ */
+public class IntIntMap {
+
+    private int[] keys; // keys in first-insertion order
+    private int[] values; // values, parallel to keys
+    private int size; // number of entries
+    private int[] index; // hash slots holding an entry position plus one, 0 for an empty slot
+
+    public IntIntMap() {
+        this.keys = new int[4];
+        this.values = new int[4];
+        this.size = 0;
+        this.index = new int[8];
+    }
+
+    /**
+     * Get the number of entries.
+     * @return size
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Check if there is no entry.
+     * @return true if empty
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Check if a key is mapped.
+     * @param key
+     * @return true if mapped
+     */
+    public boolean containsKey(int key) {
+        return find(key) >= 0;
+    }
+
+    /**
+     * Get the value of a key.
+     * @param key
+     * @param missingValue - value returned when the key is not mapped
+     * @return value of the key, or missingValue
+     */
+    public int get(int key, int missingValue) {
+        int position = find(key);
+        return position < 0 ? missingValue : values[position];
+    }
+
+    /**
+     * Map a key to a value. A key mapped before keeps its position.
+     * @param key
+     * @param value
+     */
+    public void put(int key, int value) {
+        int position = find(key);
+        if (position >= 0) {
+            values[position] = value;
+            return;
+        }
+        add(key, value);
+    }
+
+    /**
+     * Map a key to a value unless it is mapped already.
+     * @param key
+     * @param value
+     */
+    public void putIfAbsent(int key, int value) {
+        if (find(key) < 0) {
+            add(key, value);
+        }
+    }
+
+    /**
+     * Get the key at a position in first-insertion order.
+     * @param position - 0 to size - 1
+     * @return key
+     */
+    public int keyAt(int position) {
+        return keys[position];
+    }
+
+    /**
+     * Get the value at a position in first-insertion order.
+     * @param position - 0 to size - 1
+     * @return value
+     */
+    public int valueAt(int position) {
+        return values[position];
+    }
+
+    /**
+     * Remove every entry, keeping the arrays for reuse.
+     */
+    public void clear() {
+        if (size > 0) {
+            Arrays.fill(index, 0);
+            size = 0;
+        }
+    }
+
+    /**
+     * Find the position of a key.
+     * @param key
+     * @return position in keys, or -1 if the key is not mapped
+     */
+    private int find(int key) {
+        int mask = index.length - 1;
+        for (int slot = hash(key) & mask; index[slot] != 0; slot = (slot + 1) & mask) {
+            if (keys[index[slot] - 1] == key) {
+                return index[slot] - 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Append an entry for a key known not to be mapped, growing the arrays at half load.
+     * @param key
+     * @param value
+     */
+    private void add(int key, int value) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+        }
+        keys[size] = key;
+        values[size] = value;
+        size += 1;
+        if (size * 2 > index.length) {
+            index = new int[index.length * 2];
+            for (int i = 0; i < size; i++) {
+                insertIndex(keys[i], i);
+            }
+        } else {
+            insertIndex(key, size - 1);
+        }
+    }
+
+    /**
+     * Put a position into the first free slot of its key.
+     * @param key
+     * @param position
+     */
+    private void insertIndex(int key, int position) {
+        int mask = index.length - 1;
+        int slot = hash(key) & mask;
+        while (index[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        index[slot] = position + 1;
+    }
+
+    /**
+     * Spread consecutive ids over the slots.
+     * @param key
+     * @return hash
+     */
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,207 @@
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class maps int keys to objects without boxing the keys, for
+ * maps keyed by transaction or variable id that are looked up on every
+ * operation.
+ * It uses open addressing with linear probing, and a removal shifts
+ * the following entries back so no tombstone is left. Iteration order
+ * is unspecified. Null values are not allowed. Not thread-safe.
+ *
+ * Updated: 10/18/2026
+ */
+public class IntObjectMap<V> {
+
+    private int[] keys; // key of each slot
+    private Object[] values; // value of each slot, null for an empty slot
+    private int size; // number of entries
+
+    public IntObjectMap() {
+        this.keys = new int[16];
+        this.values = new Object[16];
+        this.size = 0;
+    }
+
+    /**
+     * Get the number of entries.
+     * @return size
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Check if there is no entry.
+     * @return true if empty
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Check if a key is mapped.
+     * @param key
+     * @return true if mapped
+     */
+    public boolean containsKey(int key) {
+        return find(key) >= 0;
+    }
+
+    /**
+     * Get the value of a key.
+     * @param key
+     * @return value, or null if the key is not mapped
+     */
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        int slot = find(key);
+        return slot < 0 ? null : (V) values[slot];
+    }
+
+    /**
+     * Map a key to a value, replacing any earlier value.
+     * @param key
+     * @param value - non-null value
+     */
+    public void put(int key, V value) {
+        int slot = find(key);
+        if (slot >= 0) {
+            values[slot] = value;
+            return;
+        }
+        if ((size + 1) * 2 > keys.length) {
+            resize(keys.length * 2);
+        }
+        slot = freeSlot(key);
+        keys[slot] = key;
+        values[slot] = value;
+        size += 1;
+    }
+
+    /**
+     * Remove the mapping of a key.
+     * @param key
+     * @return value removed, or null if the key was not mapped
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(int key) {
+        int slot = find(key);
+        if (slot < 0) {
+            return null;
+        }
+        V removed = (V) values[slot];
+        values[slot] = null;
+        size -= 1;
+        // move back the entries of the probe run that could not reach their home slot past the hole
+        int mask = keys.length - 1;
+        int hole = slot;
+        for (int next = (slot + 1) & mask; values[next] != null; next = (next + 1) & mask) {
+            int home = hash(keys[next]) & mask;
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                keys[hole] = keys[next];
+                values[hole] = values[next];
+                values[next] = null;
+                hole = next;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Get the keys, in no particular order.
+     * @return new array of the keys
+     */
+    public int[] keys() {
+        int[] result = new int[size];
+        int count = 0;
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (values[slot] != null) {
+                result[count++] = keys[slot];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Copy the values into a list, in no particular order, so that entries can
+     * be removed while going through them.
+     * @param result - list cleared and filled with the values
+     */
+    @SuppressWarnings("unchecked")
+    public void copyValuesTo(List<? super V> result) {
+        result.clear();
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (values[slot] != null) {
+                result.add((V) values[slot]);
+            }
+        }
+    }
+
+    /**
+     * Remove every entry, keeping the arrays for reuse.
+     */
+    public void clear() {
+        if (size > 0) {
+            Arrays.fill(values, null);
+            size = 0;
+        }
+    }
+
+    /**
+     * Find the slot of a key.
+     * @param key
+     * @return slot, or -1 if the key is not mapped
+     */
+    private int find(int key) {
+        int mask = keys.length - 1;
+        for (int slot = hash(key) & mask; values[slot] != null; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Find the first empty slot on the probe run of a key.
+     * @param key
+     * @return slot
+     */
+    private int freeSlot(int key) {
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (values[slot] != null) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Rebuild the table with a new number of slots.
+     * @param capacity - power of two larger than twice the size
+     */
+    private void resize(int capacity) {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new int[capacity];
+        values = new Object[capacity];
+        for (int slot = 0; slot < oldKeys.length; slot++) {
+            if (oldValues[slot] != null) {
+                int free = freeSlot(oldKeys[slot]);
+                keys[free] = oldKeys[slot];
+                values[free] = oldValues[slot];
+            }
+        }
+    }
+
+    /**
+     * Spread consecutive ids over the slots.
+     * @param key
+     * @return hash
+     */
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
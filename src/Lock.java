@@ -14,14 +14,26 @@ public class Lock {
         WRITE_LOCK
     }
 
-    private final int transactionId; // transaction id
-    private final int variableId; // variable id
+    private int transactionId; // transaction id
+    private int variableId; // variable id
     private LockType type; // lock type
 
     public Lock(int transactionId, int variableId, LockType type) {
+        reset(transactionId, variableId, type);
+    }
+
+    /**
+     * Reinitialize a pooled lock.
+     * @param transactionId
+     * @param variableId
+     * @param type
+     * @return this lock
+     */
+    public Lock reset(int transactionId, int variableId, LockType type) {
         this.transactionId = transactionId;
         this.variableId = variableId;
         this.type = type;
+        return this;
     }
 
     /**
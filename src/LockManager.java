@@ -11,13 +11,37 @@ import java.util.List;
 public class LockManager {
 
     private final int siteId; // site id
-    private final int variableId; // variable id
+    private int variableId; // variable id
     private List<Lock> lockList; // the list of lock that holds
+    private final ObjectPool<Lock> lockPool; // locks released on this site, reused for new locks
+    private long acquireCount; // locks granted or upgraded
+    private long conflictCount; // operations that blocked because another transaction holds a lock, counted once each
+    private long upgradeCount; // read locks upgraded to write locks
+    private Histogram waitHistogram; // logical time operations waited for a lock here, null until one waits
 
     public LockManager(int siteId, int variableId) {
+        this(siteId, variableId, new ObjectPool<>(() -> new Lock(0, 0, Lock.LockType.READ_LOCK), 1));
+    }
+
+    public LockManager(int siteId, int variableId, ObjectPool<Lock> lockPool) {
         this.siteId = siteId;
         this.variableId = variableId;
         this.lockList = new ArrayList<>();
+        this.lockPool = lockPool;
+    }
+
+    /**
+     * Reuse an idle lock manager for another variable, with its counters cleared.
+     * @param variableId - variable id
+     * @return this lock manager
+     */
+    public LockManager reset(int variableId) {
+        this.variableId = variableId;
+        this.acquireCount = 0;
+        this.conflictCount = 0;
+        this.upgradeCount = 0;
+        this.waitHistogram = null;
+        return this;
     }
 
     /**
@@ -36,6 +60,57 @@ public class LockManager {
         return variableId;
     }
 
+    /**
+     * Get the number of locks granted or upgraded.
+     * @return acquire count
+     */
+    public long getAcquireCount() {
+        return acquireCount;
+    }
+
+    /**
+     * Get the number of operations that blocked on a lock of another transaction.
+     * @return conflict count
+     */
+    public long getConflictCount() {
+        return conflictCount;
+    }
+
+    /**
+     * Get the number of read locks upgraded to write locks.
+     * @return upgrade count
+     */
+    public long getUpgradeCount() {
+        return upgradeCount;
+    }
+
+    /**
+     * Count an operation blocked by a lock held here. Called once when it first blocks,
+     * not on every retry from the waitlist.
+     */
+    public void recordConflict() {
+        conflictCount += 1;
+    }
+
+    /**
+     * Record how long an operation waited before it got a lock here.
+     * @param waitTime - logical time between the request and the grant
+     */
+    public void recordWait(long waitTime) {
+        if (waitHistogram == null) {
+            waitHistogram = new Histogram();
+        }
+        waitHistogram.record(waitTime);
+    }
+
+    /**
+     * Get the wait times recorded.
+     * @return histogram, or null if no operation waited here
+     */
+    public Histogram getWaitHistogram() {
+        return waitHistogram;
+    }
+
     /**
      * Check if a read lock can be obtained.
      *
@@ -44,7 +119,8 @@ public class LockManager {
      */
     public boolean canGetReadLock(Operation operation) {
         int transactionId = operation.getTransactionId();
-        for (Lock lock : lockList) {
+        for (int i = 0; i < lockList.size(); i++) {
+            Lock lock = lockList.get(i);
             if (lock.getTransactionId() == transactionId) {
                 return true;
             }
@@ -65,15 +141,28 @@ public class LockManager {
         int transactionId = operation.getTransactionId();
         if (lockList.isEmpty()) {
             return true;
+        } else if (lockList.size() == 1 && lockList.get(0).getTransactionId() == transactionId) {
+            return true;
         } else {
-            return lockList.size() == 1 && lockList.get(0).getTransactionId() == transactionId;
+            return false;
         }
     }
 
+    /**
+     * Tests if no transaction holds a lock on the variable.
+     * @return true if the lock list is empty
+     */
+    public boolean isEmpty() {
+        return lockList.isEmpty();
+    }
+
     /**
      * Clear lock list and opearation list. Called when site fails.
      */
     public void clear() {
+        for (int i = 0; i < lockList.size(); i++) {
+            lockPool.release(lockList.get(i));
+        }
         lockList.clear();
 //        operationWaitList.clear();
     }
@@ -83,13 +172,13 @@ public class LockManager {
      * @param transactionId
      */
     public void releaseLockByTransactionId(int transactionId) {
-        List<Lock> newLockList = new ArrayList<>();
-        for (Lock lock : lockList) {
-            if (lock.getTransactionId() != transactionId) {
-                newLockList.add(lock);
+        // a transaction holds at most one lock per variable
+        for (int i = 0; i < lockList.size(); i++) {
+            if (lockList.get(i).getTransactionId() == transactionId) {
+                lockPool.release(lockList.remove(i));
+                return;
             }
         }
-        lockList = newLockList;
     }
 
     /**
@@ -98,7 +187,8 @@ public class LockManager {
      * @return the lock the transaction holds
      */
     private Lock findLock(int transactionId) {
-        for (Lock lock : lockList) {
+        for (int i = 0; i < lockList.size(); i++) {
+            Lock lock = lockList.get(i);
             if (lock.getTransactionId() == transactionId) {
                 return lock;
             }
@@ -106,6 +196,73 @@ public class LockManager {
         return null;
     }
 
+    /**
+     * Get the other transactions holding locks that conflict with an operation.
+     * @param operation - operation asking for a lock
+     * @return ids of the conflicting lock holders
+     */
+    public List<Integer> getConflictingTransactionIds(Operation operation) {
+        List<Integer> conflictingIds = new ArrayList<>();
+        for (Lock lock : lockList) {
+            if (lock.getTransactionId() != operation.getTransactionId()
+                    && (operation.getType() == Operation.OperationType.WRITE
+                        || lock.getType() == Lock.LockType.WRITE_LOCK)) {
+                conflictingIds.add(lock.getTransactionId());
+            }
+        }
+        return conflictingIds;
+    }
+
+    /**
+     * Tests if another transaction holds a lock that conflicts with an operation.
+     * @param operation - operation asking for a lock
+     * @return true if the operation cannot get its lock now
+     */
+    public boolean conflictsWith(Operation operation) {
+        for (int i = 0; i < lockList.size(); i++) {
+            Lock lock = lockList.get(i);
+            if (lock.getTransactionId() != operation.getTransactionId()
+                    && (operation.getType() == Operation.OperationType.WRITE
+                        || lock.getType() == Lock.LockType.WRITE_LOCK)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Tests if a transaction holds any lock on the variable.
+     * @param transactionId
+     * @return true if the transaction holds a lock
+     */
+    public boolean holdsLock(int transactionId) {
+        return findLock(transactionId) != null;
+    }
+
+    /**
+     * Tests if a transaction holds a write lock on the variable.
+     * @param transactionId
+     * @return true if the transaction holds a write lock
+     */
+    public boolean holdsWriteLock(int transactionId) {
+        Lock lock = findLock(transactionId);
+        return lock != null && lock.getType() == Lock.LockType.WRITE_LOCK;
+    }
+
+    /**
+     * Tests if any transaction holds a write lock on the variable.
+     * @return true if a write lock is held
+     */
+    public boolean hasWriteLock() {
+        for (int i = 0; i < lockList.size(); i++) {
+            Lock lock = lockList.get(i);
+            if (lock.getType() == Lock.LockType.WRITE_LOCK) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Tests if the variable is blocked by other transactions.
      * @param transactionId
@@ -143,8 +300,9 @@ public class LockManager {
     private Lock acquireReadLock(Operation operation) {
         Lock lock = findLock(operation.getTransactionId());
         if (lock == null) {
-            lock = new Lock(operation.getTransactionId(), operation.getVariableId(), Lock.LockType.READ_LOCK);
+            lock = lockPool.obtain().reset(operation.getTransactionId(), operation.getVariableId(), Lock.LockType.READ_LOCK);
             lockList.add(lock);
+            acquireCount += 1;
         }
         return lock;
     }
@@ -157,10 +315,13 @@ public class LockManager {
     private Lock acquireWriteLock(Operation operation) {
         Lock lock = findLock(operation.getTransactionId());
         if (lock == null) {
-            lock = new Lock(operation.getTransactionId(), operation.getVariableId(), Lock.LockType.WRITE_LOCK);
+            lock = lockPool.obtain().reset(operation.getTransactionId(), operation.getVariableId(), Lock.LockType.WRITE_LOCK);
             lockList.add(lock);
-        } else {
+            acquireCount += 1;
+        } else if (lock.getType() != Lock.LockType.WRITE_LOCK) {
             lock.upgradeToWriteLock();
+            acquireCount += 1;
+            upgradeCount += 1;
         }
         return lock;
     }
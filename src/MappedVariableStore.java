@@ -0,0 +1,139 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * This class keeps the variables of a site in memory-mapped files,
+ * with the layout of the off-heap store: site-N.records holds a
+ * header followed by the record slabs, site-N.versions holds
+ * the append-only version slabs, and site-N.bytes holds the byte
+ * arena of BYTES values. Commits write straight into the
+ * mapping and reads come from it, so reopening a store only maps
+ * the slabs counted by the header and reads back the id of each
+ * record, without replaying any version into the heap, and the page
+ * cache decides what stays in memory.
+ * Changes reach the files when the operating system writes the
+ * pages back, and at the latest on close; a write-ahead log is
+ * still needed to survive a crash.
+ *
+ * Updated: 10/18/2026
+ */
+public class MappedVariableStore extends OffHeapVariableStore {
+
+    private static final int MAGIC = 0x52435653; // "RCVS"
+    private static final int FORMAT_VERSION = 2;
+    private static final int HEADER_MAGIC = 0; // int
+    private static final int HEADER_FORMAT_VERSION = 4; // int
+
+    private final FileChannel recordChannel; // header and record slabs
+    private final FileChannel versionChannel; // version slabs
+    private final FileChannel arenaChannel; // byte arena slabs
+    private final MappedByteBuffer header; // header of the records file
+
+    private MappedVariableStore(FileChannel recordChannel, FileChannel versionChannel, FileChannel arenaChannel,
+                                MappedByteBuffer header) throws IOException {
+        super(header);
+        this.recordChannel = recordChannel;
+        this.versionChannel = versionChannel;
+        this.arenaChannel = arenaChannel;
+        this.header = header;
+        if (header.getInt(HEADER_MAGIC) == 0) {
+            header.putInt(HEADER_MAGIC, MAGIC);
+            header.putInt(HEADER_FORMAT_VERSION, FORMAT_VERSION);
+            initializeHeader();
+        } else if (header.getInt(HEADER_MAGIC) != MAGIC) {
+            throw new IOException("Not a variable store");
+        } else if (header.getInt(HEADER_FORMAT_VERSION) != FORMAT_VERSION) {
+            throw new IOException("Unsupported variable store version " + header.getInt(HEADER_FORMAT_VERSION));
+        }
+        try {
+            openSlabs();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Open the store of a site, creating its files if they do not exist.
+     * @param directory - directory holding the files of every site
+     * @param siteId - id of the site
+     * @return store holding whatever was committed before it was last closed
+     * @throws IOException if the files cannot be opened or are not a store
+     */
+    public static MappedVariableStore open(File directory, int siteId) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create store directory: " + directory);
+        }
+        FileChannel recordChannel = FileChannel.open(new File(directory, "site-" + siteId + ".records").toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        FileChannel versionChannel = null;
+        FileChannel arenaChannel = null;
+        try {
+            versionChannel = FileChannel.open(new File(directory, "site-" + siteId + ".versions").toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            arenaChannel = FileChannel.open(new File(directory, "site-" + siteId + ".bytes").toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            MappedByteBuffer header = recordChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+            return new MappedVariableStore(recordChannel, versionChannel, arenaChannel, header);
+        } catch (IOException e) {
+            recordChannel.close();
+            if (versionChannel != null) {
+                versionChannel.close();
+            }
+            if (arenaChannel != null) {
+                arenaChannel.close();
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    protected ByteBuffer newRecordSlab(int index) {
+        return map(recordChannel, HEADER_SIZE + (long) index * SLAB_SIZE, SLAB_SIZE);
+    }
+
+    @Override
+    protected ByteBuffer newVersionSlab(int index) {
+        return map(versionChannel, (long) index * SLAB_SIZE, SLAB_SIZE);
+    }
+
+    @Override
+    protected ByteBuffer newArenaSlab(int index) {
+        return map(arenaChannel, (long) index * ByteArena.SLAB_SIZE, ByteArena.SLAB_SIZE);
+    }
+
+    /**
+     * Force every slab and the header to the files, then close them.
+     * @throws IOException if the files cannot be written
+     */
+    @Override
+    public void close() throws IOException {
+        for (ByteBuffer slab : getSlabs()) {
+            ((MappedByteBuffer) slab).force();
+        }
+        header.force();
+        super.close();
+        recordChannel.close();
+        versionChannel.close();
+        arenaChannel.close();
+    }
+
+    /**
+     * Map a slab of a file, growing the file if needed.
+     * @param channel - file
+     * @param position - offset of the slab
+     * @param size - size of the slab
+     * @return mapped slab
+     */
+    private static MappedByteBuffer map(FileChannel channel, long position, int size) {
+        try {
+            return channel.map(FileChannel.MapMode.READ_WRITE, position, size);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot map variable store", e);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * This class holds the named counters, histograms and gauges of
+ * the database. Counters are striped (LongAdder) and histograms
+ * are log-bucketed, so recording on the hot path is a few
+ * increments; callers look a metric up once and keep it. Gauges
+ * are computed when a snapshot is taken. A snapshot is plain
+ * text, one metric per line, sorted by name.
+ *
+ * Updated: 10/18/2026
+ */
+public class MetricsRegistry {
+
+    private final Map<String, LongAdder> counterMap; // <key: name, val: counter>
+    private final Map<String, Histogram> histogramMap; // <key: name, val: histogram>
+    private final Map<String, LongSupplier> gaugeMap; // <key: name, val: function computing the value>
+
+    public MetricsRegistry() {
+        this.counterMap = new ConcurrentSkipListMap<>();
+        this.histogramMap = new ConcurrentSkipListMap<>();
+        this.gaugeMap = new ConcurrentSkipListMap<>();
+    }
+
+    /**
+     * Get a counter, creating it on first use.
+     * @param name - metric name
+     * @return counter
+     */
+    public LongAdder counter(String name) {
+        return counterMap.computeIfAbsent(name, key -> new LongAdder());
+    }
+
+    /**
+     * Get a histogram, creating it on first use.
+     * @param name - metric name
+     * @return histogram
+     */
+    public Histogram histogram(String name) {
+        return histogramMap.computeIfAbsent(name, key -> new Histogram());
+    }
+
+    /**
+     * Register a gauge, replacing any gauge of the same name.
+     * @param name - metric name
+     * @param supplier - computes the value when a snapshot is taken
+     */
+    public void gauge(String name, LongSupplier supplier) {
+        gaugeMap.put(name, supplier);
+    }
+
+    /**
+     * Write a text snapshot of every metric.
+     * @param out - stream receiving one line per metric
+     */
+    public void writeSnapshot(PrintStream out) {
+        for (Map.Entry<String, LongAdder> counter : counterMap.entrySet()) {
+            out.println("counter " + counter.getKey() + " " + counter.getValue().sum());
+        }
+        for (Map.Entry<String, LongSupplier> gauge : gaugeMap.entrySet()) {
+            out.println("gauge " + gauge.getKey() + " " + gauge.getValue().getAsLong());
+        }
+        for (Map.Entry<String, Histogram> histogram : histogramMap.entrySet()) {
+            out.println("histogram " + histogram.getKey() + " " + histogram.getValue().summary());
+        }
+    }
+}
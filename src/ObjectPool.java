@@ -0,0 +1,69 @@
+import java.util.ArrayDeque;
+import java.util.function.Supplier;
+
+/**
+ * This class keeps released objects for reuse, so that objects
+ * created and dropped on every command (operations, locks, queues)
+ * are allocated once and recycled instead of becoming garbage.
+ * The caller resets an object it obtains; the pool only stores it.
+ * At most capacity objects are kept, the rest are left to the
+ * garbage collector. Not thread-safe.
+ *
+ * Updated: 10/18/2026
+ */
+public class ObjectPool<T> {
+
+    private final Supplier<T> factory; // creates an object when the pool is empty
+    private final ArrayDeque<T> freeList; // released objects, most recent first
+    private final int capacity; // maximum number of objects kept
+    private long createdCount; // objects created because the pool was empty
+    private long reusedCount; // objects handed out again
+
+    public ObjectPool(Supplier<T> factory, int capacity) {
+        this.factory = factory;
+        this.capacity = Math.max(1, capacity);
+        this.freeList = new ArrayDeque<>(Math.min(this.capacity, 256));
+        this.createdCount = 0;
+        this.reusedCount = 0;
+    }
+
+    /**
+     * Get a released object, or a new one if none is kept.
+     * @return object to be reset by the caller
+     */
+    public T obtain() {
+        T object = freeList.pollFirst();
+        if (object == null) {
+            createdCount += 1;
+            return factory.get();
+        }
+        reusedCount += 1;
+        return object;
+    }
+
+    /**
+     * Give an object back. It must not be used by the caller afterwards.
+     * @param object - object no longer referenced
+     */
+    public void release(T object) {
+        if (freeList.size() < capacity) {
+            freeList.offerFirst(object);
+        }
+    }
+
+    /**
+     * Get the number of objects created because the pool was empty.
+     * @return created count
+     */
+    public long getCreatedCount() {
+        return createdCount;
+    }
+
+    /**
+     * Get the number of objects reused.
+     * @return reused count
+     */
+    public long getReusedCount() {
+        return reusedCount;
+    }
+}
@@ -0,0 +1,549 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+
+/**
+ * This class keeps the variables of a site in direct buffers outside
+ * the heap, so the heap holds only the list of slabs and an index of
+ * the ids held, whatever the number of versions. Each variable has a
+ * fixed-size record, allocated in the order variables are added and
+ * found through the index, holding its id, the current value, a
+ * present and a readable flag, the update time, the last applied
+ * sequence, the address of its newest version and its version count,
+ * so a sparse range of ids only costs the records of the ids held.
+ * Versions are entries of commit time, value and
+ * address of the next older version, allocated one after another in
+ * the version slabs, so the chain of a variable is newest first and
+ * recent snapshot reads stop after a few entries. Versions are never
+ * freed. A LONG or BYTES version keeps its type in the top byte of the
+ * next address and a long in the value slot, the LONG value itself or
+ * the handle of the bytes in a ByteArena; an INT version has type 0,
+ * so the int path reads and writes exactly what it did before. Slabs
+ * are allocated as ids, versions and bytes grow, and the counts
+ * needed to find them again are kept in a small header buffer, so
+ * a subclass can back the header and the slabs with a file; the
+ * index is rebuilt from the ids of the records when it reopens them.
+ * Not thread-safe.
+ *
+ * Updated: 10/18/2026
+ */
+public class OffHeapVariableStore implements VariableStore {
+
+    protected static final int SLAB_SIZE = 1 << 20; // bytes per slab
+
+    protected static final int HEADER_SIZE = 32; // bytes 0 to 7 are free for a subclass
+    private static final int HEADER_VARIABLE_COUNT = 8; // int, variables held
+    private static final int HEADER_VERSION_COUNT = 16; // long, entries allocated, the entry at index i has address i + 1
+    private static final int HEADER_ARENA_SIZE = 24; // long, bytes used in the byte arena
+
+    private static final int RECORD_SIZE = 40;
+    private static final int RECORD_VALUE = 0; // int
+    private static final int RECORD_FLAGS = 4; // int
+    private static final int RECORD_UPDATE_TIME = 8; // long
+    private static final int RECORD_SEQUENCE = 16; // long
+    private static final int RECORD_HEAD = 24; // long, address of the newest version
+    private static final int RECORD_VERSION_COUNT = 32; // int
+    private static final int RECORD_ID = 36; // int, id of the variable
+    private static final int RECORDS_PER_SLAB = SLAB_SIZE / RECORD_SIZE;
+
+    private static final int VERSION_SIZE = 24;
+    private static final int VERSION_TIME = 0; // long
+    private static final int VERSION_NEXT = 8; // long, type ordinal in the top byte, address of the next older version below, 0 for none
+    private static final int VERSION_VALUE = 16; // int for INT, long for LONG and BYTES
+    private static final int VERSIONS_PER_SLAB = SLAB_SIZE / VERSION_SIZE;
+    private static final int TYPE_SHIFT = 56;
+    private static final long ADDRESS_MASK = (1L << TYPE_SHIFT) - 1;
+    private static final Value.Type[] TYPES = Value.Type.values();
+
+    private static final int PRESENT = 1;
+    private static final int READABLE = 2;
+    private static final int TYPED = 4; // some version is not an INT
+
+    private final List<ByteBuffer> recordSlabs; // slab i holds the records i * RECORDS_PER_SLAB and up
+    private final IntIntMap recordIndex; // <key: Variable id, val: position of its record>
+    private final List<ByteBuffer> versionSlabs; // version entries in allocation order
+    private final ByteBuffer header; // counts of variables and versions
+    private ByteArena byteArena; // BYTES values, opened on first use
+
+    public OffHeapVariableStore() {
+        this(ByteBuffer.allocateDirect(HEADER_SIZE));
+        initializeHeader();
+    }
+
+    /**
+     * Create a store on a given header. The subclass then calls initializeHeader
+     * for a new store, or openSlabs for a store that already holds variables.
+     * @param header - buffer of at least HEADER_SIZE bytes
+     */
+    protected OffHeapVariableStore(ByteBuffer header) {
+        this.recordSlabs = new ArrayList<>();
+        this.recordIndex = new IntIntMap();
+        this.versionSlabs = new ArrayList<>();
+        this.header = header;
+    }
+
+    /**
+     * Reset the counts of the header to an empty store.
+     */
+    protected void initializeHeader() {
+        header.putInt(HEADER_VARIABLE_COUNT, 0);
+        header.putLong(HEADER_VERSION_COUNT, 0);
+        header.putLong(HEADER_ARENA_SIZE, 0);
+    }
+
+    /**
+     * Get back every slab counted by the header of an existing store, and the index of its records.
+     */
+    protected void openSlabs() {
+        int variableCount = header.getInt(HEADER_VARIABLE_COUNT);
+        while ((long) recordSlabs.size() * RECORDS_PER_SLAB < variableCount) {
+            recordSlabs.add(newRecordSlab(recordSlabs.size()));
+        }
+        for (int position = 0; position < variableCount; position++) {
+            ByteBuffer slab = recordSlabs.get(position / RECORDS_PER_SLAB);
+            recordIndex.put(slab.getInt((position % RECORDS_PER_SLAB) * RECORD_SIZE + RECORD_ID), position);
+        }
+        long versionCount = header.getLong(HEADER_VERSION_COUNT);
+        while ((long) versionSlabs.size() * VERSIONS_PER_SLAB < versionCount) {
+            versionSlabs.add(newVersionSlab(versionSlabs.size()));
+        }
+    }
+
+    /**
+     * Provide a record slab of SLAB_SIZE bytes, zeroed unless it belongs to an existing store.
+     * @param index - position of the slab among the record slabs
+     * @return slab
+     */
+    protected ByteBuffer newRecordSlab(int index) {
+        return ByteBuffer.allocateDirect(SLAB_SIZE);
+    }
+
+    /**
+     * Provide a version slab of SLAB_SIZE bytes.
+     * @param index - position of the slab among the version slabs
+     * @return slab
+     */
+    protected ByteBuffer newVersionSlab(int index) {
+        return ByteBuffer.allocateDirect(SLAB_SIZE);
+    }
+
+    /**
+     * Provide a byte arena slab of ByteArena.SLAB_SIZE bytes.
+     * @param index - position of the slab among the arena slabs
+     * @return slab
+     */
+    protected ByteBuffer newArenaSlab(int index) {
+        return ByteBuffer.allocateDirect(ByteArena.SLAB_SIZE);
+    }
+
+    /**
+     * Get the slabs in use, records first, then versions and bytes.
+     * @return new list of the slabs
+     */
+    protected List<ByteBuffer> getSlabs() {
+        List<ByteBuffer> slabs = new ArrayList<>(recordSlabs);
+        slabs.addAll(versionSlabs);
+        if (byteArena != null) {
+            slabs.addAll(byteArena.getSlabs());
+        }
+        return slabs;
+    }
+
+    @Override
+    public void addVariable(int variableId, int initialValue) {
+        if (variableId < 0) {
+            throw new IllegalArgumentException("Negative variable id " + variableId);
+        }
+        int position = recordIndex.get(variableId, -1);
+        if (position < 0) {
+            position = header.getInt(HEADER_VARIABLE_COUNT);
+            if (recordSlabs.size() <= position / RECORDS_PER_SLAB) {
+                recordSlabs.add(newRecordSlab(recordSlabs.size()));
+            }
+            header.putInt(HEADER_VARIABLE_COUNT, position + 1);
+            recordIndex.put(variableId, position);
+        }
+        ByteBuffer slab = recordSlabs.get(position / RECORDS_PER_SLAB);
+        int offset = (position % RECORDS_PER_SLAB) * RECORD_SIZE;
+        slab.putInt(offset + RECORD_ID, variableId);
+        slab.putInt(offset + RECORD_VALUE, initialValue);
+        slab.putInt(offset + RECORD_FLAGS, PRESENT | READABLE);
+        slab.putLong(offset + RECORD_UPDATE_TIME, 0);
+        slab.putLong(offset + RECORD_SEQUENCE, 0);
+        slab.putLong(offset + RECORD_HEAD, newVersion(0, Value.Type.INT, initialValue, 0));
+        slab.putInt(offset + RECORD_VERSION_COUNT, 1);
+    }
+
+    @Override
+    public boolean containsVariable(int variableId) {
+        return recordIndex.containsKey(variableId);
+    }
+
+    @Override
+    public int getVariableCount() {
+        return header.getInt(HEADER_VARIABLE_COUNT);
+    }
+
+    @Override
+    public int[] getVariableIds() {
+        int[] variableIds = new int[recordIndex.size()];
+        for (int i = 0; i < variableIds.length; i++) {
+            variableIds[i] = recordIndex.keyAt(i);
+        }
+        Arrays.sort(variableIds);
+        return variableIds;
+    }
+
+    @Override
+    public int getValue(int variableId) {
+        return recordSlab(variableId).getInt(recordOffset(variableId) + RECORD_VALUE);
+    }
+
+    @Override
+    public long getUpdateTime(int variableId) {
+        return recordSlab(variableId).getLong(recordOffset(variableId) + RECORD_UPDATE_TIME);
+    }
+
+    @Override
+    public void updateValue(int variableId, int value, long updateTime) {
+        ByteBuffer slab = recordSlab(variableId);
+        int offset = recordOffset(variableId);
+        slab.putInt(offset + RECORD_VALUE, value);
+        slab.putLong(offset + RECORD_UPDATE_TIME, updateTime);
+        slab.putInt(offset + RECORD_FLAGS, slab.getInt(offset + RECORD_FLAGS) | READABLE);
+        putVersion(slab, offset, Value.Type.INT, value, updateTime);
+    }
+
+    @Override
+    public void restoreVersion(int variableId, int value, long updateTime) {
+        ByteBuffer slab = recordSlab(variableId);
+        int offset = recordOffset(variableId);
+        putVersion(slab, offset, Value.Type.INT, value, updateTime);
+        if (updateTime >= slab.getLong(offset + RECORD_UPDATE_TIME)) {
+            slab.putInt(offset + RECORD_VALUE, value);
+            slab.putLong(offset + RECORD_UPDATE_TIME, updateTime);
+        }
+    }
+
+    @Override
+    public void updateTypedValue(int variableId, Value.Type type, long number, byte[] bytes, long updateTime) {
+        if (type == Value.Type.INT) {
+            updateValue(variableId, (int) number, updateTime);
+            return;
+        }
+        ByteBuffer slab = recordSlab(variableId);
+        int offset = recordOffset(variableId);
+        slab.putLong(offset + RECORD_UPDATE_TIME, updateTime);
+        slab.putInt(offset + RECORD_FLAGS, slab.getInt(offset + RECORD_FLAGS) | READABLE | TYPED);
+        putVersion(slab, offset, type, typedValue(type, number, bytes), updateTime);
+    }
+
+    @Override
+    public void restoreVersion(int variableId, Value value, long updateTime) {
+        if (value.getType() == Value.Type.INT) {
+            restoreVersion(variableId, (int) value.getNumber(), updateTime);
+            return;
+        }
+        ByteBuffer slab = recordSlab(variableId);
+        int offset = recordOffset(variableId);
+        slab.putInt(offset + RECORD_FLAGS, slab.getInt(offset + RECORD_FLAGS) | TYPED);
+        putVersion(slab, offset, value.getType(), typedValue(value.getType(), value.getNumber(), value.getBytes()),
+                updateTime);
+        if (updateTime >= slab.getLong(offset + RECORD_UPDATE_TIME)) {
+            slab.putLong(offset + RECORD_UPDATE_TIME, updateTime);
+        }
+    }
+
+    @Override
+    public boolean hasTypedVersions(int variableId) {
+        return (recordSlab(variableId).getInt(recordOffset(variableId) + RECORD_FLAGS) & TYPED) != 0;
+    }
+
+    @Override
+    public Value.Type getValueTypeAt(int variableId, long time) {
+        return hasTypedVersions(variableId) ? versionType(findVersionAt(variableId, time)) : Value.Type.INT;
+    }
+
+    @Override
+    public long getLongValueAt(int variableId, long time) {
+        long address = findVersionAt(variableId, time);
+        if (versionType(address) == Value.Type.INT) {
+            return versionSlab(address).getInt(versionOffset(address) + VERSION_VALUE);
+        }
+        return versionSlab(address).getLong(versionOffset(address) + VERSION_VALUE);
+    }
+
+    @Override
+    public byte[] getBytesValueAt(int variableId, long time) {
+        long address = findVersionAt(variableId, time);
+        return byteArena().get(versionSlab(address).getLong(versionOffset(address) + VERSION_VALUE));
+    }
+
+    @Override
+    public boolean isReadable(int variableId) {
+        return (recordSlab(variableId).getInt(recordOffset(variableId) + RECORD_FLAGS) & READABLE) != 0;
+    }
+
+    @Override
+    public void fail(int variableId) {
+        ByteBuffer slab = recordSlab(variableId);
+        int offset = recordOffset(variableId);
+        slab.putInt(offset + RECORD_FLAGS, slab.getInt(offset + RECORD_FLAGS) & ~READABLE);
+    }
+
+    @Override
+    public void recover(int variableId) {
+        ByteBuffer slab = recordSlab(variableId);
+        int offset = recordOffset(variableId);
+        slab.putInt(offset + RECORD_FLAGS, slab.getInt(offset + RECORD_FLAGS) | READABLE);
+    }
+
+    @Override
+    public long getLastAppliedSequence(int variableId) {
+        return recordSlab(variableId).getLong(recordOffset(variableId) + RECORD_SEQUENCE);
+    }
+
+    @Override
+    public void setLastAppliedSequence(int variableId, long sequence) {
+        recordSlab(variableId).putLong(recordOffset(variableId) + RECORD_SEQUENCE, sequence);
+    }
+
+    @Override
+    public int getValueAt(int variableId, long time) {
+        long address = findVersionAt(variableId, time);
+        return versionSlab(address).getInt(versionOffset(address) + VERSION_VALUE);
+    }
+
+    @Override
+    public long getVersionTimeAt(int variableId, long time) {
+        return versionTime(findVersionAt(variableId, time));
+    }
+
+    @Override
+    public long getLatestVersionTime(int variableId) {
+        return versionTime(recordSlab(variableId).getLong(recordOffset(variableId) + RECORD_HEAD));
+    }
+
+    @Override
+    public int getVersionCount(int variableId) {
+        return recordSlab(variableId).getInt(recordOffset(variableId) + RECORD_VERSION_COUNT);
+    }
+
+    @Override
+    public NavigableMap<Long, Value> getVersionsAfter(int variableId, long time) {
+        TreeMap<Long, Value> versions = new TreeMap<>();
+        long address = recordSlab(variableId).getLong(recordOffset(variableId) + RECORD_HEAD);
+        while (address != 0 && versionTime(address) > time) {
+            ByteBuffer slab = versionSlab(address);
+            int offset = versionOffset(address);
+            switch (versionType(address)) {
+                case INT:
+                    versions.put(versionTime(address), Value.ofInt(slab.getInt(offset + VERSION_VALUE)));
+                    break;
+                case LONG:
+                    versions.put(versionTime(address), Value.ofLong(slab.getLong(offset + VERSION_VALUE)));
+                    break;
+                case DELETED:
+                    versions.put(versionTime(address), Value.ofDeleted());
+                    break;
+                default:
+                    byte[] bytes = byteArena().get(slab.getLong(offset + VERSION_VALUE));
+                    versions.put(versionTime(address), Value.ofBytes(bytes));
+            }
+            address = versionNext(address);
+        }
+        return versions;
+    }
+
+    /**
+     * Drop the slabs. The store cannot be used afterwards.
+     * @throws IOException if a subclass cannot flush them
+     */
+    @Override
+    public void close() throws IOException {
+        recordSlabs.clear();
+        recordIndex.clear();
+        versionSlabs.clear();
+        byteArena = null;
+    }
+
+    /**
+     * Get the byte arena, getting back its slabs the first time.
+     * @return byte arena
+     */
+    private ByteArena byteArena() {
+        if (byteArena == null) {
+            byteArena = new ByteArena(this::newArenaSlab, header.getLong(HEADER_ARENA_SIZE));
+        }
+        return byteArena;
+    }
+
+    /**
+     * Get what a version keeps in its value slot for a LONG, BYTES or DELETED value, copying bytes into the arena.
+     * @param type - LONG, BYTES or DELETED
+     * @param number - LONG value
+     * @param bytes - BYTES value
+     * @return LONG value, arena handle, or 0 for DELETED
+     */
+    private long typedValue(Value.Type type, long number, byte[] bytes) {
+        if (type != Value.Type.BYTES) {
+            return number;
+        }
+        long handle = byteArena().append(bytes);
+        header.putLong(HEADER_ARENA_SIZE, byteArena.getSize());
+        return handle;
+    }
+
+    /**
+     * Get the slab holding the record of a variable.
+     * @param variableId
+     * @return record slab
+     * @throws IllegalArgumentException if the variable is not held
+     */
+    private ByteBuffer recordSlab(int variableId) {
+        return recordSlabs.get(recordPosition(variableId) / RECORDS_PER_SLAB);
+    }
+
+    /**
+     * @param variableId
+     * @return offset of the record of a variable in its slab
+     */
+    private int recordOffset(int variableId) {
+        return (recordPosition(variableId) % RECORDS_PER_SLAB) * RECORD_SIZE;
+    }
+
+    /**
+     * Find the record of a variable.
+     * @param variableId
+     * @return position of the record among all records
+     * @throws IllegalArgumentException if the variable is not held
+     */
+    private int recordPosition(int variableId) {
+        int position = recordIndex.get(variableId, -1);
+        if (position < 0) {
+            throw new IllegalArgumentException("No variable x" + variableId + " in the store");
+        }
+        return position;
+    }
+
+    /**
+     * @param address - version address
+     * @return slab holding the version
+     */
+    private ByteBuffer versionSlab(long address) {
+        return versionSlabs.get((int) ((address - 1) / VERSIONS_PER_SLAB));
+    }
+
+    /**
+     * @param address - version address
+     * @return offset of the version in its slab
+     */
+    private static int versionOffset(long address) {
+        return (int) ((address - 1) % VERSIONS_PER_SLAB) * VERSION_SIZE;
+    }
+
+    private long versionTime(long address) {
+        return versionSlab(address).getLong(versionOffset(address) + VERSION_TIME);
+    }
+
+    private long versionNext(long address) {
+        return versionSlab(address).getLong(versionOffset(address) + VERSION_NEXT) & ADDRESS_MASK;
+    }
+
+    private Value.Type versionType(long address) {
+        return TYPES[(int) (versionSlab(address).getLong(versionOffset(address) + VERSION_NEXT) >>> TYPE_SHIFT)];
+    }
+
+    /**
+     * Set the type and value of a version entry, keeping its next address.
+     * @param address - version address
+     * @param type - type of the value
+     * @param value - INT or LONG value, or arena handle of a BYTES value
+     */
+    private void setVersionValue(long address, Value.Type type, long value) {
+        ByteBuffer slab = versionSlab(address);
+        int offset = versionOffset(address);
+        long next = slab.getLong(offset + VERSION_NEXT) & ADDRESS_MASK;
+        slab.putLong(offset + VERSION_NEXT, (long) type.ordinal() << TYPE_SHIFT | next);
+        if (type == Value.Type.INT) {
+            slab.putInt(offset + VERSION_VALUE, (int) value);
+        } else {
+            slab.putLong(offset + VERSION_VALUE, value);
+        }
+    }
+
+    /**
+     * Allocate a version entry.
+     * @param time - commit time
+     * @param type - type of the value
+     * @param value - INT or LONG value, or arena handle of a BYTES value
+     * @param next - address of the next older version, 0 for none
+     * @return address of the entry
+     */
+    private long newVersion(long time, Value.Type type, long value, long next) {
+        long address = header.getLong(HEADER_VERSION_COUNT) + 1;
+        if (address > (long) versionSlabs.size() * VERSIONS_PER_SLAB) {
+            versionSlabs.add(newVersionSlab(versionSlabs.size()));
+        }
+        header.putLong(HEADER_VERSION_COUNT, address);
+        ByteBuffer slab = versionSlab(address);
+        slab.putLong(versionOffset(address) + VERSION_TIME, time);
+        slab.putLong(versionOffset(address) + VERSION_NEXT, next);
+        setVersionValue(address, type, value);
+        return address;
+    }
+
+    /**
+     * Insert a version into the chain of a variable, keeping it newest first.
+     * A version with the same commit time is overwritten.
+     * @param slab - record slab of the variable
+     * @param offset - record offset of the variable
+     * @param type - type of the version
+     * @param value - INT or LONG value, or arena handle of a BYTES value
+     * @param time - commit time of the version
+     */
+    private void putVersion(ByteBuffer slab, int offset, Value.Type type, long value, long time) {
+        long previous = 0;
+        long current = slab.getLong(offset + RECORD_HEAD);
+        while (current != 0 && versionTime(current) > time) {
+            previous = current;
+            current = versionNext(current);
+        }
+        if (current != 0 && versionTime(current) == time) {
+            setVersionValue(current, type, value);
+            return;
+        }
+        long address = newVersion(time, type, value, current);
+        if (previous == 0) {
+            slab.putLong(offset + RECORD_HEAD, address);
+        } else {
+            ByteBuffer previousSlab = versionSlab(previous);
+            long typeBits = previousSlab.getLong(versionOffset(previous) + VERSION_NEXT) & ~ADDRESS_MASK;
+            previousSlab.putLong(versionOffset(previous) + VERSION_NEXT, typeBits | address);
+        }
+        slab.putInt(offset + RECORD_VERSION_COUNT, slab.getInt(offset + RECORD_VERSION_COUNT) + 1);
+    }
+
+    /**
+     * Find the latest version of a variable committed at or before a time.
+     * @param variableId
+     * @param time - snapshot time
+     * @return version address
+     * @throws NoSuchElementException if every version is newer
+     */
+    private long findVersionAt(int variableId, long time) {
+        long address = recordSlab(variableId).getLong(recordOffset(variableId) + RECORD_HEAD);
+        while (address != 0 && versionTime(address) > time) {
+            address = versionNext(address);
+        }
+        if (address == 0) {
+            throw new NoSuchElementException("No version of x" + variableId + " at or before " + time);
+        }
+        return address;
+    }
+}
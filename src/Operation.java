@@ -14,12 +14,18 @@ public class Operation {
         WRITE
     }
 
-    private final int transactionId; // transaction id
-    private final OperationType type; // operation type
-    private final int variableId; // variable id
+    private int transactionId; // transaction id
+    private OperationType type; // operation type
+    private int variableId; // variable id
     private int value; // the value to write; can be used to store read data in read operations
-    private final long currentTime; // operation time
-    private final Transaction.TransactionType transactionType; // transaction type of this operation
+    private Value.Type valueType; // type of the value, INT unless a typed value was written or read
+    private long longValue; // LONG value
+    private byte[] bytesValue; // BYTES value, null otherwise
+    private long currentTime; // operation time
+    private Transaction.TransactionType transactionType; // transaction type of this operation
+    private BatchOperation batch; // batch command this operation belongs to, null for a single command
+    private long issueTime; // logical time the command was issued
+    private long issueNanos; // wall clock time the operation was created
 
     public Operation(int transactionId,
                      OperationType type,
@@ -27,13 +33,38 @@ public class Operation {
                      int value,
                      long currentTime,
                      Transaction.TransactionType transactionType) {
+        reset(transactionId, type, variableId, value, currentTime, transactionType);
+    }
+
+    /**
+     * Reinitialize a pooled operation as if it were just constructed.
+     * @param transactionId
+     * @param type
+     * @param variableId
+     * @param value - the value to write, ignored for reads
+     * @param currentTime - operation time
+     * @param transactionType
+     * @return this operation
+     */
+    public Operation reset(int transactionId,
+                           OperationType type,
+                           int variableId,
+                           int value,
+                           long currentTime,
+                           Transaction.TransactionType transactionType) {
         this.transactionId = transactionId;
         this.type = type;
         this.variableId = variableId;
         this.value = type == OperationType.READ ? Integer.MIN_VALUE : value;
+        this.valueType = Value.Type.INT;
+        this.longValue = 0;
+        this.bytesValue = null;
         this.currentTime = currentTime;
         this.transactionType = transactionType;
-
+        this.batch = null;
+        this.issueTime = currentTime;
+        this.issueNanos = System.nanoTime();
+        return this;
     }
 
     /**
@@ -68,6 +99,59 @@ public class Operation {
         return value;
     }
 
+    /**
+     * Get the type of the read/write value.
+     * @return value type
+     */
+    public Value.Type getValueType() {
+        return valueType;
+    }
+
+    /**
+     * Check if the read/write value is a LONG, BYTES or DELETED value rather than getValue.
+     * @return true if typed
+     */
+    public boolean isTyped() {
+        return valueType != Value.Type.INT;
+    }
+
+    /**
+     * Get a LONG read/write value.
+     * @return value
+     */
+    public long getLongValue() {
+        return longValue;
+    }
+
+    /**
+     * Get a BYTES read/write value.
+     * @return value, not to be modified
+     */
+    public byte[] getBytesValue() {
+        return bytesValue;
+    }
+
+    /**
+     * Set a value of any type, the value to write or the value read.
+     * @param valueType - type of the value
+     * @param number - INT or LONG value
+     * @param bytes - BYTES value
+     */
+    public void setTypedValue(Value.Type valueType, long number, byte[] bytes) {
+        this.valueType = valueType;
+        this.value = valueType == Value.Type.INT ? (int) number : 0;
+        this.longValue = number;
+        this.bytesValue = bytes;
+    }
+
+    /**
+     * Format the read/write value as reads print it.
+     * @return text of the value
+     */
+    public String formatValue() {
+        return valueType == Value.Type.INT ? Integer.toString(value) : Value.format(valueType, longValue, bytesValue);
+    }
+
     /**
      * Get operation time.
      * @return operation time
@@ -84,6 +168,47 @@ public class Operation {
         return transactionType;
     }
 
+    /**
+     * Get the logical time the command was issued, which differs from the
+     * operation time for reads of read-only transactions.
+     * @return issue time
+     */
+    public long getIssueTime() {
+        return issueTime;
+    }
+
+    /**
+     * Set the logical time the command was issued.
+     * @param issueTime - issue time
+     */
+    public void setIssueTime(long issueTime) {
+        this.issueTime = issueTime;
+    }
+
+    /**
+     * Get the wall clock time the operation was created.
+     * @return nanoTime at creation
+     */
+    public long getIssueNanos() {
+        return issueNanos;
+    }
+
+    /**
+     * Get the batch command this operation belongs to.
+     * @return batch, or null for a single command
+     */
+    public BatchOperation getBatch() {
+        return batch;
+    }
+
+    /**
+     * Set the batch command this operation belongs to.
+     * @param batch - the batch
+     */
+    public void setBatch(BatchOperation batch) {
+        this.batch = batch;
+    }
+
     /**
      * Set the value to the read value.
      * @param value - the read value
@@ -91,6 +216,7 @@ public class Operation {
     public void setReadValue(int value) {
         if (this.type == OperationType.READ) {
             this.value = value;
+            this.valueType = Value.Type.INT;
         }
     }
 
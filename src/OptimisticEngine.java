@@ -0,0 +1,218 @@
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class runs read-write transactions without locks. Reads
+ * remember the version they saw and writes are buffered in the
+ * transaction until commit, when the writes are installed on
+ * every available site in one step. Under optimistic concurrency
+ * control reads see the latest committed version and the read
+ * set is validated at commit. Under snapshot isolation reads see
+ * the versions at the birth time of the transaction and the first
+ * committer wins on write-write conflicts; serializable snapshot
+ * isolation also validates the read set.
+ *
+ * Updated: 10/18/2026
+ */
+public class OptimisticEngine {
+
+    private final List<Site> siteList; // all sites
+    private final TransactionManager.ConcurrencyControl mode; // optimistic or one of the snapshot modes
+    private long readCount; // reads served
+    private long commitCount; // transactions validated and installed
+    private long conflictAbortCount; // transactions whose reads were overwritten
+    private long writeConflictAbortCount; // transactions that lost a write-write conflict
+    private long unavailableAbortCount; // transactions with no available copy to validate or install
+
+    public OptimisticEngine(List<Site> siteList, TransactionManager.ConcurrencyControl mode) {
+        this.siteList = siteList;
+        this.mode = mode;
+        this.readCount = 0;
+        this.commitCount = 0;
+        this.conflictAbortCount = 0;
+        this.writeConflictAbortCount = 0;
+        this.unavailableAbortCount = 0;
+    }
+
+    /**
+     * Read a variable without locks. A variable the transaction wrote is read
+     * from its own buffer, otherwise the latest committed version (or the version
+     * at the birth time of the transaction under snapshot isolation) is read
+     * from the first available copy and recorded in the read set.
+     * @param transaction - transaction that issues the read
+     * @param operation - read operation, which receives the value
+     * @return true if the read is served, false if no copy is available
+     */
+    public boolean read(Transaction transaction, Operation operation) {
+        int variableId = operation.getVariableId();
+        if (transaction.hasBufferedWrite(variableId)) {
+            Operation typedWrite = transaction.getTypedWrite(variableId);
+            if (typedWrite != null) {
+                operation.setTypedValue(typedWrite.getValueType(), typedWrite.getLongValue(), typedWrite.getBytesValue());
+            } else {
+                operation.setReadValue(transaction.getBufferedWrite(variableId));
+            }
+            readCount += 1;
+            return true;
+        }
+        for (Site site : siteList) {
+            if (!site.isFailed() && site.isVariableReadable(variableId)) {
+                if (mode == TransactionManager.ConcurrencyControl.OPTIMISTIC) {
+                    transaction.recordRead(variableId, site.getLatestVersionTime(variableId));
+                    site.readCommittedValue(operation);
+                } else {
+                    long snapshotTime = transaction.getBirthTime();
+                    transaction.recordRead(variableId, site.getVersionTimeAt(variableId, snapshotTime));
+                    site.readValueAt(operation, snapshotTime);
+                }
+                readCount += 1;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Buffer a write in the transaction until commit.
+     * @param transaction - transaction that issues the write
+     * @param operation - write operation
+     */
+    public void write(Transaction transaction, Operation operation) {
+        if (operation.isTyped()) {
+            transaction.bufferTypedWrite(operation);
+        } else {
+            transaction.bufferWrite(operation.getVariableId(), operation.getValue());
+        }
+    }
+
+    /**
+     * Validate the transaction and install its writes. Validation fails if
+     * a newer version of any variable it read was committed (except under
+     * plain snapshot isolation), if a variable it wrote was committed by
+     * another transaction after its birth (under snapshot isolation), or
+     * if a variable it read or wrote has no available copy.
+     * @param transaction - transaction to commit
+     * @param commitTime - commit time given to the installed versions
+     * @return true if the transaction committed, false if it must abort
+     */
+    public boolean commit(Transaction transaction, long commitTime) {
+        if (mode != TransactionManager.ConcurrencyControl.SNAPSHOT) {
+            for (Map.Entry<Integer, Long> read : transaction.getReadSet().entrySet()) {
+                long latestTime = getLatestCommittedTime(read.getKey());
+                if (latestTime < 0) {
+                    unavailableAbortCount += 1;
+                    return false;
+                }
+                if (latestTime != read.getValue()) {
+                    conflictAbortCount += 1;
+                    return false;
+                }
+            }
+        }
+        IntIntMap writeBuffer = transaction.getWriteBuffer();
+        for (int i = 0; i < writeBuffer.size(); i++) {
+            int variableId = writeBuffer.keyAt(i);
+            if (!isAvailable(variableId)) {
+                unavailableAbortCount += 1;
+                return false;
+            }
+            if (mode != TransactionManager.ConcurrencyControl.OPTIMISTIC
+                    && getLatestInstalledTime(variableId) > transaction.getBirthTime()) {
+                writeConflictAbortCount += 1;
+                return false;
+            }
+        }
+        for (Site site : siteList) {
+            site.installWrites(transaction.getId(), writeBuffer, transaction.getTypedWrites(), commitTime);
+        }
+        commitCount += 1;
+        return true;
+    }
+
+    /**
+     * Print the conflict and abort counters.
+     */
+    public void printStatistics() {
+        System.out.format("%s: %s reads, %s commits, %s conflict aborts, %s write conflict aborts, %s unavailable aborts",
+                mode.name().toLowerCase().replace('_', '-'), readCount, commitCount, conflictAbortCount,
+                writeConflictAbortCount, unavailableAbortCount);
+        System.out.println();
+    }
+
+    /**
+     * Get the number of transactions that committed.
+     * @return commit count
+     */
+    public long getCommitCount() {
+        return commitCount;
+    }
+
+    /**
+     * Get the number of transactions aborted because a value they read was overwritten.
+     * @return conflict abort count
+     */
+    public long getConflictAbortCount() {
+        return conflictAbortCount;
+    }
+
+    /**
+     * Get the number of transactions aborted because another transaction committed the same variable first.
+     * @return write conflict abort count
+     */
+    public long getWriteConflictAbortCount() {
+        return writeConflictAbortCount;
+    }
+
+    /**
+     * Get the number of transactions aborted because no copy was available.
+     * @return unavailable abort count
+     */
+    public long getUnavailableAbortCount() {
+        return unavailableAbortCount;
+    }
+
+    /**
+     * Get the commit time of the latest version among the available readable copies.
+     * @param variableId
+     * @return latest commit time, or -1 if no copy can be read
+     */
+    private long getLatestCommittedTime(int variableId) {
+        long latestTime = -1;
+        for (Site site : siteList) {
+            if (!site.isFailed() && site.isVariableReadable(variableId)) {
+                latestTime = Math.max(latestTime, site.getLatestVersionTime(variableId));
+            }
+        }
+        return latestTime;
+    }
+
+    /**
+     * Get the commit time of the latest version among all available copies,
+     * including copies that are not readable yet after a recovery.
+     * @param variableId
+     * @return latest commit time, or -1 if no copy is available
+     */
+    private long getLatestInstalledTime(int variableId) {
+        long latestTime = -1;
+        for (Site site : siteList) {
+            if (!site.isFailed() && site.isReplicaOf(variableId)) {
+                latestTime = Math.max(latestTime, site.getLatestVersionTime(variableId));
+            }
+        }
+        return latestTime;
+    }
+
+    /**
+     * Check if some available site is a site of the variable, which creates its copy if it has none.
+     * @param variableId
+     * @return true if a write of the variable can be installed
+     */
+    private boolean isAvailable(int variableId) {
+        for (Site site : siteList) {
+            if (!site.isFailed() && site.isReplicaOf(variableId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
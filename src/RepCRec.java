@@ -1,20 +1,187 @@
 import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.PrintStream;
 
 /**
  * This is the main class to run our distributed database.
  *
  * @author Yichang Chen
- * Updated: 12/05/2018
+ * Updated: 10/18/2026
  */
 public class RepCRec {
+
+    private static final String WAL_OPTION = "--wal=";
+    private static final String FSYNC_OPTION = "--fsync=";
+    private static final String FSYNC_GROUP_OPTION = "--fsync-group=";
+    private static final String FSYNC_PERIOD_OPTION = "--fsync-period=";
+    private static final String CHECKPOINT_INTERVAL_OPTION = "--checkpoint-interval=";
+    private static final String CHECKPOINT_STEP_OPTION = "--checkpoint-step=";
+    private static final String CONCURRENCY_OPTION = "--concurrency=";
+    private static final String DEADLOCK_OPTION = "--deadlock=";
+    private static final String VICTIM_OPTION = "--victim=";
+    private static final String FAILURE_MODE_OPTION = "--failure-mode=";
+    private static final String CATCH_UP_OPTION = "--catch-up=";
+    private static final String CATCH_UP_BACKGROUND_OPTION = "--catch-up-background";
+    private static final String LOCK_ESCALATION_OPTION = "--lock-escalation=";
+    private static final String LOCK_RANGE_SIZE_OPTION = "--lock-range-size=";
+    private static final String SNAPSHOT_CACHE_OPTION = "--snapshot-cache=";
+    private static final String METRICS_OPTION = "--metrics=";
+    private static final String TRACE_OPTION = "--trace=";
+    private static final String TRACE_CAPACITY_OPTION = "--trace-capacity=";
+    private static final String RECORD_OPTION = "--record=";
+    private static final String REPLAY_OPTION = "--replay=";
+    private static final String REPLAY_PACED_OPTION = "--replay-paced";
+    private static final String BINARY_OPTION = "--binary";
+    private static final String STORE_OPTION = "--store=";
+    private static final String STORE_DIRECTORY_OPTION = "--store-dir=";
+
     public static void main(String[] args) {
 
         TransactionManager transactionManager = new TransactionManager();
 
-        if (args.length != 0) {
+        String inputPath = null;
+        String walDirectory = null;
+        WriteAheadLog.FsyncPolicy fsyncPolicy = WriteAheadLog.FsyncPolicy.COMMIT;
+        int fsyncGroupSize = 32;
+        long fsyncPeriodMillis = 100;
+        int checkpointInterval = 0;
+        int checkpointStep = 1024;
+        int catchUpBatchSize = 0;
+        boolean catchUpInBackground = false;
+        int lockEscalationThreshold = 0;
+        int lockRangeSize = 10;
+        int snapshotCacheCapacity = 0;
+        String metricsPath = null;
+        String tracePath = null;
+        int traceCapacity = 65536;
+        String recordPath = null;
+        String replayPath = null;
+        boolean replayPaced = false;
+        boolean binaryInput = false;
+        VariableStore.Backend storeBackend = VariableStore.Backend.HEAP;
+        String storeDirectory = "store";
+        for (String arg : args) {
+            if (arg.startsWith(WAL_OPTION)) {
+                walDirectory = arg.substring(WAL_OPTION.length());
+            } else if (arg.startsWith(FSYNC_OPTION)) {
+                fsyncPolicy = WriteAheadLog.FsyncPolicy.valueOf(arg.substring(FSYNC_OPTION.length()).toUpperCase());
+            } else if (arg.startsWith(FSYNC_GROUP_OPTION)) {
+                fsyncGroupSize = Integer.parseInt(arg.substring(FSYNC_GROUP_OPTION.length()));
+            } else if (arg.startsWith(FSYNC_PERIOD_OPTION)) {
+                fsyncPeriodMillis = Long.parseLong(arg.substring(FSYNC_PERIOD_OPTION.length()));
+            } else if (arg.startsWith(CHECKPOINT_INTERVAL_OPTION)) {
+                checkpointInterval = Integer.parseInt(arg.substring(CHECKPOINT_INTERVAL_OPTION.length()));
+            } else if (arg.startsWith(CHECKPOINT_STEP_OPTION)) {
+                checkpointStep = Integer.parseInt(arg.substring(CHECKPOINT_STEP_OPTION.length()));
+            } else if (arg.startsWith(CONCURRENCY_OPTION)) {
+                String strategy = arg.substring(CONCURRENCY_OPTION.length()).replace('-', '_').toUpperCase();
+                transactionManager.setConcurrencyControl(TransactionManager.ConcurrencyControl.valueOf(strategy));
+            } else if (arg.startsWith(DEADLOCK_OPTION)) {
+                String policy = arg.substring(DEADLOCK_OPTION.length()).replace('-', '_').toUpperCase();
+                transactionManager.setDeadlockPolicy(TransactionManager.DeadlockPolicy.valueOf(policy));
+            } else if (arg.startsWith(VICTIM_OPTION)) {
+                String policy = arg.substring(VICTIM_OPTION.length()).replace('-', '_').toUpperCase();
+                transactionManager.setVictimPolicy(TransactionManager.VictimPolicy.valueOf(policy));
+            } else if (arg.startsWith(FAILURE_MODE_OPTION)) {
+                String mode = arg.substring(FAILURE_MODE_OPTION.length()).replace('-', '_').toUpperCase();
+                transactionManager.setFailureMode(TransactionManager.FailureMode.valueOf(mode));
+            } else if (arg.startsWith(CATCH_UP_OPTION)) {
+                catchUpBatchSize = Integer.parseInt(arg.substring(CATCH_UP_OPTION.length()));
+            } else if (arg.equals(CATCH_UP_BACKGROUND_OPTION)) {
+                catchUpInBackground = true;
+            } else if (arg.startsWith(LOCK_ESCALATION_OPTION)) {
+                lockEscalationThreshold = Integer.parseInt(arg.substring(LOCK_ESCALATION_OPTION.length()));
+            } else if (arg.startsWith(LOCK_RANGE_SIZE_OPTION)) {
+                lockRangeSize = Integer.parseInt(arg.substring(LOCK_RANGE_SIZE_OPTION.length()));
+            } else if (arg.startsWith(SNAPSHOT_CACHE_OPTION)) {
+                snapshotCacheCapacity = Integer.parseInt(arg.substring(SNAPSHOT_CACHE_OPTION.length()));
+            } else if (arg.startsWith(METRICS_OPTION)) {
+                metricsPath = arg.substring(METRICS_OPTION.length());
+            } else if (arg.startsWith(TRACE_OPTION)) {
+                tracePath = arg.substring(TRACE_OPTION.length());
+            } else if (arg.startsWith(TRACE_CAPACITY_OPTION)) {
+                traceCapacity = Integer.parseInt(arg.substring(TRACE_CAPACITY_OPTION.length()));
+            } else if (arg.startsWith(RECORD_OPTION)) {
+                recordPath = arg.substring(RECORD_OPTION.length());
+            } else if (arg.startsWith(REPLAY_OPTION)) {
+                replayPath = arg.substring(REPLAY_OPTION.length());
+            } else if (arg.equals(REPLAY_PACED_OPTION)) {
+                replayPaced = true;
+            } else if (arg.equals(BINARY_OPTION)) {
+                binaryInput = true;
+            } else if (arg.startsWith(STORE_OPTION)) {
+                String backend = arg.substring(STORE_OPTION.length()).replace('-', '_').toUpperCase();
+                storeBackend = VariableStore.Backend.valueOf(backend);
+            } else if (arg.startsWith(STORE_DIRECTORY_OPTION)) {
+                storeDirectory = arg.substring(STORE_DIRECTORY_OPTION.length());
+            } else {
+                inputPath = arg;
+            }
+        }
+
+        if (storeBackend != VariableStore.Backend.HEAP) {
+            try {
+                transactionManager.useVariableStore(storeBackend, new File(storeDirectory));
+            } catch (IOException e) {
+                System.out.println("Cannot open variable store: " + e.getMessage());
+                return;
+            }
+        }
+
+        if (catchUpBatchSize > 0) {
+            transactionManager.enableCatchUp(catchUpBatchSize, catchUpInBackground);
+        }
+
+        if (lockEscalationThreshold > 0) {
+            transactionManager.enableLockEscalation(lockEscalationThreshold, lockRangeSize);
+        }
+
+        if (snapshotCacheCapacity > 0) {
+            transactionManager.enableSnapshotReadCache(snapshotCacheCapacity);
+        }
+
+        if (tracePath != null) {
+            transactionManager.enableTracing(traceCapacity);
+        }
+
+        if (walDirectory != null) {
+            try {
+                transactionManager.enableWriteAheadLog(new File(walDirectory),
+                        fsyncPolicy, fsyncGroupSize, fsyncPeriodMillis, checkpointInterval, checkpointStep);
+            } catch (IOException e) {
+                System.out.println("Cannot open write-ahead log: " + e.getMessage());
+                return;
+            }
+        }
+
+        if (recordPath != null) {
+            try {
+                transactionManager.enableRecording(new File(recordPath));
+            } catch (IOException e) {
+                System.out.println("Cannot open command log: " + e.getMessage());
+                return;
+            }
+        }
+
+        if (replayPath != null) {
+            System.out.println("Running replay mode: ");
+            try {
+                transactionManager.startReplayMode(replayPath, replayPaced);
+            } catch (Exception e) {
+                System.out.println("Invalid input");
+            }
+        } else if (binaryInput) {
+            System.out.println("Running binary input mode: ");
+            try {
+                transactionManager.startBinaryMode(inputPath != null ? new FileInputStream(inputPath) : System.in);
+            } catch (Exception e) {
+                System.out.println("Invalid input");
+            }
+        } else if (inputPath != null) {
             System.out.println("Running file input mode: ");
-            String inputPath = args[0];
             try {
 
                 transactionManager.startFileMode(inputPath);
@@ -27,5 +194,22 @@ public class RepCRec {
                     new BufferedReader(new InputStreamReader(System.in));
             transactionManager.startCommandLineMode(reader);
         }
+        transactionManager.shutdown();
+
+        if (metricsPath != null) {
+            try (PrintStream out = new PrintStream(metricsPath)) {
+                transactionManager.writeStatistics(out);
+            } catch (IOException e) {
+                System.out.println("Cannot write metrics: " + e.getMessage());
+            }
+        }
+
+        if (tracePath != null) {
+            try (PrintStream out = new PrintStream(tracePath)) {
+                transactionManager.writeTrace(out);
+            } catch (IOException e) {
+                System.out.println("Cannot write trace: " + e.getMessage());
+            }
+        }
     }
 }
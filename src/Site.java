@@ -1,3 +1,6 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
 import java.util.*;
 
 public class Site {
@@ -8,33 +11,299 @@ public class Site {
         RECOVERED,
     }
 
-    private static final int VARIABLE_COUNT = 20;
+    private static final int VARIABLE_COUNT = 20; // variables created by init, any other id is created by its first write
 
     private final int id;
     private SiteStatus status;
     private boolean debugMode = false;
-    private Map<Integer, Variable> variableMap; // <key: Variable id, val: Variable object>
-    private Map<Integer, LockManager> lockManagerMap; // <key: Variable id, val: LockManager object>
-    private Map<Integer, List<Operation>> transactionOperationMap; // <key: Transaction id, val: list of operations to be committed>
+    private WriteAheadLog writeAheadLog; // log of committed writes, null if the site is not durable
+    private Checkpointer checkpointer; // snapshot loader and writer, null if the site is not durable
+    private long lastCommitTime; // largest commit time applied to this site
+    private long commitSequence; // number of changes applied to this site since startup
+    private int failureCount; // number of times this site failed
+    private Set<Integer> staleAtFailureSet; // variables that were already unreadable at the last failure
+    private Set<Integer> missedVariableSet; // replicated variables created while this site was down, with no copy here yet
+    private VariableStore variableStore; // copies of the variables held by this site
+    private IntObjectMap<LockManager> lockManagerMap; // <key: Variable id, val: LockManager object>, while locked or once contended
+    private final List<LockManager> lockManagerList; // scratch list of the lock managers being gone through
+    private long releasedAcquireCount; // locks granted by lock managers dropped without contention
+    private long releasedUpgradeCount; // upgrades made by lock managers dropped without contention
+    private HierarchicalLockManager hierarchicalLockManager; // site and range locks, null if only variables are locked
+    private SnapshotReadCache snapshotReadCache; // resolved snapshot reads, null if not cached
+    private IntObjectMap<List<Operation>> transactionOperationMap; // <key: Transaction id, val: list of operations to be committed>
     // only the validated operations can be put in this map, it is guaranteed that it can be committed if site does not fail
+    private final ObjectPool<Lock> lockPool; // locks released on this site, shared by its lock managers
+    private final ObjectPool<LockManager> lockManagerPool; // lock managers dropped once idle
+    private final ObjectPool<List<Operation>> queuePool; // emptied operation queues of finished transactions
+    private final IntIntMap localWrites; // scratch map of the installed writes held by this site
 
     public Site(int id) {
         this.id = id;
         this.status = SiteStatus.RUNNING;
-        this.variableMap = new HashMap<>();
-        this.lockManagerMap = new HashMap<>();
-        this.transactionOperationMap = new HashMap<>();
+        this.variableStore = new HeapVariableStore();
+        this.lockManagerMap = new IntObjectMap<>();
+        this.lockManagerList = new ArrayList<>();
+        this.transactionOperationMap = new IntObjectMap<>();
+        this.lockPool = new ObjectPool<>(() -> new Lock(0, 0, Lock.LockType.READ_LOCK), 1024);
+        this.lockManagerPool = new ObjectPool<>(() -> new LockManager(id, 0, lockPool), 256);
+        this.queuePool = new ObjectPool<>(ArrayList::new, 256);
+        this.localWrites = new IntIntMap();
+        this.lastCommitTime = 0;
+        this.commitSequence = 0;
+        this.failureCount = 0;
+        this.staleAtFailureSet = new HashSet<>();
+        this.missedVariableSet = new HashSet<>();
     }
 
+    /**
+     * Create the initial variables held by this site. Their locks, like the
+     * variables and locks of any other id, are created when first needed.
+     */
     public void init() {
         for (int i = 1; i <= VARIABLE_COUNT; i++) {
-            if (i % 2 == 0 || id == 1 + i % 10) {
-                variableMap.put(i, new Variable(i));
-                lockManagerMap.put(i, new LockManager(id, i));
+            if (isReplicaOf(i)) {
+                variableStore.addVariable(i, 10 * i);
+            }
+        }
+    }
+
+    /**
+     * Move the variables of this site, with their versions and status, into another store
+     * and close the current one. Variables the new store already holds, saved by an earlier
+     * run, are kept as they are. Must be called before any transaction starts.
+     * @param store store that holds the variables from now on
+     * @throws IOException if the current store cannot be closed
+     */
+    public void useVariableStore(VariableStore store) throws IOException {
+        for (int variableId : store.getVariableIds()) {
+            lastCommitTime = Math.max(lastCommitTime, store.getLatestVersionTime(variableId));
+        }
+        for (int variableId : variableStore.getVariableIds()) {
+            if (store.containsVariable(variableId)) {
+                continue;
+            }
+            NavigableMap<Long, Value> versions = variableStore.getVersionsAfter(variableId, -1);
+            Value first = versions.firstEntry().getValue();
+            store.addVariable(variableId, first.getType() == Value.Type.INT ? (int) first.getNumber() : 0);
+            for (Map.Entry<Long, Value> version : versions.entrySet()) {
+                store.restoreVersion(variableId, version.getValue(), version.getKey());
+            }
+            if (!variableStore.isReadable(variableId)) {
+                store.fail(variableId);
+            }
+            store.setLastAppliedSequence(variableId, variableStore.getLastAppliedSequence(variableId));
+        }
+        variableStore.close();
+        variableStore = store;
+    }
+
+    /**
+     * Flush and release the variable store of this site
+     * @throws IOException if the store cannot be flushed
+     */
+    public void closeVariableStore() throws IOException {
+        variableStore.close();
+    }
+
+    /**
+     * Attach a write-ahead log to this site and rebuild the variables from
+     * the latest snapshot and the log segments after it.
+     * Must be called after init and before any transaction commits.
+     * @param log the write-ahead log of this site
+     * @param checkpointer the snapshot loader and writer of this site, or null to replay the whole log
+     * @throws IOException if the snapshot or the log cannot be read
+     */
+    public void attachWriteAheadLog(WriteAheadLog log, Checkpointer checkpointer) throws IOException {
+        long firstSegment = 0;
+        if (checkpointer != null) {
+            firstSegment = checkpointer.load(new Checkpointer.Loader() {
+                @Override
+                public void loadVersion(int variableId, long updateTime, int value) {
+                    restoreVersion(variableId, updateTime, value);
+                }
+
+                @Override
+                public void loadTypedVersion(int variableId, long updateTime, Value value) {
+                    restoreVersion(variableId, updateTime, value);
+                }
+            });
+        }
+        long replayedTime = log.open(firstSegment, new WriteAheadLog.Replayer() {
+            @Override
+            public void replayWrite(long commitTime, int variableId, int value) {
+                restoreVersion(variableId, commitTime, value);
+            }
+
+            @Override
+            public void replayTypedWrite(long commitTime, int variableId, Value value) {
+                restoreVersion(variableId, commitTime, value);
+            }
+        });
+        lastCommitTime = Math.max(lastCommitTime, replayedTime);
+        writeAheadLog = log;
+        this.checkpointer = checkpointer;
+    }
+
+    /**
+     * Lock the site and ranges of variable ids above the variables, and
+     * escalate a transaction to a single site lock once it holds enough variable locks
+     * @param rangeSize number of variable ids per range
+     * @param escalationThreshold variable locks per transaction before escalation, or 0 to never escalate
+     */
+    public void enableHierarchicalLocking(int rangeSize, int escalationThreshold) {
+        hierarchicalLockManager = new HierarchicalLockManager(id, rangeSize, escalationThreshold);
+    }
+
+    /**
+     * Cache resolved snapshot reads of this site
+     * @param capacity maximum number of cached reads
+     */
+    public void enableSnapshotReadCache(int capacity) {
+        snapshotReadCache = new SnapshotReadCache(capacity);
+    }
+
+    /**
+     * Get the snapshot read cache of this site
+     * @return cache, or null if snapshot reads are not cached
+     */
+    public SnapshotReadCache getSnapshotReadCache() {
+        return snapshotReadCache;
+    }
+
+    /**
+     * Record how long an operation waited for the lock it now holds on a variable
+     * @param variableId id of the variable
+     * @param waitTime logical time between the request and the grant
+     */
+    public void recordLockWait(int variableId, long waitTime) {
+        LockManager lockManager = lockManagerMap.get(variableId);
+        if (lockManager != null) {
+            lockManager.recordWait(waitTime);
+        }
+    }
+
+    /**
+     * Count a lock conflict if a lock held on this copy keeps a newly blocked operation waiting
+     * @param operation operation that just blocked
+     */
+    public void recordLockConflict(Operation operation) {
+        LockManager lockManager = lockManagerMap.get(operation.getVariableId());
+        if (!isFailed() && lockManager != null && lockManager.conflictsWith(operation)) {
+            lockManager.recordConflict();
+        }
+    }
+
+    /**
+     * Print the lock counters of every variable locked now or contended once in
+     * this site, and the counters of the other variables summed
+     * @param out stream receiving one line per variable
+     */
+    public void writeLockStatistics(PrintStream out) {
+        int[] variableIds = lockManagerMap.keys();
+        Arrays.sort(variableIds);
+        for (int variableId : variableIds) {
+            LockManager lockManager = lockManagerMap.get(variableId);
+            if (lockManager.getAcquireCount() == 0) {
+                continue;
+            }
+            Histogram waits = lockManager.getWaitHistogram();
+            out.println("lock site" + id + ".x" + variableId + " acquires=" + lockManager.getAcquireCount()
+                    + " conflicts=" + lockManager.getConflictCount() + " upgrades=" + lockManager.getUpgradeCount()
+                    + (waits == null ? "" : " wait " + waits.summary()));
+        }
+        if (releasedAcquireCount > 0) {
+            out.println("lock site" + id + ".uncontended acquires=" + releasedAcquireCount
+                    + " conflicts=0 upgrades=" + releasedUpgradeCount);
+        }
+    }
+
+    /**
+     * Get the lock managers of the variables in this site that saw any contention
+     * @return lock managers with at least one conflict or wait
+     */
+    public List<LockManager> getContendedLockManagers() {
+        List<LockManager> contended = new ArrayList<>();
+        lockManagerMap.copyValuesTo(lockManagerList);
+        for (LockManager lockManager : lockManagerList) {
+            if (lockManager.getConflictCount() > 0 || lockManager.getWaitHistogram() != null) {
+                contended.add(lockManager);
+            }
+        }
+        return contended;
+    }
+
+    /**
+     * Get the number of versions kept for a variable in this site
+     * @param variableId id of the variable
+     * @return version count, or 0 if the site holds no copy
+     */
+    public int getVersionCount(int variableId) {
+        return variableStore.containsVariable(variableId) ? variableStore.getVersionCount(variableId) : 0;
+    }
+
+    /**
+     * Get the number of variables this site holds a copy of, including deleted ones
+     * @return variable count
+     */
+    public int getVariableCount() {
+        return variableStore.getVariableCount();
+    }
+
+    /**
+     * Get the variables this site holds a copy of, including deleted ones
+     * @return ids in ascending order
+     */
+    public int[] getVariableIds() {
+        return variableStore.getVariableIds();
+    }
+
+    /**
+     * Check if a transaction has operations queued in this site
+     * @param transactionId id of the transaction
+     * @return true if it has something to commit or abort here
+     */
+    public boolean hasQueuedOperations(int transactionId) {
+        return transactionOperationMap.containsKey(transactionId);
+    }
+
+    /**
+     * Copy the next part of a running checkpoint, and drop the log
+     * segments it covers once it completes
+     */
+    public void checkpointStep() {
+        if (checkpointer == null || !checkpointer.isInProgress()) {
+            return;
+        }
+        try {
+            if (checkpointer.step(variableStore)) {
+                writeAheadLog.deleteSegmentsBefore(checkpointer.getSegment());
             }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot write checkpoint of site " + id, e);
         }
     }
 
+    /**
+     * Complete any running checkpoint, then force and close the write-ahead log if there is one
+     * @throws IOException if the log cannot be closed
+     */
+    public void closeWriteAheadLog() throws IOException {
+        while (checkpointer != null && checkpointer.isInProgress()) {
+            checkpointStep();
+        }
+        if (writeAheadLog != null) {
+            writeAheadLog.close();
+        }
+    }
+
+    /**
+     * Get the largest commit time applied to this site, including replayed ones
+     * @return last commit time
+     */
+    public long getLastCommitTime() {
+        return lastCommitTime;
+    }
+
     public int getId() {
         return id;
     }
@@ -48,17 +317,18 @@ public class Site {
     }
 
     /**
-     * Dump all variables in the site
+     * Dump all variables in the site, leaving out deleted ones
      */
     public void dump() {
         System.out.format("site %s – ", id);
-        for (int i = 1; i <= VARIABLE_COUNT; i++) {
-            if (i % 2 == 0 || id == 1 + i % 10) {
-                if (debugMode && getVariableById(i) == i * 10) {
-                    continue;
-                }
-                System.out.format("x%s: %s, ", i, getVariableById(i));
+        for (int i : variableStore.getVariableIds()) {
+            if (isDeleted(i)) {
+                continue;
+            }
+            if (debugMode && !variableStore.hasTypedVersions(i) && getVariableById(i) == i * 10) {
+                continue;
             }
+            System.out.format("x%s: %s, ", i, formatVariable(i));
         }
         System.out.println();
     }
@@ -68,9 +338,9 @@ public class Site {
      * @param i id of the variable to be dumped
      */
     public void dump(int i) {
-        if (variableMap.containsKey(i)) {
+        if (variableStore.containsVariable(i) && !isDeleted(i)) {
             System.out.format("site %s – ", id);
-            System.out.format("x%s: %s, ", i, getVariableById(i));
+            System.out.format("x%s: %s, ", i, formatVariable(i));
             System.out.println();
         }
     }
@@ -89,19 +359,136 @@ public class Site {
      */
     public List<Integer> fail() {
         status = SiteStatus.FAILED;
-        for (int i : lockManagerMap.keySet()) {
-            lockManagerMap.get(i).clear();
+        failureCount += 1;
+        lockManagerMap.copyValuesTo(lockManagerList);
+        for (LockManager lockManager : lockManagerList) {
+            lockManager.clear();
+            if (dropIfIdle(lockManager)) {
+                lockManagerMap.remove(lockManager.getVariableId());
+            }
+        }
+        if (hierarchicalLockManager != null) {
+            hierarchicalLockManager.clear();
         }
-        for (int i : variableMap.keySet()) {
+        staleAtFailureSet.clear();
+        for (int i : variableStore.getVariableIds()) {
+            if (!variableStore.isReadable(i)) {
+                staleAtFailureSet.add(i);
+            }
             if (i % 2 == 0) {
-                variableMap.get(i).fail();
+                variableStore.fail(i);
             }
         }
-        List<Integer> abortedTransactionList = new ArrayList<>(transactionOperationMap.keySet());
+        int[] abortedTransactionIds = transactionOperationMap.keys();
+        Arrays.sort(abortedTransactionIds);
+        List<Integer> abortedTransactionList = new ArrayList<>(abortedTransactionIds.length);
+        for (int transactionId : abortedTransactionIds) {
+            abortedTransactionList.add(transactionId);
+            releaseQueue(transactionOperationMap.get(transactionId));
+        }
         transactionOperationMap.clear();
         return abortedTransactionList;
     }
 
+    /**
+     * Get a copy of the operations queued for each transaction, which are lost if the site fails
+     * @return <key: Transaction id, val: operations queued on this site>
+     */
+    public Map<Integer, List<Operation>> getQueuedOperations() {
+        Map<Integer, List<Operation>> queuedOperationMap = new HashMap<>();
+        for (int transactionId : transactionOperationMap.keys()) {
+            queuedOperationMap.put(transactionId, new ArrayList<>(transactionOperationMap.get(transactionId)));
+        }
+        return queuedOperationMap;
+    }
+
+    /**
+     * Get the other transactions holding locks on a variable in this site that conflict with an operation
+     * @param operation operation asking for a lock
+     * @return ids of the conflicting lock holders, empty if the site is down or has no copy
+     */
+    public List<Integer> getConflictingTransactionIds(Operation operation) {
+        if (isFailed() || !isReplicaOf(operation.getVariableId())) {
+            return Collections.emptyList();
+        }
+        LockManager lockManager = lockManagerMap.get(operation.getVariableId());
+        List<Integer> conflictingIds = lockManager == null
+                ? new ArrayList<>()
+                : lockManager.getConflictingTransactionIds(operation);
+        for (int transactionId : getCoarseLockHolderIds(operation)) {
+            if (!conflictingIds.contains(transactionId)) {
+                conflictingIds.add(transactionId);
+            }
+        }
+        return conflictingIds;
+    }
+
+    /**
+     * Get the other transactions whose site or range locks in this site conflict with an operation
+     * @param operation operation asking for a lock
+     * @return ids of the conflicting coarse lock holders, empty without hierarchical locking
+     */
+    public List<Integer> getCoarseLockHolderIds(Operation operation) {
+        if (hierarchicalLockManager == null || isFailed() || !isReplicaOf(operation.getVariableId())) {
+            return Collections.emptyList();
+        }
+        return hierarchicalLockManager.getConflictingTransactionIds(operation.getTransactionId(),
+                operation.getVariableId(), operation.getType() == Operation.OperationType.WRITE);
+    }
+
+    /**
+     * Count the locks a transaction holds in this site
+     * @param transactionId id of the transaction
+     * @return number of variables locked by the transaction
+     */
+    public int countLocksHeld(int transactionId) {
+        if (isFailed()) {
+            return 0;
+        }
+        int count = 0;
+        lockManagerMap.copyValuesTo(lockManagerList);
+        for (LockManager lockManager : lockManagerList) {
+            if (lockManager.holdsLock(transactionId)) {
+                count += 1;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Check if a transaction holds a lock on a variable in this site
+     * @param transactionId id of the transaction
+     * @param variableId id of the variable
+     * @return true if the transaction holds a read or write lock on it
+     */
+    public boolean holdsLock(int transactionId, int variableId) {
+        LockManager lockManager = lockManagerMap.get(variableId);
+        return !isFailed()
+                && isReplicaOf(variableId)
+                && (lockManager != null && lockManager.holdsLock(transactionId)
+                    || hierarchicalLockManager != null && hierarchicalLockManager.covers(transactionId, variableId, false));
+    }
+
+    /**
+     * Move a read whose site failed to this site. This is only possible if
+     * the read lock can be granted and no version of the variable was
+     * committed here since the read happened, so the value read is still current.
+     * @param operation read operation served by the failed site
+     * @return true if the read lock is now held on this site
+     */
+    public boolean rerouteRead(Operation operation) {
+        int variableId = operation.getVariableId();
+        if (isFailed()
+                || !isVariableReadable(variableId)
+                || getLatestVersionTime(variableId) >= operation.getCurrentTime()
+                || lockManagerMap.containsKey(variableId) && !lockManagerMap.get(variableId).canGetReadLock(operation)) {
+            return false;
+        }
+        lockManager(variableId).acquireLock(operation);
+        putOperationInQueue(operation.getTransactionId(), operation);
+        return true;
+    }
+
     /**
      * Called when a site recovers
      */
@@ -109,28 +496,565 @@ public class Site {
         status = SiteStatus.RECOVERED;
     }
 
+    /**
+     * Check if this site is one of the sites of a variable: every site for an even
+     * id, one site for an odd id. The site may hold no copy yet if it was never written.
+     * @param variableId id of the variable
+     * @return true if reads and writes of the variable can go to this site
+     */
+    public boolean isReplicaOf(int variableId) {
+        return variableId > 0 && (variableId % 2 == 0 || id == 1 + variableId % 10);
+    }
+
+    /**
+     * Mark a replicated variable as created while this site was down, so its
+     * missing copy is unreadable until a write or catch-up creates it
+     * @param variableId id of the variable, held by some other site
+     */
+    public void markMissedVariable(int variableId) {
+        missedVariableSet.add(variableId);
+    }
+
+    /**
+     * Check if this site holds a copy of a variable, which it does once the variable is written
+     * @param variableId id of the variable
+     * @return true if the copy exists, even if it is deleted
+     */
     public boolean containsVariable(int variableId) {
-        return variableMap.containsKey(variableId);
+        return variableStore.containsVariable(variableId);
+    }
+
+    /**
+     * Check if the copy of a variable on this site can be read. A variable the
+     * site has no copy of reads as deleted, unless it was created by a write
+     * committed while the site was down.
+     * @param variableId id of the variable
+     * @return true if the site holds a readable copy, or knows there is none
+     */
+    public boolean isVariableReadable(int variableId) {
+        if (!variableStore.containsVariable(variableId)) {
+            return isReplicaOf(variableId) && (missedVariableSet.isEmpty() || !missedVariableSet.contains(variableId));
+        }
+        return variableStore.isReadable(variableId);
+    }
+
+    /**
+     * Check if some transaction holds a write lock on a variable in this site
+     * @param variableId id of the variable
+     * @return true if the variable is write locked
+     */
+    public boolean isVariableWriteLocked(int variableId) {
+        LockManager lockManager = lockManagerMap.get(variableId);
+        return isReplicaOf(variableId)
+                && (lockManager != null && lockManager.hasWriteLock()
+                    || hierarchicalLockManager != null && hierarchicalLockManager.isWriteCovered(variableId));
+    }
+
+    /**
+     * Get the commit sequence of this site, which grows by one with every
+     * commit or copy that changes its variables
+     * @return current commit sequence
+     */
+    public long getCommitSequence() {
+        return commitSequence;
+    }
+
+    /**
+     * Get the commit sequence at which the copy of a variable last changed
+     * @param variableId id of the variable
+     * @return last applied sequence of the variable, 0 if the site holds no copy
+     */
+    public long getLastAppliedSequence(int variableId) {
+        return variableStore.containsVariable(variableId) ? variableStore.getLastAppliedSequence(variableId) : 0;
+    }
+
+    /**
+     * Get the number of times this site failed, which tells if it stayed up over a period
+     * @return failure count
+     */
+    public int getFailureCount() {
+        return failureCount;
+    }
+
+    /**
+     * Check if the copy of a variable was already unreadable when the site last failed
+     * @param variableId id of the variable
+     * @return true if the copy was stale before the failure
+     */
+    public boolean wasStaleAtFailure(int variableId) {
+        return staleAtFailureSet.contains(variableId);
+    }
+
+    /**
+     * Mark the copy of a variable readable without copying anything, once it
+     * is known that no version was committed elsewhere since the site failed
+     * @param variableId id of the variable
+     */
+    public void confirmVariableCurrent(int variableId) {
+        variableStore.recover(variableId);
+    }
+
+    /**
+     * Get the variables whose copies became unreadable when the site failed
+     * @return ids of the unreadable variables in ascending order
+     */
+    public List<Integer> getUnreadableVariableIds() {
+        List<Integer> variableIds = new ArrayList<>();
+        for (int variableId : variableStore.getVariableIds()) {
+            if (!variableStore.isReadable(variableId)) {
+                variableIds.add(variableId);
+            }
+        }
+        variableIds.addAll(missedVariableSet);
+        Collections.sort(variableIds);
+        return variableIds;
+    }
+
+    /**
+     * Read the latest committed value of a variable without taking a lock
+     * @param operation read operation, which receives the committed value
+     */
+    public void readCommittedValue(Operation operation) {
+        if (!readTypedValue(operation, Long.MAX_VALUE)) {
+            operation.setReadValue(getVariableById(operation.getVariableId()));
+        }
+    }
+
+    /**
+     * Read the value of a variable as of a snapshot time without taking a lock
+     * @param operation read operation, which receives the value of the latest
+     *                  version committed at or before that time
+     * @param time snapshot time
+     */
+    public void readValueAt(Operation operation, long time) {
+        if (!readTypedValue(operation, time)) {
+            operation.setReadValue(readSnapshotValue(operation.getVariableId(), time));
+        }
     }
 
     /**
-     * Put operation in the storage queue for the transaction
+     * Get the commit time of the version of a variable visible at a snapshot time
+     * @param variableId id of the variable
+     * @param time snapshot time
+     * @return commit time of the latest version committed at or before that time,
+     *         0 if the site holds no copy, which reads as deleted since time 0
+     */
+    public long getVersionTimeAt(int variableId, long time) {
+        return variableStore.containsVariable(variableId) ? variableStore.getVersionTimeAt(variableId, time) : 0;
+    }
+
+    /**
+     * Get the commit time of the latest version of a variable in this site
+     * @param variableId id of the variable
+     * @return commit time of the latest version, 0 if the site holds no copy
+     */
+    public long getLatestVersionTime(int variableId) {
+        return variableStore.containsVariable(variableId) ? variableStore.getLatestVersionTime(variableId) : 0;
+    }
+
+    /**
+     * Get the committed versions of a variable newer than a given time
+     * @param variableId id of the variable
+     * @param time versions committed at or before this time are skipped
+     * @return versions keyed by commit time, empty if the site holds no copy
+     */
+    public NavigableMap<Long, Value> getCommittedVersionsAfter(int variableId, long time) {
+        if (!variableStore.containsVariable(variableId)) {
+            return new TreeMap<>();
+        }
+        return variableStore.getVersionsAfter(variableId, time);
+    }
+
+    /**
+     * Install committed versions copied from another site and mark the
+     * variable readable, since its copy is now current
+     * @param variableId id of the variable
+     * @param versions committed versions keyed by commit time
+     */
+    public void installCommittedVersions(int variableId, Map<Long, Value> versions) {
+        createVariableIfAbsent(variableId);
+        if (!versions.isEmpty()) {
+            commitSequence += 1;
+            variableStore.setLastAppliedSequence(variableId, commitSequence);
+        }
+        for (Map.Entry<Long, Value> version : versions.entrySet()) {
+            if (writeAheadLog != null) {
+                logVersion(variableId, version.getKey(), version.getValue());
+            }
+            restoreVersion(variableId, version.getKey(), version.getValue());
+        }
+        variableStore.recover(variableId);
+    }
+
+    /**
+     * Put operation in the storage queue for the transaction. The queue keeps
+     * one operation per variable: a write replaces the operation queued for
+     * its variable, so only the last write is committed, and a read of a
+     * variable already queued is dropped, since its lock is released either way.
+     * A queue holds at most one operation per variable of the site, so it is
+     * searched linearly.
      * @param transactionId id of the transaction
      * @param operation operation to be put into the queue
      */
     private void putOperationInQueue(int transactionId, Operation operation) {
-        if (!transactionOperationMap.containsKey(transactionId)) {
-            transactionOperationMap.put(transactionId, new ArrayList<>());
+        List<Operation> operations = transactionOperationMap.get(transactionId);
+        if (operations == null) {
+            operations = queuePool.obtain();
+            transactionOperationMap.put(transactionId, operations);
+        }
+        for (int i = 0; i < operations.size(); i++) {
+            if (operations.get(i).getVariableId() == operation.getVariableId()) {
+                if (operation.getType() == Operation.OperationType.WRITE) {
+                    operations.set(i, operation);
+                }
+                return;
+            }
         }
-        transactionOperationMap.get(transactionId).add(operation);
+        operations.add(operation);
+    }
+
+    /**
+     * Empty the queue of a finished transaction and keep it for reuse
+     * @param operations queue no longer in the map
+     */
+    private void releaseQueue(List<Operation> operations) {
+        operations.clear();
+        queuePool.release(operations);
     }
 
     private int getVariableById(int variableId) {
-        return variableMap.get(variableId).getValue();
+        return variableStore.getValue(variableId);
     }
 
     private void setVariableById(int variableId, int value, long updateTime) {
-        variableMap.get(variableId).updateValue(value, updateTime);
+        variableStore.updateValue(variableId, value, updateTime);
+        if (snapshotReadCache != null) {
+            snapshotReadCache.invalidate(variableId, updateTime);
+        }
+    }
+
+    /**
+     * Install the LONG, BYTES or DELETED value written by an operation
+     * @param operation write operation holding the value
+     * @param updateTime commit time of the value
+     */
+    private void setTypedVariable(Operation operation, long updateTime) {
+        variableStore.updateTypedValue(operation.getVariableId(), operation.getValueType(), operation.getLongValue(),
+                operation.getBytesValue(), updateTime);
+        if (snapshotReadCache != null) {
+            snapshotReadCache.invalidate(operation.getVariableId(), updateTime);
+        }
+    }
+
+    /**
+     * Read the version of a variable at a time into an operation if it is a LONG, BYTES
+     * or DELETED value, which is also what a variable without a copy reads as. Such values
+     * are not cached, so the snapshot read cache only holds INT values.
+     * @param operation read operation, which receives the value
+     * @param time snapshot time, Long.MAX_VALUE for the current value
+     * @return true if the version is typed and was read, false if it is an INT
+     */
+    private boolean readTypedValue(Operation operation, long time) {
+        int variableId = operation.getVariableId();
+        if (!variableStore.containsVariable(variableId)) {
+            operation.setTypedValue(Value.Type.DELETED, 0, null);
+            return true;
+        }
+        if (!variableStore.hasTypedVersions(variableId)) {
+            return false;
+        }
+        Value.Type type = variableStore.getValueTypeAt(variableId, time);
+        switch (type) {
+            case INT:
+                return false;
+            case LONG:
+                operation.setTypedValue(type, variableStore.getLongValueAt(variableId, time), null);
+                break;
+            case BYTES:
+                operation.setTypedValue(type, 0, variableStore.getBytesValueAt(variableId, time));
+                break;
+            default:
+                operation.setTypedValue(type, 0, null);
+        }
+        return true;
+    }
+
+    /**
+     * Check if the current version of a variable held by this site is a delete
+     * @param variableId id of the variable
+     * @return true if deleted
+     */
+    private boolean isDeleted(int variableId) {
+        return variableStore.hasTypedVersions(variableId)
+                && variableStore.getValueTypeAt(variableId, Long.MAX_VALUE) == Value.Type.DELETED;
+    }
+
+    /**
+     * Create the copy of a variable for its first write, copy or replayed version. Its only
+     * version is a delete at time 0, so snapshot reads from before the write do not find it.
+     * @param variableId id of the variable
+     */
+    private void createVariableIfAbsent(int variableId) {
+        if (!variableStore.containsVariable(variableId)) {
+            variableStore.addVariable(variableId, 0);
+            variableStore.restoreVersion(variableId, Value.ofDeleted(), 0);
+            missedVariableSet.remove(variableId);
+        }
+    }
+
+    /**
+     * Get the lock manager of a variable, creating it when a lock is acquired.
+     * A variable without one holds no lock.
+     * @param variableId id of the variable
+     * @return lock manager
+     */
+    private LockManager lockManager(int variableId) {
+        LockManager lockManager = lockManagerMap.get(variableId);
+        if (lockManager == null) {
+            lockManager = lockManagerPool.obtain().reset(variableId);
+            lockManagerMap.put(variableId, lockManager);
+        }
+        return lockManager;
+    }
+
+    /**
+     * Check if a lock manager can be dropped: it holds no lock, and saw no
+     * contention the hot key report would need. Its counters are kept in
+     * the site totals and it goes back to the pool.
+     * @param lockManager lock manager
+     * @return true if the caller should remove it from lockManagerMap
+     */
+    private boolean dropIfIdle(LockManager lockManager) {
+        if (!lockManager.isEmpty() || lockManager.getConflictCount() > 0 || lockManager.getWaitHistogram() != null) {
+            return false;
+        }
+        releasedAcquireCount += lockManager.getAcquireCount();
+        releasedUpgradeCount += lockManager.getUpgradeCount();
+        lockManagerPool.release(lockManager);
+        return true;
+    }
+
+    /**
+     * Format the current value of a variable as dumps print it
+     * @param variableId id of the variable
+     * @return text of the value
+     */
+    private String formatVariable(int variableId) {
+        if (variableStore.hasTypedVersions(variableId)) {
+            Value.Type type = variableStore.getValueTypeAt(variableId, Long.MAX_VALUE);
+            if (type == Value.Type.LONG) {
+                return Long.toString(variableStore.getLongValueAt(variableId, Long.MAX_VALUE));
+            } else if (type == Value.Type.BYTES) {
+                return Value.format(type, 0, variableStore.getBytesValueAt(variableId, Long.MAX_VALUE));
+            }
+        }
+        return Integer.toString(getVariableById(variableId));
+    }
+
+    /**
+     * Read the value of a variable as of a snapshot time, through the cache if there is one
+     * @param variableId id of the variable
+     * @param time snapshot time
+     * @return value of the latest version committed at or before that time
+     */
+    private int readSnapshotValue(int variableId, long time) {
+        if (snapshotReadCache == null) {
+            return variableStore.getValueAt(variableId, time);
+        }
+        Integer value = snapshotReadCache.get(variableId, time);
+        if (value == null) {
+            value = variableStore.getValueAt(variableId, time);
+            snapshotReadCache.put(variableId, time, value);
+        }
+        return value;
+    }
+
+    /**
+     * Restore a committed version read back from a snapshot or the log
+     * @param variableId id of the variable
+     * @param updateTime commit time of the version
+     * @param value committed value
+     */
+    private void restoreVersion(int variableId, long updateTime, int value) {
+        if (isReplicaOf(variableId)) {
+            createVariableIfAbsent(variableId);
+            variableStore.restoreVersion(variableId, value, updateTime);
+            if (snapshotReadCache != null) {
+                snapshotReadCache.invalidate(variableId, updateTime);
+            }
+            lastCommitTime = Math.max(lastCommitTime, updateTime);
+        }
+    }
+
+    /**
+     * Restore a committed version of any type read back from a snapshot, the log or another site
+     * @param variableId id of the variable
+     * @param updateTime commit time of the version
+     * @param value committed value
+     */
+    private void restoreVersion(int variableId, long updateTime, Value value) {
+        if (isReplicaOf(variableId)) {
+            createVariableIfAbsent(variableId);
+            variableStore.restoreVersion(variableId, value, updateTime);
+            if (snapshotReadCache != null) {
+                snapshotReadCache.invalidate(variableId, updateTime);
+            }
+            lastCommitTime = Math.max(lastCommitTime, updateTime);
+        }
+    }
+
+    /**
+     * Append a version copied from another site to the write-ahead log
+     * @param variableId id of the variable
+     * @param updateTime commit time of the version
+     * @param value committed value
+     */
+    private void logVersion(int variableId, long updateTime, Value value) {
+        try {
+            writeAheadLog.beginRecord(updateTime, -1, 1);
+            if (value.getType() == Value.Type.INT) {
+                writeAheadLog.appendWrite(variableId, (int) value.getNumber());
+            } else {
+                writeAheadLog.appendTypedWrite(variableId, value.getType(), value.getNumber(), value.getBytes());
+            }
+            writeAheadLog.endRecord();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot log copied version of x" + variableId + " on site " + id, e);
+        }
+    }
+
+    /**
+     * Start a checkpoint at a fresh log segment
+     */
+    private void startCheckpoint() {
+        try {
+            checkpointer.start(writeAheadLog.rollSegment(), variableStore.getVariableIds());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot start checkpoint of site " + id, e);
+        }
+    }
+
+    /**
+     * Append the writes queued by a committing transaction to the write-ahead log
+     * @param transactionId id of the transaction
+     * @param operations queue of the transaction, one operation per variable
+     * @param writeCount number of writes in the queue
+     * @param commitTime commit time of the transaction
+     */
+    private void logWrites(int transactionId, List<Operation> operations, int writeCount, long commitTime) {
+        try {
+            writeAheadLog.beginRecord(commitTime, transactionId, writeCount);
+            for (int i = 0; i < operations.size(); i++) {
+                Operation operation = operations.get(i);
+                if (operation.getType() != Operation.OperationType.WRITE) {
+                    continue;
+                }
+                if (operation.isTyped()) {
+                    writeAheadLog.appendTypedWrite(operation.getVariableId(), operation.getValueType(),
+                            operation.getLongValue(), operation.getBytesValue());
+                } else {
+                    writeAheadLog.appendWrite(operation.getVariableId(), operation.getValue());
+                }
+            }
+            writeAheadLog.endRecord();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot log commit of T" + transactionId + " on site " + id, e);
+        }
+        countCommitForCheckpoint();
+    }
+
+    /**
+     * Append the final writes of a committing transaction to the write-ahead log
+     * @param transactionId id of the transaction
+     * @param writes <key: Variable id, val: committed value> held by this site
+     * @param typedWrites <key: Variable id, val: write operation> of the LONG and BYTES writes, or null
+     * @param commitTime commit time of the transaction
+     */
+    private void logWrites(int transactionId, IntIntMap writes, IntObjectMap<Operation> typedWrites, long commitTime) {
+        try {
+            writeAheadLog.beginRecord(commitTime, transactionId, writes.size());
+            for (int i = 0; i < writes.size(); i++) {
+                Operation typedWrite = typedWrites == null ? null : typedWrites.get(writes.keyAt(i));
+                if (typedWrite != null) {
+                    writeAheadLog.appendTypedWrite(writes.keyAt(i), typedWrite.getValueType(),
+                            typedWrite.getLongValue(), typedWrite.getBytesValue());
+                } else {
+                    writeAheadLog.appendWrite(writes.keyAt(i), writes.valueAt(i));
+                }
+            }
+            writeAheadLog.endRecord();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot log commit of T" + transactionId + " on site " + id, e);
+        }
+        countCommitForCheckpoint();
+    }
+
+    /**
+     * Count a logged commit and start a checkpoint when one is due
+     */
+    private void countCommitForCheckpoint() {
+        if (checkpointer != null) {
+            checkpointer.recordCommit();
+            if (checkpointer.isDue()) {
+                startCheckpoint();
+            }
+        }
+    }
+
+    /**
+     * Check if the site and range locks of other transactions allow the lock an operation needs
+     * @param operation operation to be checked
+     * @return true if allowed, or if hierarchical locking is off
+     */
+    private boolean canLockCoarse(Operation operation) {
+        return hierarchicalLockManager == null
+                || hierarchicalLockManager.canLockVariable(operation.getTransactionId(), operation.getVariableId(),
+                        operation.getType() == Operation.OperationType.WRITE);
+    }
+
+    /**
+     * Acquire the lock an operation needs. With hierarchical locking the
+     * intention locks are taken first, no variable lock is taken if a site
+     * lock of the transaction covers it, and the transaction is escalated
+     * once it holds enough variable locks.
+     * @param operation operation that acquires the lock
+     */
+    private void acquireLock(Operation operation) {
+        if (hierarchicalLockManager == null) {
+            lockManager(operation.getVariableId()).acquireLock(operation);
+            return;
+        }
+        int transactionId = operation.getTransactionId();
+        int variableId = operation.getVariableId();
+        boolean write = operation.getType() == Operation.OperationType.WRITE;
+        hierarchicalLockManager.lockIntention(transactionId, variableId, write);
+        if (hierarchicalLockManager.covers(transactionId, variableId, write)) {
+            return;
+        }
+        LockManager lockManager = lockManager(variableId);
+        boolean newLock = !lockManager.holdsLock(transactionId);
+        lockManager.acquireLock(operation);
+        if (newLock && hierarchicalLockManager.recordVariableLock(transactionId)) {
+            escalate(transactionId);
+        }
+    }
+
+    /**
+     * Replace the variable locks of a transaction by one site lock, if no other transaction prevents it
+     * @param transactionId id of the transaction
+     */
+    private void escalate(int transactionId) {
+        boolean write = false;
+        lockManagerMap.copyValuesTo(lockManagerList);
+        for (LockManager lockManager : lockManagerList) {
+            if (lockManager.holdsWriteLock(transactionId)) {
+                write = true;
+                break;
+            }
+        }
+        if (hierarchicalLockManager.escalate(transactionId, write)) {
+            releaseLocks(transactionId);
+        }
     }
 
     /**
@@ -145,9 +1069,12 @@ public class Site {
             return false;
         }
         if (isRecovered()) {
-            return variableMap.containsKey(variableId) && variableMap.get(variableId).isReadable();
+            return isVariableReadable(variableId);
         }
-        return variableMap.containsKey(variableId) && lockManagerMap.get(variableId).canGetReadLock(operation);
+        LockManager lockManager = lockManagerMap.get(variableId);
+        return isReplicaOf(variableId)
+                && (lockManager == null || lockManager.canGetReadLock(operation))
+                && canLockCoarse(operation);
     }
 
     /**
@@ -159,10 +1086,10 @@ public class Site {
         if (getStatus() == SiteStatus.FAILED) {
             return false;
         }
-        int variableId = operation.getVariableId();
-
-        return variableMap.containsKey(operation.getVariableId())
-                && lockManagerMap.get(operation.getVariableId()).canGetWriteLock(operation);
+        LockManager lockManager = lockManagerMap.get(operation.getVariableId());
+        return isReplicaOf(operation.getVariableId())
+                && (lockManager == null || lockManager.canGetWriteLock(operation))
+                && canLockCoarse(operation);
     }
 
     /**
@@ -173,8 +1100,8 @@ public class Site {
     public boolean initialWriteAfterRecover(Operation operation) {
         int variableId = operation.getVariableId();
         if (status == SiteStatus.RECOVERED
-                && variableMap.containsKey(operation.getVariableId())
-                && !variableMap.get(variableId).isReadable()) {
+                && isReplicaOf(variableId)
+                && !isVariableReadable(variableId)) {
             return true;
         } else {
             return false;
@@ -191,9 +1118,11 @@ public class Site {
             return false;
         }
 
+        LockManager lockManager = lockManagerMap.get(operation.getVariableId());
         return getStatus() == SiteStatus.RUNNING
-                && variableMap.containsKey(operation.getVariableId())
-                && lockManagerMap.get(operation.getVariableId()).isLockedByOtherTransaction(operation.getTransactionId());
+                && isReplicaOf(operation.getVariableId())
+                && (lockManager != null && lockManager.isLockedByOtherTransaction(operation.getTransactionId())
+                    || !canLockCoarse(operation));
     }
 
     /**
@@ -202,14 +1131,11 @@ public class Site {
      * @return value of the variable
      */
     public int readVariableRW(Operation operation) {
-        LockManager lockManager = lockManagerMap.get(operation.getVariableId());
-
-        lockManager.acquireLock(operation);
-        int value = getVariableById(operation.getVariableId());
-        operation.setReadValue(value);
+        acquireLock(operation);
+        readCommittedValue(operation);
         putOperationInQueue(operation.getTransactionId(), operation);
 
-        return value;
+        return operation.getValue();
     }
 
     /**
@@ -218,8 +1144,7 @@ public class Site {
      * @return value of the variable
      */
     public void writeVariableRW(Operation operation) {
-        LockManager lockManager = lockManagerMap.get(operation.getVariableId());
-        lockManager.acquireLock(operation);
+        acquireLock(operation);
         putOperationInQueue(operation.getTransactionId(), operation);
 
     }
@@ -235,66 +1160,161 @@ public class Site {
         if (isFailed()) {
             return false;
         }
-        return variableMap.containsKey(variableId) && variableMap.get(variableId).isReadable();
+        return isVariableReadable(variableId);
     }
 
     /**
-     * Perform a read in a read-only transaction
+     * Perform a read in a read-only transaction. The read takes no lock and is not
+     * queued, since read-only transactions have nothing to commit on the site
      * @param operation operation that issues the read
      * @return value of the variable
      */
     public int readVariableRO(Operation operation) {
         // for read-only transactions the read operation current time should set to transaction birth time
         // because it should read the value as if the value when the transaction was constructed
-        Variable variable = variableMap.get(operation.getVariableId());
-        int value = variableMap.get(operation.getVariableId()).getValueBeforeTime(operation.getCurrentTime());
-        operation.setReadValue(value);
-        putOperationInQueue(operation.getTransactionId(), operation);
-        return value;
+        readValueAt(operation, operation.getCurrentTime());
+        return operation.getValue();
     }
 
     /**
      * Commit the transaction in the site
      * @param transaction transaction to be committed
+     * @param commitTime time of the commit
      * @return true if commit succeeds, false otherwise
      */
-    public boolean commitTransaction(Transaction transaction) {
+    public boolean commitTransaction(Transaction transaction, long commitTime) {
         if (status == SiteStatus.FAILED) {
             return false;
         }
         int transactionId = transaction.getId();
-        if (!transactionOperationMap.containsKey(transactionId)) {
+        List<Operation> operations = transactionOperationMap.remove(transactionId);
+        if (operations == null) {
             return true;
         }
-        List<Operation> operations = transactionOperationMap.get(transactionId);
+        // the queue holds one operation per variable, so each lock is released once
+        int writeCount = 0;
+        for (int i = 0; i < operations.size(); i++) {
+            Operation operation = operations.get(i);
+            if (operation.getType() == Operation.OperationType.WRITE) {
+                writeCount += 1;
+                // created before logging, so that a checkpoint started by this commit includes it
+                createVariableIfAbsent(operation.getVariableId());
+            } else if (transaction.getType() == Transaction.TransactionType.READ_WRITE) {
+                releaseLock(operation.getVariableId(), transactionId);
+            }
+        }
 
-        for (Operation operation : operations) {
-            int variableId = operation.getVariableId();
-            int value = operation.getValue();
-            if (operation.getType() == Operation.OperationType.READ) {
-                if (transaction.getType() == Transaction.TransactionType.READ_WRITE) {
-                    lockManagerMap.get(variableId).releaseLockByTransactionId(transactionId);
+        if (writeCount > 0) {
+            if (writeAheadLog != null) {
+                logWrites(transactionId, operations, writeCount, commitTime);
+            }
+            commitSequence += 1;
+            for (int i = 0; i < operations.size(); i++) {
+                Operation operation = operations.get(i);
+                if (operation.getType() == Operation.OperationType.WRITE) {
+                    if (operation.isTyped()) {
+                        setTypedVariable(operation, commitTime);
+                    } else {
+                        setVariableById(operation.getVariableId(), operation.getValue(), commitTime);
+                    }
+                    variableStore.setLastAppliedSequence(operation.getVariableId(), commitSequence);
+                    releaseLock(operation.getVariableId(), transactionId);
                 }
-            } else {
-                setVariableById(variableId, value, operation.getCurrentTime());
-                lockManagerMap.get(variableId).releaseLockByTransactionId(transactionId);
             }
+            lastCommitTime = Math.max(lastCommitTime, commitTime);
         }
 
-        transactionOperationMap.remove(transactionId);
+        releaseQueue(operations);
+        if (hierarchicalLockManager != null) {
+            hierarchicalLockManager.releaseLockByTransactionId(transactionId);
+        }
         return true;
     }
 
+    /**
+     * Install the buffered writes of a validated transaction in one step.
+     * Used by the concurrency control modes that do not queue operations on sites.
+     * @param transactionId id of the transaction
+     * @param writes <key: Variable id, val: final value> written by the transaction
+     * @param typedWrites <key: Variable id, val: write operation> of the writes in writes whose
+     *                    final value is a LONG or BYTES value, or null if there is none
+     * @param commitTime commit time of the transaction
+     * @return true if the writes are installed, false if the site is down
+     */
+    public boolean installWrites(int transactionId, IntIntMap writes, IntObjectMap<Operation> typedWrites,
+                                 long commitTime) {
+        if (isFailed()) {
+            return false;
+        }
+        localWrites.clear();
+        for (int i = 0; i < writes.size(); i++) {
+            if (isReplicaOf(writes.keyAt(i))) {
+                localWrites.put(writes.keyAt(i), writes.valueAt(i));
+                createVariableIfAbsent(writes.keyAt(i));
+            }
+        }
+        if (localWrites.isEmpty()) {
+            return true;
+        }
+        if (writeAheadLog != null) {
+            logWrites(transactionId, localWrites, typedWrites, commitTime);
+        }
+        commitSequence += 1;
+        for (int i = 0; i < localWrites.size(); i++) {
+            Operation typedWrite = typedWrites == null ? null : typedWrites.get(localWrites.keyAt(i));
+            if (typedWrite != null) {
+                setTypedVariable(typedWrite, commitTime);
+            } else {
+                setVariableById(localWrites.keyAt(i), localWrites.valueAt(i), commitTime);
+            }
+            variableStore.setLastAppliedSequence(localWrites.keyAt(i), commitSequence);
+        }
+        lastCommitTime = Math.max(lastCommitTime, commitTime);
+        return true;
+    }
+
+    /**
+     * Release the lock of a transaction on a variable, if it holds one, and
+     * drop the lock manager of the variable once it is idle
+     * @param variableId id of the variable
+     * @param transactionId id of the transaction
+     */
+    private void releaseLock(int variableId, int transactionId) {
+        LockManager lockManager = lockManagerMap.get(variableId);
+        if (lockManager != null) {
+            lockManager.releaseLockByTransactionId(transactionId);
+            if (dropIfIdle(lockManager)) {
+                lockManagerMap.remove(variableId);
+            }
+        }
+    }
+
+    /**
+     * Release every variable lock of a transaction in this site, dropping the lock managers left idle
+     * @param transactionId id of the transaction
+     */
+    private void releaseLocks(int transactionId) {
+        lockManagerMap.copyValuesTo(lockManagerList);
+        for (LockManager lockManager : lockManagerList) {
+            lockManager.releaseLockByTransactionId(transactionId);
+            if (dropIfIdle(lockManager)) {
+                lockManagerMap.remove(lockManager.getVariableId());
+            }
+        }
+    }
+
     /**
      * Abort the transaction
      * @param transactionId id of the transaction to be aborted
      */
     public void abortTransaction(int transactionId) {
-        for (int i : lockManagerMap.keySet()) {
-            lockManagerMap.get(i).releaseLockByTransactionId(transactionId);
+        releaseLocks(transactionId);
+        if (hierarchicalLockManager != null) {
+            hierarchicalLockManager.releaseLockByTransactionId(transactionId);
         }
-        if (transactionOperationMap.containsKey(transactionId)) {
-            transactionOperationMap.remove(transactionId);
+        List<Operation> operations = transactionOperationMap.remove(transactionId);
+        if (operations != null) {
+            releaseQueue(operations);
         }
     }
 }
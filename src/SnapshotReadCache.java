@@ -0,0 +1,144 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class caches resolved snapshot reads of a single site,
+ * keyed by variable and snapshot time, and evicts the least
+ * recently used entry once full. Committed versions never change,
+ * so an entry only becomes stale when a version is installed with
+ * a commit time at or before its snapshot time, which happens when
+ * versions are restored or copied from another site; ordinary
+ * commits are newer than every snapshot already read.
+ *
+ * Updated: 10/18/2026
+ */
+public class SnapshotReadCache {
+
+    private static final int VARIABLE_BITS = 24; // low bits of a key hold the variable id
+    private static final long VARIABLE_MASK = (1L << VARIABLE_BITS) - 1;
+
+    private final int capacity; // maximum number of entries
+    private final LinkedHashMap<Long, Integer> entryMap; // <key: snapshot time and Variable id, val: value>, in access order
+    private long maxSnapshotTime; // largest snapshot time cached, to skip invalidation of newer versions
+    private long hitCount; // lookups answered by the cache
+    private long missCount; // lookups that had to search the versions
+    private long evictionCount; // entries dropped to stay within capacity
+    private long invalidationCount; // entries dropped because an older version was installed
+
+    public SnapshotReadCache(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        this.entryMap = new LinkedHashMap<Long, Integer>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Integer> eldest) {
+                if (size() > SnapshotReadCache.this.capacity) {
+                    evictionCount += 1;
+                    return true;
+                }
+                return false;
+            }
+        };
+        this.maxSnapshotTime = -1;
+    }
+
+    /**
+     * Look up a resolved snapshot read.
+     * @param variableId
+     * @param snapshotTime
+     * @return cached value, or null on a miss
+     */
+    public Integer get(int variableId, long snapshotTime) {
+        Integer value = isCacheable(variableId, snapshotTime) ? entryMap.get(toKey(variableId, snapshotTime)) : null;
+        if (value == null) {
+            missCount += 1;
+        } else {
+            hitCount += 1;
+        }
+        return value;
+    }
+
+    /**
+     * Remember a resolved snapshot read.
+     * @param variableId
+     * @param snapshotTime
+     * @param value - value of the version visible at the snapshot time
+     */
+    public void put(int variableId, long snapshotTime, int value) {
+        if (!isCacheable(variableId, snapshotTime)) {
+            return;
+        }
+        entryMap.put(toKey(variableId, snapshotTime), value);
+        maxSnapshotTime = Math.max(maxSnapshotTime, snapshotTime);
+    }
+
+    /**
+     * Drop the entries of a variable that a newly installed version may change.
+     * @param variableId
+     * @param versionTime - commit time of the installed version
+     */
+    public void invalidate(int variableId, long versionTime) {
+        if (versionTime > maxSnapshotTime) {
+            return;
+        }
+        Iterator<Long> keys = entryMap.keySet().iterator();
+        while (keys.hasNext()) {
+            long key = keys.next();
+            if ((key & VARIABLE_MASK) == variableId && (key >>> VARIABLE_BITS) >= versionTime) {
+                keys.remove();
+                invalidationCount += 1;
+            }
+        }
+    }
+
+    /**
+     * Get the number of lookups answered by the cache.
+     * @return hit count
+     */
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Get the number of lookups that missed.
+     * @return miss count
+     */
+    public long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Get the number of entries evicted to stay within capacity.
+     * @return eviction count
+     */
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * Get the number of entries dropped by invalidation.
+     * @return invalidation count
+     */
+    public long getInvalidationCount() {
+        return invalidationCount;
+    }
+
+    /**
+     * Check if a read fits in a key.
+     * @param variableId
+     * @param snapshotTime
+     * @return true if it can be cached
+     */
+    private static boolean isCacheable(int variableId, long snapshotTime) {
+        return variableId >= 0 && variableId <= VARIABLE_MASK && snapshotTime >= 0 && snapshotTime >>> (63 - VARIABLE_BITS) == 0;
+    }
+
+    /**
+     * Pack a variable id and a snapshot time into a key.
+     * @param variableId
+     * @param snapshotTime
+     * @return key
+     */
+    private static long toKey(int variableId, long snapshotTime) {
+        return snapshotTime << VARIABLE_BITS | variableId;
+    }
+}
@@ -0,0 +1,215 @@
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * This class records the lifecycle of transactions and their
+ * operations in a preallocated ring buffer: every event is a
+ * few array stores and nothing is allocated while recording.
+ * Once the buffer is full the oldest events are overwritten.
+ * The buffer is exported in the Chrome trace event format, with
+ * one timeline per transaction, so it can be opened in
+ * chrome://tracing or Perfetto.
+ *
+ * Updated: 10/18/2026
+ */
+public class TraceRecorder {
+
+    public enum Event {
+        BEGIN, // transaction began
+        SUBMIT, // operation issued
+        BLOCK, // operation put in the waitlist
+        GRANT, // operation left the waitlist
+        EXECUTE, // operation executed on the sites in the site mask
+        END, // end command issued
+        COMMIT, // transaction committed
+        ABORT, // transaction aborted, with a reason
+    }
+
+    private static final long MICROS_PER_TICK = 1000; // a logical tick is drawn as one millisecond
+
+    private final int capacity; // number of events kept
+    private final byte[] events; // Event ordinal
+    private final long[] ticks; // logical time
+    private final long[] nanos; // wall clock time
+    private final int[] transactionIds; // transaction id
+    private final byte[] operationTypes; // 0 for none, 1 for read, 2 for write
+    private final int[] variableIds; // variable id, 0 for none
+    private final int[] siteMasks; // bit i set if site i took part
+    private final byte[] reasons; // abort reason ordinal, -1 for none
+    private long recordedCount; // events recorded, including overwritten ones
+
+    public TraceRecorder(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        this.events = new byte[this.capacity];
+        this.ticks = new long[this.capacity];
+        this.nanos = new long[this.capacity];
+        this.transactionIds = new int[this.capacity];
+        this.operationTypes = new byte[this.capacity];
+        this.variableIds = new int[this.capacity];
+        this.siteMasks = new int[this.capacity];
+        this.reasons = new byte[this.capacity];
+        this.recordedCount = 0;
+    }
+
+    /**
+     * Record a transaction event.
+     * @param event - BEGIN, END or COMMIT
+     * @param tick - logical time
+     * @param transactionId
+     */
+    public void record(Event event, long tick, int transactionId) {
+        record(event, tick, transactionId, null, 0, null);
+    }
+
+    /**
+     * Record an event.
+     * @param event - kind of event
+     * @param tick - logical time
+     * @param transactionId
+     * @param operation - operation concerned, or null
+     * @param siteMask - sites that took part, bit i for site i
+     * @param reason - abort reason, or null
+     */
+    public void record(Event event, long tick, int transactionId, Operation operation, int siteMask,
+                       TransactionManager.AbortReason reason) {
+        int slot = (int) (recordedCount % capacity);
+        events[slot] = (byte) event.ordinal();
+        ticks[slot] = tick;
+        nanos[slot] = System.nanoTime();
+        transactionIds[slot] = transactionId;
+        operationTypes[slot] = operation == null ? 0
+                : operation.getType() == Operation.OperationType.READ ? (byte) 1 : (byte) 2;
+        variableIds[slot] = operation == null ? 0 : operation.getVariableId();
+        siteMasks[slot] = siteMask;
+        reasons[slot] = reason == null ? -1 : (byte) reason.ordinal();
+        recordedCount += 1;
+    }
+
+    /**
+     * Get the number of events recorded, including the ones overwritten.
+     * @return recorded count
+     */
+    public long getRecordedCount() {
+        return recordedCount;
+    }
+
+    /**
+     * Write the events kept in the buffer as a Chrome trace JSON document.
+     * Each transaction is a thread whose span runs from begin to commit or
+     * abort, with nested spans while an operation waits in the waitlist.
+     * A transaction whose begin was overwritten gets no span, so every
+     * end written has its begin.
+     * @param out - stream receiving the document
+     */
+    public void writeChromeTrace(PrintStream out) {
+        long first = Math.max(0, recordedCount - capacity);
+        long startNanos = recordedCount == 0 ? 0 : nanos[(int) (first % capacity)];
+        Map<Integer, Integer> openWaitMap = new HashMap<>(); // <key: Transaction id, val: waits not granted yet>
+        Set<Integer> openTransactionSet = new HashSet<>(); // transactions begun in the exported events and not ended yet
+        out.println("{\"displayTimeUnit\": \"ms\", \"traceEvents\": [");
+        boolean firstEvent = true;
+        for (long i = first; i < recordedCount; i++) {
+            int slot = (int) (i % capacity);
+            Event event = Event.values()[events[slot]];
+            int transactionId = transactionIds[slot];
+            String args = formatArgs(slot, startNanos);
+            String operationName = formatOperation(slot);
+            switch (event) {
+                case BEGIN:
+                    openTransactionSet.add(transactionId);
+                    firstEvent = writeEvent(out, firstEvent, "T" + transactionId, "B", slot, args);
+                    break;
+                case BLOCK:
+                    openWaitMap.merge(transactionId, 1, Integer::sum);
+                    firstEvent = writeEvent(out, firstEvent, "wait " + operationName, "B", slot, args);
+                    break;
+                case GRANT:
+                    if (openWaitMap.getOrDefault(transactionId, 0) > 0) {
+                        openWaitMap.merge(transactionId, -1, Integer::sum);
+                        firstEvent = writeEvent(out, firstEvent, "wait " + operationName, "E", slot, args);
+                    }
+                    break;
+                case COMMIT:
+                case ABORT:
+                    for (int open = openWaitMap.getOrDefault(transactionId, 0); open > 0; open--) {
+                        firstEvent = writeEvent(out, firstEvent, "wait", "E", slot, "{}");
+                    }
+                    openWaitMap.remove(transactionId);
+                    firstEvent = writeEvent(out, firstEvent, event.name().toLowerCase(), "i", slot, args);
+                    if (openTransactionSet.remove(transactionId)) {
+                        firstEvent = writeEvent(out, firstEvent, "T" + transactionId, "E", slot, "{}");
+                    }
+                    break;
+                default:
+                    String name = event.name().toLowerCase() + (operationName.isEmpty() ? "" : " " + operationName);
+                    firstEvent = writeEvent(out, firstEvent, name, "i", slot, args);
+                    break;
+            }
+        }
+        out.println();
+        out.println("]}");
+    }
+
+    /**
+     * Write one trace event.
+     * @param out - stream receiving the event
+     * @param firstEvent - true if no event was written yet
+     * @param name - event name
+     * @param phase - Chrome trace phase: B, E or i
+     * @param slot - buffer slot of the recorded event
+     * @param args - JSON object of extra fields
+     * @return false, the value of firstEvent for the next event
+     */
+    private boolean writeEvent(PrintStream out, boolean firstEvent, String name, String phase, int slot, String args) {
+        if (!firstEvent) {
+            out.println(",");
+        }
+        out.format("{\"name\": \"%s\", \"ph\": \"%s\", \"ts\": %s, \"pid\": 1, \"tid\": %s%s, \"args\": %s}",
+                name, phase, ticks[slot] * MICROS_PER_TICK, transactionIds[slot],
+                phase.equals("i") ? ", \"s\": \"t\"" : "", args);
+        return false;
+    }
+
+    /**
+     * Format the operation of an event as R x1 or W x1.
+     * @param slot - buffer slot
+     * @return operation name, empty if the event has no operation
+     */
+    private String formatOperation(int slot) {
+        if (operationTypes[slot] == 0) {
+            return "";
+        }
+        return (operationTypes[slot] == 1 ? "R x" : "W x") + variableIds[slot];
+    }
+
+    /**
+     * Format the extra fields of an event as a JSON object.
+     * @param slot - buffer slot
+     * @param startNanos - wall clock time of the oldest event kept
+     * @return JSON object
+     */
+    private String formatArgs(int slot, long startNanos) {
+        StringBuilder args = new StringBuilder("{\"tick\": ").append(ticks[slot]);
+        args.append(", \"wallMicros\": ").append((nanos[slot] - startNanos) / 1000);
+        if (siteMasks[slot] != 0) {
+            args.append(", \"sites\": \"");
+            boolean firstSite = true;
+            for (int siteId = 1; siteId < Integer.SIZE; siteId++) {
+                if ((siteMasks[slot] & (1 << siteId)) != 0) {
+                    args.append(firstSite ? "" : ",").append(siteId);
+                    firstSite = false;
+                }
+            }
+            args.append('"');
+        }
+        if (reasons[slot] >= 0) {
+            args.append(", \"reason\": \"")
+                    .append(TransactionManager.AbortReason.values()[reasons[slot]].name().toLowerCase())
+                    .append('"');
+        }
+        return args.append('}').toString();
+    }
+}
@@ -1,5 +1,7 @@
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 
 /**
@@ -24,7 +26,13 @@ public class Transaction {
     private boolean isAborted; // indicator for aborted status
     private boolean isCommittable; // indicator for commitable status
     private int pendingOperationCount; // pending operation count
+    private int executedOperationCount; // operations executed so far
     private List<Operation> operationList; // operation list
+    private List<Operation> issuedOperationList; // every operation issued, recycled once the transaction is finished
+    private Map<Integer, Long> readSet; // <key: Variable id, val: commit time of the version read>
+    private IntIntMap writeBuffer; // <key: Variable id, val: latest value written>
+    private IntObjectMap<Operation> typedWriteMap; // <key: Variable id, val: latest write if it is a LONG or BYTES value>, null until one
+    private IntIntMap readView; // <key: Variable id, val: value read that cannot change before the transaction ends>
 
     public Transaction(int id, TransactionType type, long birthTime) {
         this.id = id;
@@ -34,7 +42,12 @@ public class Transaction {
         this.isCommittable = false;
         this.isAborted = false;
         this.pendingOperationCount = 0;
+        this.executedOperationCount = 0;
         this.operationList = new ArrayList<>();
+        this.issuedOperationList = new ArrayList<>();
+        this.readSet = new HashMap<>();
+        this.writeBuffer = new IntIntMap();
+        this.readView = new IntIntMap();
     }
 
     /**
@@ -45,10 +58,19 @@ public class Transaction {
     }
 
     /**
-     * Decrement pending operation count.
+     * Decrement pending operation count once an operation is executed.
      */
     public void decreasePendingOperationCount() {
         this.pendingOperationCount -= 1;
+        this.executedOperationCount += 1;
+    }
+
+    /**
+     * Get the number of operations executed so far.
+     * @return executed operation count
+     */
+    public int getExecutedOperationCount() {
+        return executedOperationCount;
     }
 
     /**
@@ -124,6 +146,138 @@ public class Transaction {
         this.operationList.add(operation);
     }
 
+    /**
+     * Track an operation issued by the transaction, so it can be recycled when the transaction finishes.
+     * @param operation
+     */
+    public void addIssuedOperation(Operation operation) {
+        this.issuedOperationList.add(operation);
+    }
+
+    /**
+     * Move the issued operations to a list and forget them. Called once the
+     * transaction committed or aborted, when no queue refers to them any more.
+     * @param retiredOperations - list receiving the operations
+     */
+    public void drainIssuedOperations(List<Operation> retiredOperations) {
+        retiredOperations.addAll(issuedOperationList);
+        issuedOperationList.clear();
+        operationList.clear();
+    }
+
+    /**
+     * Remember the version seen by the first read of a variable.
+     * @param variableId
+     * @param versionTime - commit time of the version read
+     */
+    public void recordRead(int variableId, long versionTime) {
+        readSet.putIfAbsent(variableId, versionTime);
+    }
+
+    /**
+     * Get the versions read, used to validate the transaction at commit.
+     * @return <key: Variable id, val: commit time of the version read>
+     */
+    public Map<Integer, Long> getReadSet() {
+        return readSet;
+    }
+
+    /**
+     * Buffer a write until commit, replacing any earlier write of the same variable.
+     * @param variableId
+     * @param value
+     */
+    public void bufferWrite(int variableId, int value) {
+        writeBuffer.put(variableId, value);
+        if (typedWriteMap != null) {
+            typedWriteMap.remove(variableId);
+        }
+    }
+
+    /**
+     * Buffer a LONG, BYTES or DELETED write until commit, replacing any earlier write of the same variable.
+     * The variable stays in the write buffer, so the write set keeps its first-write order.
+     * @param operation - write operation holding the value, kept until the transaction ends
+     */
+    public void bufferTypedWrite(Operation operation) {
+        if (typedWriteMap == null) {
+            typedWriteMap = new IntObjectMap<>();
+        }
+        writeBuffer.put(operation.getVariableId(), 0);
+        typedWriteMap.put(operation.getVariableId(), operation);
+    }
+
+    /**
+     * Get the latest write of a variable if it is a LONG or BYTES value.
+     * @param variableId
+     * @return write operation, or null if the variable was not written or its latest write is an INT
+     */
+    public Operation getTypedWrite(int variableId) {
+        return typedWriteMap == null ? null : typedWriteMap.get(variableId);
+    }
+
+    /**
+     * Get the buffered writes whose latest value is a LONG or BYTES value.
+     * @return <key: Variable id, val: write operation>, or null if there never was one
+     */
+    public IntObjectMap<Operation> getTypedWrites() {
+        return typedWriteMap;
+    }
+
+    /**
+     * Check if the transaction has written a variable.
+     * @param variableId
+     * @return true if a write of the variable is buffered
+     */
+    public boolean hasBufferedWrite(int variableId) {
+        return writeBuffer.containsKey(variableId);
+    }
+
+    /**
+     * Get the latest value the transaction wrote to a variable.
+     * @param variableId
+     * @return buffered value
+     */
+    public int getBufferedWrite(int variableId) {
+        return writeBuffer.get(variableId, 0);
+    }
+
+    /**
+     * Get the buffered writes in first-write order.
+     * @return <key: Variable id, val: latest value written>
+     */
+    public IntIntMap getWriteBuffer() {
+        return writeBuffer;
+    }
+
+    /**
+     * Check if this transaction already read a variable, either from the snapshot
+     * of a read-only transaction or under a read lock it still holds.
+     * @param variableId
+     * @return true if a value read is cached
+     */
+    public boolean hasViewValue(int variableId) {
+        return readView.containsKey(variableId);
+    }
+
+    /**
+     * Get a value this transaction already read.
+     * @param variableId
+     * @return value read, valid only if hasViewValue is true
+     */
+    public int getViewValue(int variableId) {
+        return readView.get(variableId, 0);
+    }
+
+    /**
+     * Remember a value read that cannot change before this transaction ends.
+     * @param variableId
+     * @param value - value read
+     */
+    public void cacheReadValue(int variableId, int value) {
+        readView.put(variableId, value);
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -1,22 +1,67 @@
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
 
 public class TransactionManager {
 
-    private static final String WRITE_PREFIX = "W";
-    private static final String READ_PREFIX = "R";
-    private static final String BEGIN_PREFIX = "begin";
-    private static final String BEGIN_RO_PREFIX = "beginRO";
-    private static final String END_PREFIX = "end";
-    private static final String DUMP_PREFIX = "dump";
-    private static final String FAIL_PREFIX = "fail";
-    private static final String RECOVER_PREFIX = "recover";
+    public enum ConcurrencyControl {
+        LOCKING, // two-phase locking with deadlock detection
+        OPTIMISTIC, // lock-free reads and buffered writes, validated at commit
+        SNAPSHOT, // reads at birth time, first committer wins on write-write conflicts
+        SERIALIZABLE_SNAPSHOT, // snapshot isolation that also validates the read set at commit
+    }
+
+    public enum DeadlockPolicy {
+        DETECTION, // build a waits-for graph and abort the youngest deadlocked transaction
+        WAIT_DIE, // an older transaction waits for a younger one, a younger one aborts instead of waiting
+        WOUND_WAIT, // an older transaction aborts the younger ones it waits for, a younger one waits
+    }
+
+    public enum VictimPolicy {
+        YOUNGEST, // the youngest transaction left by the detection sweep
+        YOUNGEST_IN_CYCLE, // the youngest transaction on each cycle
+        LEAST_WORK, // the transaction on each cycle whose abort loses the least work
+    }
+
+    public enum FailureMode {
+        ABORT_ALL, // abort every transaction that accessed the failed site
+        SELECTIVE, // abort only transactions whose work on the failed site cannot be kept elsewhere
+    }
+
+    public enum AbortReason {
+        DEADLOCK, // chosen as victim by deadlock detection
+        WAIT_DIE, // younger than a transaction it had to wait for
+        WOUND_WAIT, // wounded by an older transaction waiting for it
+        SITE_FAILURE, // accessed a site that failed
+        VALIDATION, // failed validation at commit under optimistic or snapshot concurrency control
+    }
+
+    /**
+     * The commit sequence and failure count of an available site at the
+     * moment another site failed.
+     */
+    private static class FailurePoint {
+
+        private final long commitSequence; // commit sequence of the available site
+        private final int failureCount; // failure count of the available site
+
+        public FailurePoint(long commitSequence, int failureCount) {
+            this.commitSequence = commitSequence;
+            this.failureCount = failureCount;
+        }
+    }
+
+    private static final int DEFAULT_HOT_KEY_COUNT = 10;
 
-    private static final int VARIABLE_COUNT = 20;
     private static final int SITE_COUNT = 10;
+    private static final int PLACEMENT_PERIOD = 20; // ids that differ by a multiple of this have copies on the same sites
 
     private boolean debugMode = false;
 
@@ -27,9 +72,42 @@ public class TransactionManager {
     private List<Operation> operationWaitlist;
     private DeadlockManager deadlockManager;
     private Set<Integer> abortedTransactionSet;
-    private Map<Integer, List<Integer>> variableVisitedTransactionMap;
-    private Map<Integer, List<Operation>> variableWaitlistMap;
+    private Map<Integer, List<Integer>> variableVisitedTransactionMap; // lists are added when needed and dropped once empty
+    private Map<Integer, List<Operation>> variableWaitlistMap; // lists are added when needed and dropped once empty
+    private final ObjectPool<List<Integer>> visitedListPool; // dropped visited lists, reused for other variables
+    private final ObjectPool<List<Operation>> waitlistPool; // dropped waitlists, reused for other variables
+    private List<List<Site>> replicaSiteLists; // sites of the variable ids, indexed by id modulo PLACEMENT_PERIOD
+    private final MetricsRegistry metrics; // counters and histograms reported by the stats command
+    private final Histogram readTimeHistogram; // logical time from issue to completion of reads
+    private final Histogram readNanosHistogram; // wall time from issue to completion of reads
+    private final Histogram writeTimeHistogram; // logical time from issue to completion of writes
+    private final Histogram writeNanosHistogram; // wall time from issue to completion of writes
+    private final Histogram lockWaitTimeHistogram; // logical time blocked operations waited for their locks
+    private final Histogram lockWaitNanosHistogram; // wall time blocked operations waited for their locks
+    private final Histogram waitlistDepthHistogram; // waitlist length sampled once per command
+    private final Histogram deadlockDetectNanosHistogram; // wall time of each deadlock detection sweep
+    private TraceRecorder traceRecorder; // transaction timelines, null if not traced
+    private CommandLog.Writer commandLogWriter; // records every command and its output, null if not recording
+    private final Command lineCommand = new Command(); // reused for every text line parsed
+    private final ObjectPool<Operation> operationPool; // operations of finished transactions, reused for new ones
+    private final List<Operation> retiredOperationList; // operations of transactions finished during the current command
+    private LongAdder[] siteCommitCounters; // commits per site, indexed by site id
+    private LongAdder[] siteAbortCounters; // aborts per site, indexed by site id
+    private LongAdder[] siteFailureCounters; // failures per site, indexed by site id
+    private LongAdder commitCounter; // transactions committed
+    private LongAdder abortCounter; // transactions aborted
     // <key: Variable id, value: List of trasaction id that visited(RW) this variable>
+    private ConcurrencyControl concurrencyControl = ConcurrencyControl.LOCKING; // how read-write transactions are isolated
+    private OptimisticEngine optimisticEngine; // runs read-write transactions unless they use locking
+    private DeadlockPolicy deadlockPolicy = DeadlockPolicy.DETECTION; // how deadlocks are handled under locking
+    private VictimPolicy victimPolicy = VictimPolicy.YOUNGEST; // how deadlock detection picks victims
+    private Map<Integer, Integer> victimCountMap; // <key: Transaction id, val: times chosen as deadlock victim>, kept across a re-issued begin until it commits
+    private FailureMode failureMode = FailureMode.ABORT_ALL; // how transactions are treated when a site fails
+    private int catchUpBatchSize = 0; // variables copied per catch-up batch, 0 if recovering sites wait for writes
+    private boolean catchUpInBackground = false; // copy one batch per command instead of all at recovery
+    private Map<Integer, Deque<Integer>> catchUpQueueMap; // <key: Site id, val: variables still to be copied>
+    private Map<Integer, Map<Integer, FailurePoint>> failurePointMap;
+    // <key: failed Site id, val: <key: available Site id, val: its state when the site failed>>
 
     public TransactionManager() {
         siteList = new ArrayList<>();
@@ -39,17 +117,217 @@ public class TransactionManager {
         abortedTransactionSet = new HashSet<>();
         variableVisitedTransactionMap = new HashMap<>();
         variableWaitlistMap = new HashMap<>();
-
+        replicaSiteLists = new ArrayList<>();
+        catchUpQueueMap = new HashMap<>();
+        failurePointMap = new HashMap<>();
+        victimCountMap = new HashMap<>();
+        metrics = new MetricsRegistry();
+        readTimeHistogram = metrics.histogram("read.latency.ticks");
+        readNanosHistogram = metrics.histogram("read.latency.nanos");
+        writeTimeHistogram = metrics.histogram("write.latency.ticks");
+        writeNanosHistogram = metrics.histogram("write.latency.nanos");
+        lockWaitTimeHistogram = metrics.histogram("lock.wait.ticks");
+        lockWaitNanosHistogram = metrics.histogram("lock.wait.nanos");
+        waitlistDepthHistogram = metrics.histogram("waitlist.depth");
+        deadlockDetectNanosHistogram = metrics.histogram("deadlock.detect.nanos");
+        metrics.gauge("waitlist.size", () -> operationWaitlist.size());
+        metrics.gauge("transactions.started", () -> transactionMap.size());
+        commitCounter = metrics.counter("transactions.commits");
+        abortCounter = metrics.counter("transactions.aborts");
+        operationPool = new ObjectPool<>(() -> new Operation(0, Operation.OperationType.READ, 0, -1, 0,
+                Transaction.TransactionType.READ_WRITE), 4096);
+        retiredOperationList = new ArrayList<>();
+        visitedListPool = new ObjectPool<>(ArrayList::new, 256);
+        waitlistPool = new ObjectPool<>(ArrayList::new, 256);
+
+        siteCommitCounters = new LongAdder[SITE_COUNT + 1];
+        siteAbortCounters = new LongAdder[SITE_COUNT + 1];
+        siteFailureCounters = new LongAdder[SITE_COUNT + 1];
         for (int i = 1; i <= SITE_COUNT; i++) {
             Site site = new Site(i);
             site.init();
             siteList.add(site);
+            siteCommitCounters[i] = metrics.counter("site." + i + ".commits");
+            siteAbortCounters[i] = metrics.counter("site." + i + ".aborts");
+            siteFailureCounters[i] = metrics.counter("site." + i + ".failures");
+        }
+        for (int i = 0; i < PLACEMENT_PERIOD; i++) {
+            List<Site> replicaSites = new ArrayList<>();
+            for (Site site : siteList) {
+                if (site.isReplicaOf(PLACEMENT_PERIOD + i)) {
+                    replicaSites.add(site);
+                }
+            }
+            replicaSiteLists.add(replicaSites);
+        }
+
+    }
+
+    /**
+     * Make every site durable with a write-ahead log in the given directory.
+     * Existing snapshots and logs are replayed and the clock is moved past the last replayed commit.
+     * @param directory directory holding one log file per site
+     * @param policy fsync policy of the logs
+     * @param groupSize number of commits per fsync in group mode
+     * @param syncPeriodMillis fsync period in periodic mode
+     * @param checkpointInterval commits per site between checkpoints, or 0 to keep the whole log
+     * @param checkpointStep variables copied per command while a checkpoint runs
+     * @throws IOException if a log cannot be opened or replayed
+     */
+    public void enableWriteAheadLog(File directory,
+                                    WriteAheadLog.FsyncPolicy policy,
+                                    int groupSize,
+                                    long syncPeriodMillis,
+                                    int checkpointInterval,
+                                    int checkpointStep) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create log directory: " + directory);
+        }
+        for (Site site : siteList) {
+            WriteAheadLog log = new WriteAheadLog(directory, site.getId(), policy, groupSize, syncPeriodMillis);
+            // the snapshot of an earlier run is loaded even if this run takes no checkpoint
+            File snapshotFile = new File(directory, "site-" + site.getId() + ".snapshot");
+            Checkpointer checkpointer = new Checkpointer(snapshotFile, checkpointInterval, checkpointStep);
+            site.attachWriteAheadLog(log, checkpointer);
+            currenttime = Math.max(currenttime, site.getLastCommitTime());
+        }
+    }
+
+    /**
+     * Let recovering sites copy the latest committed versions of their
+     * replicated variables from available sites instead of waiting for
+     * a transaction to write them.
+     * @param batchSize number of variables copied per batch
+     * @param inBackground copy one batch per command instead of all at recovery
+     */
+    public void enableCatchUp(int batchSize, boolean inBackground) {
+        catchUpBatchSize = batchSize;
+        catchUpInBackground = inBackground;
+    }
+
+    /**
+     * Lock every site and ranges of variable ids above the variables, so
+     * that a transaction holding many variable locks on a site is escalated
+     * to a single site lock.
+     * @param escalationThreshold variable locks per transaction and site before escalation
+     * @param rangeSize number of variable ids per range
+     */
+    public void enableLockEscalation(int escalationThreshold, int rangeSize) {
+        for (Site site : siteList) {
+            site.enableHierarchicalLocking(rangeSize, escalationThreshold);
+        }
+    }
+
+    /**
+     * Keep the variables of every site in a store of the given kind. A mapped store
+     * reopens the variables saved in the directory, and the clock is moved past their last commit.
+     * Must be called before the write-ahead log is enabled and before any transaction starts.
+     * @param backend kind of variable store
+     * @param directory directory of the store files, used by mapped stores only
+     * @throws IOException if a store cannot be created or opened
+     */
+    public void useVariableStore(VariableStore.Backend backend, File directory) throws IOException {
+        for (Site site : siteList) {
+            site.useVariableStore(VariableStore.create(backend, directory, site.getId()));
+            currenttime = Math.max(currenttime, site.getLastCommitTime());
+        }
+    }
+
+    /**
+     * Cache resolved snapshot reads on every site. Hit and miss counts are printed on shutdown.
+     * @param capacity maximum number of cached reads per site
+     */
+    public void enableSnapshotReadCache(int capacity) {
+        for (Site site : siteList) {
+            site.enableSnapshotReadCache(capacity);
         }
-        for (int i = 1; i <= VARIABLE_COUNT; i++) {
-            variableVisitedTransactionMap.put(i, new ArrayList<>());
-            variableWaitlistMap.put(i, new ArrayList<>());
+    }
+
+    /**
+     * Record the timeline of every transaction and operation in a ring buffer.
+     * @param capacity number of events kept
+     */
+    public void enableTracing(int capacity) {
+        traceRecorder = new TraceRecorder(capacity);
+    }
+
+    /**
+     * Record every command with its logical time and output to a command log.
+     * @param file log file, replaced if it exists
+     * @throws IOException if the log cannot be created
+     */
+    public void enableRecording(File file) throws IOException {
+        commandLogWriter = new CommandLog.Writer(file);
+    }
+
+    /**
+     * Write the recorded timelines as a Chrome trace JSON document.
+     * @param out stream receiving the document
+     */
+    public void writeTrace(PrintStream out) {
+        if (traceRecorder != null) {
+            traceRecorder.writeChromeTrace(out);
         }
+    }
 
+    /**
+     * Choose how read-write transactions are isolated from each other.
+     * @param concurrencyControl concurrency control strategy
+     */
+    public void setConcurrencyControl(ConcurrencyControl concurrencyControl) {
+        this.concurrencyControl = concurrencyControl;
+        if (concurrencyControl != ConcurrencyControl.LOCKING) {
+            optimisticEngine = new OptimisticEngine(siteList, concurrencyControl);
+        }
+    }
+
+    /**
+     * Choose how deadlocks among locking transactions are handled.
+     * @param deadlockPolicy detection or one of the timestamp-based prevention policies
+     */
+    public void setDeadlockPolicy(DeadlockPolicy deadlockPolicy) {
+        this.deadlockPolicy = deadlockPolicy;
+    }
+
+    /**
+     * Choose how deadlock detection picks the transactions to abort.
+     * @param victimPolicy victim selection policy
+     */
+    public void setVictimPolicy(VictimPolicy victimPolicy) {
+        this.victimPolicy = victimPolicy;
+    }
+
+    /**
+     * Choose how transactions that accessed a failing site are treated.
+     * @param failureMode failure handling mode
+     */
+    public void setFailureMode(FailureMode failureMode) {
+        this.failureMode = failureMode;
+    }
+
+    /**
+     * Flush and close the write-ahead logs and the variable stores of all sites
+     */
+    public void shutdown() {
+        if (optimisticEngine != null) {
+            optimisticEngine.printStatistics();
+        }
+        printSnapshotReadCacheStatistics();
+        if (commandLogWriter != null) {
+            try {
+                commandLogWriter.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        for (Site site : siteList) {
+            try {
+                site.closeWriteAheadLog();
+                site.closeVariableStore();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
     }
 
     /**
@@ -66,7 +344,7 @@ public class TransactionManager {
             String line;
             while ((line = reader.readLine()) != null && !line.isEmpty()) {
                 System.out.println("Your input: " + line);
-                parseLine(line);
+                executeCommand(line);
             }
             reader.close();
         } catch (IOException e) {
@@ -82,6 +360,30 @@ public class TransactionManager {
         }
     }
 
+    /**
+     * Print the snapshot read cache counters summed over all sites, if the cache is enabled
+     */
+    private void printSnapshotReadCacheStatistics() {
+        long hits = 0;
+        long misses = 0;
+        long evictions = 0;
+        long invalidations = 0;
+        for (Site site : siteList) {
+            SnapshotReadCache cache = site.getSnapshotReadCache();
+            if (cache == null) {
+                return;
+            }
+            hits += cache.getHitCount();
+            misses += cache.getMissCount();
+            evictions += cache.getEvictionCount();
+            invalidations += cache.getInvalidationCount();
+        }
+        double hitRate = hits + misses == 0 ? 0 : 100.0 * hits / (hits + misses);
+        System.out.format("snapshot cache: %s hits, %s misses, %.1f%% hit rate, %s evictions, %s invalidations",
+                hits, misses, hitRate, evictions, invalidations);
+        System.out.println();
+    }
+
     /**
      * Run with standard input
      * @param reader
@@ -93,7 +395,7 @@ public class TransactionManager {
             String line;
             while ((line = reader.readLine()) != null && !line.isEmpty()) {
                 System.out.println("Input: " + line);
-                parseLine(line);
+                executeCommand(line);
             }
             reader.close();
         } catch (IOException e) {
@@ -102,115 +404,568 @@ public class TransactionManager {
     }
 
     /**
-     * Parse input line by line and execute
-     * @param line line read from standard input or file input
+     * Replay a command log through the database and compare the logical time
+     * and the output of each command with the recorded ones. Outputs of the
+     * stats command hold wall times and are not compared.
+     * @param logPath path of the command log
+     * @param paced true to issue each command at its recorded wall time, false to run at full speed
+     */
+    public void startReplayMode(String logPath, boolean paced) {
+        System.out.println();
+        System.out.println();
+        long commandCount = 0;
+        long mismatchCount = 0;
+        long startNanos = System.nanoTime();
+        try (CommandLog.Reader reader = new CommandLog.Reader(new File(logPath))) {
+            CommandLog.Entry entry;
+            while ((entry = reader.next()) != null) {
+                if (paced) {
+                    waitUntil(startNanos + entry.getNanos());
+                }
+                lineCommand.parse(entry.getCommand());
+                ByteArrayOutputStream captured = new ByteArrayOutputStream();
+                captureOutput(lineCommand, captured);
+                String output = captured.toString(StandardCharsets.UTF_8);
+                commandCount += 1;
+                boolean outputMatches = lineCommand.getType() == Command.Type.STATS
+                        || output.equals(entry.getOutput());
+                if (getCurrentTime() != entry.getTime() || !outputMatches) {
+                    mismatchCount += 1;
+                    System.out.println("Mismatch at time " + entry.getTime() + ": " + entry.getCommand());
+                    System.out.print("Recorded (time " + entry.getTime() + "):\n" + entry.getOutput());
+                    System.out.print("Replayed (time " + getCurrentTime() + "):\n" + output);
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        long elapsedMillis = (System.nanoTime() - startNanos) / 1_000_000;
+        System.out.println("Replayed " + commandCount + " commands in " + elapsedMillis + " ms, "
+                + mismatchCount + " mismatches");
+    }
+
+    /**
+     * Sleep until a wall time is reached.
+     * @param deadlineNanos System.nanoTime() to wait for
+     */
+    private void waitUntil(long deadlineNanos) {
+        long remaining;
+        while ((remaining = deadlineNanos - System.nanoTime()) > 0) {
+            try {
+                Thread.sleep(remaining / 1_000_000, (int) (remaining % 1_000_000));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Run with binary protocol input, from a file, standard input or a socket.
+     * Commands are decoded straight into ints and are not echoed.
+     * @param input stream of binary frames
+     */
+    public void startBinaryMode(InputStream input) {
+        System.out.println();
+        System.out.println();
+        Command command = new Command();
+        try (BinaryProtocol.Reader reader = new BinaryProtocol.Reader(input)) {
+            while (reader.next(command)) {
+                executeCommand(command);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Parse a line of text input and execute it
+     * @param line line read from standard input or file input
+     */
+    private void executeCommand(String line) {
+        lineCommand.parse(line);
+        executeCommand(lineCommand);
+    }
+
+    /**
+     * Execute a command, recording it with its output if recording is enabled.
+     * @param command parsed or decoded command
+     */
+    private void executeCommand(Command command) {
+        if (commandLogWriter == null) {
+            runCommand(command);
+            return;
+        }
+        long startNanos = System.nanoTime();
+        ByteArrayOutputStream captured = new ByteArrayOutputStream();
+        try {
+            captureOutput(command, captured);
+        } finally {
+            String output = captured.toString(StandardCharsets.UTF_8);
+            System.out.print(output);
+            try {
+                commandLogWriter.append(getCurrentTime(), startNanos, command.toText(), output);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Execute a command and collect what it prints instead of printing it.
+     * @param command command
+     * @param output receives the output of the command, even if it throws
+     */
+    private void captureOutput(Command command, ByteArrayOutputStream output) {
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(output, true, StandardCharsets.UTF_8));
+        try {
+            runCommand(command);
+        } finally {
+            System.out.flush();
+            System.setOut(console);
+        }
+    }
+
+    /**
+     * Advance the clock and execute a command
+     * @param command parsed or decoded command
+     */
+    private void runCommand(Command command) {
+        recycleRetiredOperations();
+        advanceTime();
+        switch (command.getType()) {
+            case BEGIN:
+                handleBeginTransaction(command.getTransactionId());
+                break;
+            case BEGIN_RO:
+                handleBeginReadOnlyTransaction(command.getTransactionId());
+                break;
+            case END:
+                handleEndTransaction(command.getTransactionId());
+                break;
+            case DUMP:
+                handleDump(command.getSiteId(), command.getVariableId());
+                break;
+            case STATS:
+                writeStatistics(System.out);
+                break;
+            case HOT_KEYS:
+                handleHotKeys(command.getValue());
+                break;
+            case MULTI_READ:
+                handleMultiRead(command);
+                break;
+            case MULTI_WRITE:
+                handleMultiWrite(command);
+                break;
+            case READ:
+                handleRead(command.getTransactionId(), command.getVariableId());
+                break;
+            case WRITE:
+                if (command.getValueType() == Value.Type.INT) {
+                    handleWrite(command.getTransactionId(), command.getVariableId(), command.getValue());
+                } else {
+                    handleTypedWrite(command);
+                }
+                break;
+            case FAIL:
+                handleSiteFail(command.getSiteId());
+                break;
+            case RECOVER:
+                handleSiteRecover(command.getSiteId());
+                break;
+            case EMPTY:
+                break;
+            default:
+                System.out.println("Operation not recognized: " + command.toText());
+                break;
+        }
+    }
+
+    /**
+     * Handle read command
+     * @param transactionId transaction id
+     * @param variableId variable id
+     */
+    private void handleRead(int transactionId, int variableId) {
+        Transaction transaction = getTransactionById(transactionId);
+        transaction.increasePendingOperationCount();
+        Operation operation;
+
+        if (transaction.getType() == Transaction.TransactionType.READ_ONLY) {
+            operation = newOperation(transaction,
+                    Operation.OperationType.READ,
+                    variableId,
+                    -1,
+                    transaction.getBirthTime());
+            operation.setIssueTime(getCurrentTime());
+            handleReadRO(transaction, operation, false);
+        } else {
+            operation = newOperation(transaction,
+                    Operation.OperationType.READ,
+                    variableId,
+                    -1,
+                    getCurrentTime());
+            handleReadRW(transaction, operation, false);
+        }
+    }
+
+    /**
+     * Handle write command
+     * @param transactionId transaction id
+     * @param variableId variable id
+     * @param newValue value to write
+     */
+    private void handleWrite(int transactionId, int variableId, int newValue) {
+        Transaction transaction = getTransactionById(transactionId);
+        transaction.increasePendingOperationCount();
+        Operation operation = newOperation(transaction,
+                Operation.OperationType.WRITE,
+                variableId,
+                newValue,
+                getCurrentTime());
+
+        handleWriteOperation(operation, transaction, false);
+    }
+
+    /**
+     * Handle write command of a LONG or BYTES value
+     * @param command write command
+     */
+    private void handleTypedWrite(Command command) {
+        Transaction transaction = getTransactionById(command.getTransactionId());
+        transaction.increasePendingOperationCount();
+        Operation operation = newOperation(transaction,
+                Operation.OperationType.WRITE,
+                command.getVariableId(),
+                0,
+                getCurrentTime());
+        operation.setTypedValue(command.getValueType(), command.getLongValue(), command.getBytesValue());
+
+        handleWriteOperation(operation, transaction, false);
+    }
+
+    /**
+     * Handle a batch read command such as MR(T1, x1..x5) or MR(T1, x2, x7)
+     * @param command batch read command
+     */
+    private void handleMultiRead(Command command) {
+        int transactionId = command.getTransactionId();
+        Transaction transaction = getTransactionById(transactionId);
+
+        Set<Integer> variableIds = new TreeSet<>();
+        for (int i = 0; i < command.getBatchSize(); i++) {
+            int rangeEnd = command.getBatchValue(i);
+            if (rangeEnd < 0) {
+                variableIds.add(command.getBatchVariableId(i));
+            } else {
+                addExistingVariableIds(transaction, command.getBatchVariableId(i), rangeEnd, variableIds);
+            }
+        }
+
+        List<Operation> operations = new ArrayList<>();
+        for (int variableId : variableIds) {
+            operations.add(createOperation(transaction, Operation.OperationType.READ, variableId, -1));
+        }
+        runBatch(new BatchOperation(transactionId, Operation.OperationType.READ, operations), transaction);
+    }
+
+    /**
+     * Add the ids of a batch read range that some site holds a copy of, or
+     * that the transaction has written, so a range only costs the variables
+     * that exist. A site is probed id by id when the range is shorter than its
+     * variable list, and its list is scanned otherwise.
+     * @param transaction transaction that issued the batch
+     * @param first first id of the range
+     * @param last last id of the range
+     * @param variableIds ids of the batch
+     */
+    private void addExistingVariableIds(Transaction transaction, int first, int last, Set<Integer> variableIds) {
+        long span = (long) last - first + 1;
+        for (Site site : siteList) {
+            if (span <= site.getVariableCount()) {
+                for (int variableId = first; variableId <= last && variableId > 0; variableId++) {
+                    if (site.containsVariable(variableId)) {
+                        variableIds.add(variableId);
+                    }
+                }
+            } else {
+                for (int variableId : site.getVariableIds()) {
+                    if (variableId >= first && variableId <= last) {
+                        variableIds.add(variableId);
+                    }
+                }
+            }
+        }
+        IntIntMap writeBuffer = transaction.getWriteBuffer();
+        for (int i = 0; i < writeBuffer.size(); i++) {
+            int variableId = writeBuffer.keyAt(i);
+            if (variableId >= first && variableId <= last) {
+                variableIds.add(variableId);
+            }
+        }
+    }
+
+    /**
+     * Handle a batch write command such as MW(T1, x2=5, x4=7)
+     * @param command batch write command
+     */
+    private void handleMultiWrite(Command command) {
+        int transactionId = command.getTransactionId();
+        Transaction transaction = getTransactionById(transactionId);
+
+        Map<Integer, Integer> writes = new TreeMap<>(); // a variable written twice keeps the last value
+        for (int i = 0; i < command.getBatchSize(); i++) {
+            writes.put(command.getBatchVariableId(i), command.getBatchValue(i));
+        }
+
+        List<Operation> operations = new ArrayList<>();
+        for (Map.Entry<Integer, Integer> write : writes.entrySet()) {
+            operations.add(createOperation(transaction, Operation.OperationType.WRITE, write.getKey(), write.getValue()));
+        }
+        runBatch(new BatchOperation(transactionId, Operation.OperationType.WRITE, operations), transaction);
+    }
+
+    /**
+     * Create an operation of a transaction at the current time. Reads of
+     * read-only transactions are stamped with the birth time of the transaction.
+     * @param transaction transaction that issues the operation
+     * @param type read or write
+     * @param variableId id of the variable
+     * @param value value to write, ignored for reads
+     * @return new operation
+     */
+    private Operation createOperation(Transaction transaction, Operation.OperationType type, int variableId, int value) {
+        long time = transaction.getType() == Transaction.TransactionType.READ_ONLY
+                ? transaction.getBirthTime()
+                : getCurrentTime();
+        Operation operation = newOperation(transaction, type, variableId, value, time);
+        operation.setIssueTime(getCurrentTime());
+        return operation;
+    }
+
+    /**
+     * Get an operation from the pool and track it in its transaction, so it
+     * is recycled after the transaction commits or aborts
+     * @param transaction transaction that issues the operation
+     * @param type read or write
+     * @param variableId id of the variable
+     * @param value value to write, ignored for reads
+     * @param time operation time
+     * @return operation as if newly constructed
+     */
+    private Operation newOperation(Transaction transaction, Operation.OperationType type, int variableId, int value, long time) {
+        Operation operation = operationPool.obtain().reset(transaction.getId(), type, variableId, value, time,
+                transaction.getType());
+        transaction.addIssuedOperation(operation);
+        return operation;
+    }
+
+    /**
+     * Give the operations of the transactions finished during the previous command back to the pool.
+     * Done at the start of a command, when no handler still refers to them.
+     */
+    private void recycleRetiredOperations() {
+        for (int i = 0; i < retiredOperationList.size(); i++) {
+            operationPool.release(retiredOperationList.get(i));
+        }
+        retiredOperationList.clear();
+    }
+
+    /**
+     * Issue the remaining operations of a batch in order, until one has to wait.
+     * The batch goes on from runNextInWaitlist once that operation is executed,
+     * and the values read are printed as one record when the last read is done.
+     * @param batch batch command
+     * @param transaction transaction that issued the batch
+     */
+    private void runBatch(BatchOperation batch, Transaction transaction) {
+        while (batch.hasNext()) {
+            if (transaction.isAborted()) {
+                return;
+            }
+            Operation operation = batch.next();
+            transaction.increasePendingOperationCount();
+            boolean operationExecuted;
+            if (operation.getType() == Operation.OperationType.WRITE) {
+                operationExecuted = handleWriteOperation(operation, transaction, false);
+            } else if (transaction.getType() == Transaction.TransactionType.READ_ONLY) {
+                operationExecuted = handleReadRO(transaction, operation, false);
+            } else {
+                operationExecuted = handleReadRW(transaction, operation, false);
+            }
+            if (!operationExecuted) {
+                return;
+            }
+        }
+        if (batch.getType() == Operation.OperationType.READ) {
+            batch.printReadValues();
+        }
+    }
+
+    /**
+     * Count an operation of a transaction as executed and record its latency
+     * @param transaction transaction that issued the operation
+     * @param operation executed operation
+     * @param siteMask sites the operation was executed on, bit i for site i, 0 if served without sites
+     */
+    private void completeOperation(Transaction transaction, Operation operation, int siteMask) {
+        transaction.decreasePendingOperationCount();
+        trace(TraceRecorder.Event.EXECUTE, transaction, operation, siteMask);
+        long time = getCurrentTime() - operation.getIssueTime();
+        long nanos = System.nanoTime() - operation.getIssueNanos();
+        if (operation.getType() == Operation.OperationType.READ) {
+            readTimeHistogram.record(time);
+            readNanosHistogram.record(nanos);
+        } else {
+            writeTimeHistogram.record(time);
+            writeNanosHistogram.record(nanos);
+        }
+    }
+
+    /**
+     * Record how long a blocked operation waited for its locks, overall and
+     * on each copy it now holds a lock on
+     * @param operation operation executed from the waitlist
+     */
+    private void recordLockWait(Operation operation) {
+        long time = getCurrentTime() - operation.getIssueTime();
+        lockWaitTimeHistogram.record(time);
+        lockWaitNanosHistogram.record(System.nanoTime() - operation.getIssueNanos());
+        for (Site site : getReplicaSites(operation.getVariableId())) {
+            if (site.holdsLock(operation.getTransactionId(), operation.getVariableId())) {
+                site.recordLockWait(operation.getVariableId(), time);
+            }
+        }
+    }
+
+    /**
+     * Write a text snapshot of the metrics, the lock counters of every site
+     * and the number of versions kept per variable held by some site
+     * @param out stream receiving the snapshot
+     */
+    public void writeStatistics(PrintStream out) {
+        metrics.writeSnapshot(out);
+        Set<Integer> variableIds = new TreeSet<>();
+        for (Site site : siteList) {
+            site.writeLockStatistics(out);
+            for (int variableId : site.getVariableIds()) {
+                variableIds.add(variableId);
+            }
+        }
+        for (int variableId : variableIds) {
+            int maxVersions = 0;
+            for (Site site : getReplicaSites(variableId)) {
+                maxVersions = Math.max(maxVersions, site.getVersionCount(variableId));
+            }
+            out.println("versions x" + variableId + " " + maxVersions);
+        }
+    }
+
+    /**
+     * Handle a hot key report command such as hotkeys(5): print the copies of
+     * variables with the most lock conflicts, then the longest total wait
+     * @param count number of copies reported, -1 for the default of 10
+     */
+    private void handleHotKeys(int count) {
+        count = count < 0 ? DEFAULT_HOT_KEY_COUNT : count;
+        List<LockManager> lockManagers = new ArrayList<>();
+        for (Site site : siteList) {
+            lockManagers.addAll(site.getContendedLockManagers());
+        }
+        lockManagers.sort(Comparator.comparingLong(LockManager::getConflictCount)
+                .thenComparingLong(lockManager -> getTotalWait(lockManager))
+                .reversed()
+                .thenComparingInt(LockManager::getVariableId)
+                .thenComparingInt(LockManager::getSiteId));
+        System.out.println("hot keys:");
+        for (LockManager lockManager : lockManagers.subList(0, Math.min(count, lockManagers.size()))) {
+            Histogram waits = lockManager.getWaitHistogram();
+            System.out.format("x%s site %s: %s conflicts, %s waits, %s total wait, %s max wait, %s upgrades, %s queued",
+                    lockManager.getVariableId(), lockManager.getSiteId(), lockManager.getConflictCount(),
+                    waits == null ? 0 : waits.getCount(), getTotalWait(lockManager),
+                    waits == null ? 0 : waits.getMax(), lockManager.getUpgradeCount(),
+                    variableWaitlistMap.getOrDefault(lockManager.getVariableId(), Collections.emptyList()).size());
+            System.out.println();
+        }
+    }
+
+    /**
+     * Get the total logical time operations waited for a lock on one copy of a variable
+     * @param lockManager lock manager of the copy
+     * @return total wait
      */
-    private void parseLine(String line) {
-        line = line.trim();
-        currenttime += 1;
-        if (line.startsWith(BEGIN_RO_PREFIX)) {
-            handleBeginReadOnlyTransaction(line);
-        } else if (line.startsWith(BEGIN_PREFIX)) {
-            handleBeginTransaction(line);
-        } else if (line.startsWith(END_PREFIX)) {
-            handleEndTransaction(line);
-        } else if (line.startsWith(DUMP_PREFIX)) {
-            handleDump(line);
-        } else if (line.startsWith(READ_PREFIX)) {
-            String info = line.substring(2, line.length() - 1).replace(" ", "");
-            String[] infos = info.split(",");
-            int transactionId = Integer.parseInt(infos[0].replaceAll("\\D+", ""));
-            int variableId = Integer.parseInt(infos[1].replaceAll("\\D+", ""));
-
-            Transaction transaction = getTransactionById(transactionId);
-            transaction.increasePendingOperationCount();
-            Operation operation;
+    private long getTotalWait(LockManager lockManager) {
+        return lockManager.getWaitHistogram() == null ? 0 : lockManager.getWaitHistogram().getSum();
+    }
 
+    /**
+     * Record an event in the trace, if tracing is on
+     * @param event kind of event
+     * @param transaction transaction concerned
+     * @param operation operation concerned, or null
+     * @param siteMask sites that took part, bit i for site i
+     */
+    private void trace(TraceRecorder.Event event, Transaction transaction, Operation operation, int siteMask) {
+        if (traceRecorder != null) {
+            traceRecorder.record(event, getCurrentTime(), transaction.getId(), operation, siteMask, null);
+        }
+    }
 
-            if (transaction.getType() == Transaction.TransactionType.READ_ONLY) {
-                operation = new Operation(transactionId,
-                        Operation.OperationType.READ,
-                        variableId,
-                        -1,
-                        transaction.getBirthTime(),
-                        transaction.getType());
-                handleReadRO(transaction, operation, false);
-            } else {
-                operation = new Operation(transactionId,
-                        Operation.OperationType.READ,
-                        variableId,
-                        -1,
-                        getCurrentTime(),
-                        transaction.getType());
-                handleReadRW(transaction, operation, false);
-            }
-
-        } else if (line.startsWith(WRITE_PREFIX)) {
-            String info = line.substring(2, line.length() - 1).replace(" ", "");
-            String[] infos = info.split(",");
-            int transactionId = Integer.parseInt(infos[0].replaceAll("\\D+", ""));
-            int variableId = Integer.parseInt(infos[1].replaceAll("\\D+", ""));
-            int newValue = Integer.parseInt(infos[2]);
-
-            Transaction transaction = getTransactionById(transactionId);
-            transaction.increasePendingOperationCount();
-            Operation operation = new Operation(transactionId,
-                    Operation.OperationType.WRITE,
-                    variableId,
-                    newValue,
-                    getCurrentTime(),
-                    transaction.getType());
-
-            handleWriteOperation(operation, transaction, false);
-        } else if (line.startsWith(FAIL_PREFIX)) {
-            handleSiteFail(line);
-        } else if (line.startsWith(RECOVER_PREFIX)) {
-            handleSiteRecover(line);
-        } else {
-            if (line.isEmpty()) {
-                return;
-            }
-            System.out.println("Operation not recognized: " + line);
+    /**
+     * Print the value of a read, unless the read belongs to a batch that prints its values together
+     * @param operation read operation
+     * @param value value read, unless the operation holds a LONG or BYTES value
+     */
+    private void printReadValue(Operation operation, int value) {
+        if (operation.getBatch() == null) {
+            System.out.println("x" + operation.getVariableId() + ": "
+                    + (operation.isTyped() ? operation.formatValue() : Integer.toString(value)));
         }
     }
 
     /**
      * Handle begin transaction command
-     * @param line
+     * @param transactionId transaction id
      */
-    private void handleBeginTransaction(String line) {
-        int transactionId = Integer.parseInt(line.replaceAll("\\D+", ""));
-        deadlockManager.addVertex(transactionId);
+    private void handleBeginTransaction(int transactionId) {
+        if (deadlockPolicy == DeadlockPolicy.DETECTION) {
+            deadlockManager.addVertex(transactionId);
+        }
 
         Transaction transaction = new Transaction(transactionId, Transaction.TransactionType.READ_WRITE, getCurrentTime());
         transactionMap.put(transactionId, transaction);
+        trace(TraceRecorder.Event.BEGIN, transaction, null, 0);
     }
 
     /**
      * Handle start read only transaction command
-     * @param line
+     * @param transactionId transaction id
      */
-    private void handleBeginReadOnlyTransaction(String line) {
-        int transactionId = Integer.parseInt(line.replaceAll("\\D+", ""));
+    private void handleBeginReadOnlyTransaction(int transactionId) {
         Transaction transaction = new Transaction(transactionId, Transaction.TransactionType.READ_ONLY, getCurrentTime());
         transactionMap.put(transactionId, transaction);
+        trace(TraceRecorder.Event.BEGIN, transaction, null, 0);
     }
 
     /**
      * Handle end transaction command
-     * @param line
+     * @param transactionId transaction id
      */
-    private void handleEndTransaction(String line) {
-        int transactionId = Integer.parseInt(line.replaceAll("\\D+", ""));
+    private void handleEndTransaction(int transactionId) {
         Transaction transaction = getTransactionById(transactionId);
         transaction.setFinished();
+        trace(TraceRecorder.Event.END, transaction, null, 0);
         if (attemptCommitTransaction(transactionId)) {
             System.out.format("T%s commits", transactionId);
             System.out.println();
+            victimCountMap.remove(transactionId);
         }
         if (transaction.isAborted()) {
             System.out.format("T%s aborts", transactionId);
             System.out.println();
+            abortedTransactionSet.remove(transactionId);
         }
     }
 
@@ -227,7 +982,9 @@ public class TransactionManager {
         }
 
         int transactionId = transaction.getId();
-        variableVisitedTransactionMap.get(operation.getVariableId()).add(transactionId);
+        if (deadlockPolicy == DeadlockPolicy.DETECTION) {
+            getVisitedList(operation.getVariableId()).add(transactionId);
+        }
 
         if (transaction.getType() == Transaction.TransactionType.READ_WRITE) {
             return handleReadRW(transaction, operation, fromWaitlist);
@@ -245,12 +1002,35 @@ public class TransactionManager {
      */
     private boolean handleReadRW(Transaction transaction, Operation operation, boolean fromWaitlist) {
         int val = -1;
-        boolean readSucceed = false;
+        int siteMask = 0;
         if (transaction.isAborted()) {
             return false;
         }
-
         if (!fromWaitlist) {
+            trace(TraceRecorder.Event.SUBMIT, transaction, operation, 0);
+        }
+        if (!usesLocking(transaction)) {
+            return handleReadOptimistic(transaction, operation, fromWaitlist);
+        }
+
+        // a variable the transaction wrote or already read is still locked by it, so it is served locally
+        int variableId = operation.getVariableId();
+        if (transaction.hasBufferedWrite(variableId) || transaction.hasViewValue(variableId)) {
+            Operation typedWrite = transaction.getTypedWrite(variableId);
+            int localValue = transaction.hasBufferedWrite(variableId)
+                    ? transaction.getBufferedWrite(variableId)
+                    : transaction.getViewValue(variableId);
+            if (typedWrite != null) {
+                operation.setTypedValue(typedWrite.getValueType(), typedWrite.getLongValue(), typedWrite.getBytesValue());
+            } else {
+                operation.setReadValue(localValue);
+            }
+            completeOperation(transaction, operation, 0);
+            printReadValue(operation, localValue);
+            return true;
+        }
+
+        if (!fromWaitlist && deadlockPolicy == DeadlockPolicy.DETECTION) {
             addTransactionFromDeadlockManager(operation, transaction);
             addTransactionFromVisitedMap(operation, transaction);
         }
@@ -259,24 +1039,50 @@ public class TransactionManager {
             Site site = getSiteById(i);
             if (site.canReadVariableRW(operation)) {
                 val = site.readVariableRW(operation);
-                readSucceed = true;
+                siteMask |= 1 << i;
             }
         }
 
-        if (readSucceed) {
-            transaction.decreasePendingOperationCount();
-            System.out.println("x" + operation.getVariableId() + ": " + val);
+        if (siteMask != 0) {
+            if (!operation.isTyped()) {
+                // only INT values are cached, a LONG or BYTES read goes back to the site
+                transaction.cacheReadValue(variableId, val);
+            }
+            completeOperation(transaction, operation, siteMask);
+            printReadValue(operation, val);
             return true;
         } else {
             operationWaitlist.add(operation);
             if (!fromWaitlist) {
+                trace(TraceRecorder.Event.BLOCK, transaction, operation, 0);
+                recordLockConflicts(operation);
                 addOperationToWaitlistTail(operation);
             }
-            deteckDeadlockAndAbortTransaction();
+            resolveBlockedOperation(operation, transaction);
             return false;
         }
     }
 
+    /**
+     * Handle a read write read operation without locks, under optimistic or snapshot concurrency control
+     * @param operation operation to be handled
+     * @param transaction transaction that issues the operation
+     * @param fromWaitlist if the method is called from the waitlist
+     * @return true if read succeed, false if it has to wait for a site
+     */
+    private boolean handleReadOptimistic(Transaction transaction, Operation operation, boolean fromWaitlist) {
+        if (optimisticEngine.read(transaction, operation)) {
+            completeOperation(transaction, operation, 0);
+            printReadValue(operation, operation.getValue());
+            return true;
+        }
+        if (!fromWaitlist) {
+            trace(TraceRecorder.Event.BLOCK, transaction, operation, 0);
+        }
+        operationWaitlist.add(operation);
+        return false;
+    }
+
     /**
      * Handle a read only read operation
      * @param operation operation to be handled
@@ -289,17 +1095,34 @@ public class TransactionManager {
         if (transaction.isAborted()) {
             return false;
         }
+        if (!fromWaitlist) {
+            trace(TraceRecorder.Event.SUBMIT, transaction, operation, 0);
+        }
 
-        for (int i = 1; i <= SITE_COUNT; i++) {
-            Site site = getSiteById(i);
+        // the snapshot never changes, so a variable read before is served from the transaction's view
+        if (transaction.hasViewValue(operation.getVariableId())) {
+            int cachedValue = transaction.getViewValue(operation.getVariableId());
+            operation.setReadValue(cachedValue);
+            printReadValue(operation, cachedValue);
+            completeOperation(transaction, operation, 0);
+            return true;
+        }
+
+        for (Site site : getReplicaSites(operation.getVariableId())) {
             if (site.canReadVariableRO(operation)) {
                 val = site.readVariableRO(operation);
-                System.out.println("x" + operation.getVariableId() + ": " + val);
-                transaction.decreasePendingOperationCount();
+                if (!operation.isTyped()) {
+                    transaction.cacheReadValue(operation.getVariableId(), val);
+                }
+                printReadValue(operation, val);
+                completeOperation(transaction, operation, 1 << site.getId());
                 return true;
             }
         }
 
+        if (!fromWaitlist) {
+            trace(TraceRecorder.Event.BLOCK, transaction, operation, 0);
+        }
         operationWaitlist.add(operation);
         return false;
     }
@@ -315,13 +1138,22 @@ public class TransactionManager {
         if (transaction.isAborted()) {
             return false;
         }
-
         if (!fromWaitlist) {
+            trace(TraceRecorder.Event.SUBMIT, transaction, operation, 0);
+        }
+        if (!usesLocking(transaction)) {
+            optimisticEngine.write(transaction, operation);
+            completeOperation(transaction, operation, 0);
+            transaction.addOperation(operation);
+            return true;
+        }
+
+        if (!fromWaitlist && deadlockPolicy == DeadlockPolicy.DETECTION) {
             addTransactionFromDeadlockManager(operation, transaction);
             addTransactionFromVisitedMap(operation, transaction);
         }
 
-        boolean variableWritten = false;
+        int siteMask = 0;
         boolean beingLocked = false;
 
         for (Site site : siteList) {
@@ -339,67 +1171,296 @@ public class TransactionManager {
                             || fromWaitlist
                             || isNoOperationInWaitlist(operation.getVariableId()))) {
                     site.writeVariableRW(operation);
-                    variableWritten = true;
+                    siteMask |= 1 << i;
                 }
             }
         }
 
-        if (variableWritten) {
-            transaction.decreasePendingOperationCount();
+        if (siteMask != 0) {
+            if (operation.isTyped()) {
+                transaction.bufferTypedWrite(operation);
+            } else {
+                transaction.bufferWrite(operation.getVariableId(), operation.getValue());
+            }
+            completeOperation(transaction, operation, siteMask);
             transaction.addOperation(operation);
             return true;
         } else {
             operationWaitlist.add(operation);
             if (!fromWaitlist) {
+                trace(TraceRecorder.Event.BLOCK, transaction, operation, 0);
+                recordLockConflicts(operation);
                 addOperationToWaitlistTail(operation);
             }
-            deteckDeadlockAndAbortTransaction();
+            resolveBlockedOperation(operation, transaction);
             return false;
         }
     }
 
+    /**
+     * Count a lock conflict on each copy whose locks keep a newly blocked
+     * operation waiting, once per operation, for the contention profile
+     * @param operation operation that just blocked
+     */
+    private void recordLockConflicts(Operation operation) {
+        for (Site site : getReplicaSites(operation.getVariableId())) {
+            site.recordLockConflict(operation);
+        }
+    }
+
     /**
      * Handle a site fails command
-     * @param line input command
+     * @param id id of the failing site
      */
-    private void handleSiteFail(String line) {
-        int id = Integer.parseInt(line.replaceAll("\\D+", ""));
+    private void handleSiteFail(int id) {
         Site site = getSiteById(id);
+        siteFailureCounters[id].increment();
+        catchUpQueueMap.remove(id);
+        if (catchUpBatchSize > 0 && !site.isFailed()) {
+            recordFailurePoint(site);
+        }
+        if (failureMode == FailureMode.SELECTIVE) {
+            Map<Integer, List<Operation>> lostOperationMap = site.getQueuedOperations();
+            site.fail();
+            for (int transactionId : lostOperationMap.keySet()) {
+                if (!survivesSiteFailure(getTransactionById(transactionId), lostOperationMap.get(transactionId))) {
+                    siteAbortCounters[id].increment();
+                    abortTransaction(transactionId, AbortReason.SITE_FAILURE);
+                }
+            }
+            return;
+        }
         List<Integer> visitedTransactionSet = site.fail();
         for (int transactionId : visitedTransactionSet) {
-            abortTransaction(transactionId);
+            siteAbortCounters[id].increment();
+            abortTransaction(transactionId, AbortReason.SITE_FAILURE);
+        }
+    }
+
+    /**
+     * Check if a transaction can go on after a site holding some of its operations failed.
+     * Read-only reads use committed versions and never depend on the site. A write survives
+     * if another available copy holds it. A read survives if another available copy is
+     * locked by the transaction, or if its read lock can be moved to a copy with no newer
+     * committed version.
+     * @param transaction transaction that accessed the failed site
+     * @param lostOperations operations of the transaction queued on the failed site
+     * @return true if the transaction does not need to abort
+     */
+    private boolean survivesSiteFailure(Transaction transaction, List<Operation> lostOperations) {
+        if (transaction.getType() == Transaction.TransactionType.READ_ONLY) {
+            return true;
+        }
+        for (Operation operation : lostOperations) {
+            boolean covered = false;
+            for (Site site : siteList) {
+                if (site.holdsLock(transaction.getId(), operation.getVariableId())) {
+                    covered = true;
+                    break;
+                }
+            }
+            if (!covered && operation.getType() == Operation.OperationType.READ) {
+                for (Site site : siteList) {
+                    if (site.rerouteRead(operation)) {
+                        covered = true;
+                        break;
+                    }
+                }
+            }
+            if (!covered) {
+                return false;
+            }
         }
+        return true;
     }
 
     /**
      * Handle site recover command
-     * @param line input command
+     * @param id id of the recovering site
      */
-    private void handleSiteRecover(String line) {
-        int id = Integer.parseInt(line.replaceAll("\\D+", ""));
+    private void handleSiteRecover(int id) {
         Site site = getSiteById(id);
         site.recover();
-        for (int transactionId : abortedTransactionSet) {
-            abortTransaction(transactionId);
+        // replicated variables created while the site was down have no copy on it yet
+        for (Site other : siteList) {
+            if (other != site) {
+                for (int variableId : other.getVariableIds()) {
+                    if (site.isReplicaOf(variableId) && !site.containsVariable(variableId)) {
+                        site.markMissedVariable(variableId);
+                    }
+                }
+            }
+        }
+        if (catchUpBatchSize > 0) {
+            startCatchUp(site);
+            if (!catchUpQueueMap.containsKey(id)) {
+                failurePointMap.remove(id);
+            }
+        }
+        if (failureMode == FailureMode.ABORT_ALL) {
+            for (int transactionId : abortedTransactionSet) {
+                abortTransaction(transactionId, AbortReason.SITE_FAILURE);
+            }
+        }
+        runNextInWaitlist();
+    }
+
+    /**
+     * Queue the unreadable variables of a recovered site for catch-up, and
+     * copy them right away unless catch-up runs in the background
+     * @param site recovered site
+     */
+    private void startCatchUp(Site site) {
+        Deque<Integer> queue = new ArrayDeque<>(site.getUnreadableVariableIds());
+        if (queue.isEmpty()) {
+            return;
+        }
+        catchUpQueueMap.put(site.getId(), queue);
+        if (!catchUpInBackground) {
+            while (catchUpQueueMap.containsKey(site.getId()) && runCatchUpBatch(site)) {
+                // keep copying while batches make progress
+            }
+        }
+    }
+
+    /**
+     * Copy the next batch of variables to a recovering site. Only versions
+     * newer than the local copy are copied, and nothing at all when a peer
+     * shows the variable did not change since the failure. A variable is
+     * skipped while a transaction holds a write lock on it, since that write
+     * would not reach the recovering copy, and retried in a later batch.
+     * @param site recovering site
+     * @return true if at least one variable was caught up
+     */
+    private boolean runCatchUpBatch(Site site) {
+        Deque<Integer> queue = catchUpQueueMap.get(site.getId());
+        boolean progressed = false;
+        int batchSize = Math.min(catchUpBatchSize, queue.size());
+        for (int i = 0; i < batchSize; i++) {
+            int variableId = queue.poll();
+            if (site.isVariableReadable(variableId)) {
+                continue; // written since recovery
+            }
+            Site peer = findCatchUpPeer(site, variableId);
+            if (peer == null) {
+                queue.offer(variableId);
+                continue;
+            }
+            if (site.containsVariable(variableId) && isUnchangedSinceFailure(site, peer, variableId)) {
+                site.confirmVariableCurrent(variableId);
+            } else {
+                long latestTime = site.getLatestVersionTime(variableId);
+                site.installCommittedVersions(variableId, peer.getCommittedVersionsAfter(variableId, latestTime));
+            }
+            progressed = true;
+        }
+        if (queue.isEmpty()) {
+            catchUpQueueMap.remove(site.getId());
+            failurePointMap.remove(site.getId());
+        }
+        return progressed;
+    }
+
+    /**
+     * Find an available site holding a current copy of a variable, preferring
+     * one that stayed up since the recovering site failed
+     * @param site recovering site
+     * @param variableId id of the variable to copy
+     * @return the site to copy from, or null if none can be used now
+     */
+    private Site findCatchUpPeer(Site site, int variableId) {
+        Site peer = null;
+        for (Site other : siteList) {
+            if (other.isFailed() || !other.isReplicaOf(variableId)) {
+                continue;
+            }
+            if (other.isVariableWriteLocked(variableId)) {
+                return null;
+            }
+            if (other != site && other.isVariableReadable(variableId)
+                    && (peer == null || (!stayedUpSinceFailure(site, peer) && stayedUpSinceFailure(site, other)))) {
+                peer = other;
+            }
+        }
+        return peer;
+    }
+
+    /**
+     * Remember the commit sequence of every available site when a site fails,
+     * so that its recovery only needs the versions committed after that point
+     * @param site failing site
+     */
+    private void recordFailurePoint(Site site) {
+        Map<Integer, FailurePoint> failurePoints = new HashMap<>();
+        for (Site other : siteList) {
+            if (other != site && !other.isFailed()) {
+                failurePoints.put(other.getId(), new FailurePoint(other.getCommitSequence(), other.getFailureCount()));
+            }
+        }
+        failurePointMap.put(site.getId(), failurePoints);
+    }
+
+    /**
+     * Check if a site stayed up for the whole time another site was down
+     * @param site recovering site
+     * @param peer available site
+     * @return true if the peer did not fail since the site failed
+     */
+    private boolean stayedUpSinceFailure(Site site, Site peer) {
+        Map<Integer, FailurePoint> failurePoints = failurePointMap.get(site.getId());
+        if (failurePoints == null || !failurePoints.containsKey(peer.getId())) {
+            return false;
+        }
+        return failurePoints.get(peer.getId()).failureCount == peer.getFailureCount();
+    }
+
+    /**
+     * Check if the copy of a variable on a recovering site is still current. This holds
+     * when it was readable when the site failed, and a peer that stayed up since then
+     * has not applied any change to it after that point.
+     * @param site recovering site
+     * @param peer available site holding a readable copy
+     * @param variableId id of the variable
+     * @return true if nothing needs to be copied
+     */
+    private boolean isUnchangedSinceFailure(Site site, Site peer, int variableId) {
+        if (!stayedUpSinceFailure(site, peer) || site.wasStaleAtFailure(variableId)) {
+            return false;
+        }
+        long failureSequence = failurePointMap.get(site.getId()).get(peer.getId()).commitSequence;
+        return peer.getLastAppliedSequence(variableId) <= failureSequence;
+    }
+
+    /**
+     * Copy one batch to every site catching up in the background
+     */
+    private void runBackgroundCatchUp() {
+        boolean progressed = false;
+        for (int siteId : new ArrayList<>(catchUpQueueMap.keySet())) {
+            if (runCatchUpBatch(getSiteById(siteId))) {
+                progressed = true;
+            }
+        }
+        if (progressed) {
+            runNextInWaitlist();
         }
     }
 
     /**
      * Handle dump/print command
-     * @param line input command
+     * @param siteId id of the site to dump, -1 for none
+     * @param variableId id of the variable to dump on every site, -1 for none
      */
-    private void handleDump(String line) {
-        if (line.equals("dump()")) {
+    private void handleDump(int siteId, int variableId) {
+        if (siteId < 0 && variableId < 0) {
             for (Site site : siteList) {
                 site.dump();
             }
-        } else if (line.contains("x")) {
-            int variableId = Integer.parseInt(line.replaceAll("\\D+", ""));
+        } else if (variableId >= 0) {
             for (Site site : siteList) {
                 site.dump(variableId);
             }
         } else { // Dumping single site
-            int siteId = Integer.parseInt(line.replaceAll("\\D+", ""));
             Site site = getSiteById(siteId);
             site.dump();
         }
@@ -422,16 +1483,27 @@ public class TransactionManager {
         return transactionMap.get(transactionId);
     }
 
-    private List<Integer> getSitesByVariableId(int variableId) {
-        List<Integer> list = new ArrayList<>();
-        if (variableId > 0 && variableId <= VARIABLE_COUNT) {
-            for (Site site : siteList) {
-                if (site.containsVariable(variableId)) {
-                    list.add(site.getId());
-                }
-            }
+    /**
+     * Get the sites that hold or will hold a copy of a variable
+     * @param variableId id of the variable
+     * @return replica sites, empty for an invalid id, not to be modified
+     */
+    private List<Site> getReplicaSites(int variableId) {
+        return variableId > 0 ? replicaSiteLists.get(variableId % PLACEMENT_PERIOD) : Collections.emptyList();
+    }
+
+    /**
+     * Advance the clock by one command and let running checkpoints and catch-ups make progress
+     */
+    private void advanceTime() {
+        currenttime += 1;
+        waitlistDepthHistogram.record(operationWaitlist.size());
+        for (Site site : siteList) {
+            site.checkpointStep();
+        }
+        if (!catchUpQueueMap.isEmpty()) {
+            runBackgroundCatchUp();
         }
-        return list;
     }
 
     /**
@@ -449,9 +1521,24 @@ public class TransactionManager {
     private boolean attemptCommitTransaction(int transactionId) {
         Transaction transaction = getTransactionById(transactionId);
         if (transaction.isCommittable()) {
+            if (transaction.getType() == Transaction.TransactionType.READ_WRITE && !usesLocking(transaction)) {
+                if (!optimisticEngine.commit(transaction, getCurrentTime())) {
+                    abortTransaction(transactionId, AbortReason.VALIDATION);
+                    return false;
+                }
+            }
             for (Site site : siteList) {
-                site.commitTransaction(transaction);
+                if (site.hasQueuedOperations(transactionId) && site.commitTransaction(transaction, getCurrentTime())) {
+                    siteCommitCounters[site.getId()].increment();
+                }
+            }
+            commitCounter.increment();
+            trace(TraceRecorder.Event.COMMIT, transaction, null, 0);
+            if (deadlockPolicy == DeadlockPolicy.DETECTION) {
+                removeTransactionFromDeadlockManager(transactionId);
+                removeTransactionFromVisitedMap(transactionId);
             }
+            transaction.drainIssuedOperations(retiredOperationList);
             runNextInWaitlist();
             return true;
         } else {
@@ -462,9 +1549,16 @@ public class TransactionManager {
     /**
      * Abort the transaction
      * @param transactionId transaction id of the transaction to be aborted
+     * @param reason why it is aborted, recorded in the trace
      */
-    private void abortTransaction(int transactionId) {
+    private void abortTransaction(int transactionId, AbortReason reason) {
         Transaction transaction = getTransactionById(transactionId);
+        if (!transaction.isAborted()) {
+            abortCounter.increment();
+            if (traceRecorder != null) {
+                traceRecorder.record(TraceRecorder.Event.ABORT, getCurrentTime(), transactionId, null, 0, reason);
+            }
+        }
         abortedTransactionSet.add(transactionId);
         transaction.setToAborted();
 
@@ -473,13 +1567,7 @@ public class TransactionManager {
         removeTransactionFromVisitedMap(transactionId);
 
         // Clear all operations in waitlist
-        List<Operation> newWaitList = new ArrayList<>();
-        for (Operation operation : operationWaitlist) {
-            if (operation.getTransactionId() != transactionId) {
-                newWaitList.add(operation);
-            }
-        }
-        operationWaitlist = newWaitList;
+        removeOperationsOfTransaction(operationWaitlist, transactionId);
 
         // Clear waitlist by each variable
         clearWaitlistByTransactionId(transactionId);
@@ -487,9 +1575,13 @@ public class TransactionManager {
         // Clean up locks and pending operations in each site
         for (Site site : siteList) {
             if (site.getStatus() != Site.SiteStatus.FAILED) {
+                if (site.hasQueuedOperations(transactionId)) {
+                    siteAbortCounters[site.getId()].increment();
+                }
                 site.abortTransaction(transactionId);
             }
         }
+        transaction.drainIssuedOperations(retiredOperationList);
         runNextInWaitlist();
     }
 
@@ -505,7 +1597,7 @@ public class TransactionManager {
             Operation operation = operationWaitlist.remove(i);
             Transaction transaction = getTransactionById(operation.getTransactionId());
 
-            if (transaction.getType() != Transaction.TransactionType.READ_ONLY) {
+            if (usesLocking(transaction)) {
                 removeOperaionFromWaitlistHead(operation.getVariableId());
             }
 
@@ -517,18 +1609,38 @@ public class TransactionManager {
             }
 
             if (operationExecuted) {
+                trace(TraceRecorder.Event.GRANT, transaction, operation, 0);
+                if (usesLocking(transaction)) {
+                    recordLockWait(operation);
+                }
+                if (operation.getBatch() != null) {
+                    runBatch(operation.getBatch(), transaction);
+                }
                 attemptCommitTransaction(transaction.getId());
                 runNextInWaitlist();
+            } else if (transaction.isAborted()) {
+                // aborted while blocked, its operations are already gone from the waitlists
+                i -= 1;
             } else {
                 operationWaitlist.remove(operationWaitlist.size() - 1);
                 operationWaitlist.add(i, operation);
-                if (transaction.getType() != Transaction.TransactionType.READ_ONLY) {
+                if (usesLocking(transaction)) {
                     addOperationToWaitlistHead(operation);
                 }
             }
         }
     }
 
+    /**
+     * Check if a transaction takes locks and waits in the per-variable waitlists
+     * @param transaction transaction to be checked
+     * @return true for read-write transactions under locking
+     */
+    private boolean usesLocking(Transaction transaction) {
+        return transaction.getType() == Transaction.TransactionType.READ_WRITE
+                && concurrencyControl == ConcurrencyControl.LOCKING;
+    }
+
     /**
      * Add transaction in the deadlock manager
      * @param operation operation to be executed
@@ -537,10 +1649,19 @@ public class TransactionManager {
     private void addTransactionFromDeadlockManager(Operation operation, Transaction transaction) {
         int variableId = operation.getVariableId();
         int transactionId = transaction.getId();
-        List<Integer> visitedTransactionList = variableVisitedTransactionMap.get(variableId);
+        List<Integer> visitedTransactionList = variableVisitedTransactionMap.getOrDefault(variableId,
+                Collections.emptyList());
         for (int id : visitedTransactionList) {
             deadlockManager.addChild(id, transactionId);
         }
+        // an escalated transaction blocks variables it never visited
+        for (Site site : siteList) {
+            for (int id : site.getCoarseLockHolderIds(operation)) {
+                if (!visitedTransactionList.contains(id)) {
+                    deadlockManager.addChild(id, transactionId);
+                }
+            }
+        }
     }
 
     /**
@@ -551,7 +1672,10 @@ public class TransactionManager {
     private void addTransactionFromVisitedMap(Operation operation, Transaction transaction) {
         int transactionId = transaction.getId();
         int variableId = operation.getVariableId();
-        variableVisitedTransactionMap.get(variableId).add(transactionId);
+        List<Integer> visitedList = getVisitedList(variableId);
+        if (!visitedList.contains(transactionId)) {
+            visitedList.add(transactionId);
+        }
     }
 
     /**
@@ -567,16 +1691,109 @@ public class TransactionManager {
      * @param transactionId transaction to be removed
      */
     private void removeTransactionFromVisitedMap(int transactionId) {
-        for (int variableId : variableVisitedTransactionMap.keySet()) {
-            List<Integer> visitedList = variableVisitedTransactionMap.get(variableId);
-            List<Integer> newVisitedList = new ArrayList<>();
-            for (int id : visitedList) {
-                if (id != transactionId) {
-                    newVisitedList.add(id);
+        Iterator<List<Integer>> iterator = variableVisitedTransactionMap.values().iterator();
+        while (iterator.hasNext()) {
+            List<Integer> visitedList = iterator.next();
+            for (int i = visitedList.size() - 1; i >= 0; i--) {
+                if (visitedList.get(i) == transactionId) {
+                    visitedList.remove(i);
+                }
+            }
+            if (visitedList.isEmpty()) {
+                iterator.remove();
+                visitedListPool.release(visitedList);
+            }
+        }
+    }
+
+    /**
+     * Get the list of transactions that visited a variable, adding an empty one if there is none
+     * @param variableId id of the variable
+     * @return visited list in the map
+     */
+    private List<Integer> getVisitedList(int variableId) {
+        List<Integer> visitedList = variableVisitedTransactionMap.get(variableId);
+        if (visitedList == null) {
+            visitedList = visitedListPool.obtain();
+            variableVisitedTransactionMap.put(variableId, visitedList);
+        }
+        return visitedList;
+    }
+
+    /**
+     * Handle an operation that has to wait, according to the deadlock policy
+     * @param operation blocked operation, already in the waitlist
+     * @param transaction transaction that issued the operation
+     */
+    private void resolveBlockedOperation(Operation operation, Transaction transaction) {
+        if (deadlockPolicy == DeadlockPolicy.WAIT_DIE) {
+            applyWaitDie(operation, transaction);
+        } else if (deadlockPolicy == DeadlockPolicy.WOUND_WAIT) {
+            applyWoundWait(operation, transaction);
+        } else {
+            deteckDeadlockAndAbortTransaction();
+        }
+    }
+
+    /**
+     * Wait-die: the blocked transaction may only wait for younger transactions,
+     * otherwise it aborts. Waits then always go from older to younger
+     * transactions, so no cycle can form.
+     * @param operation blocked operation
+     * @param transaction transaction that issued the operation
+     */
+    private void applyWaitDie(Operation operation, Transaction transaction) {
+        for (int id : getConflictingTransactionIds(operation)) {
+            if (getTransactionById(id).getBirthTime() < transaction.getBirthTime()) {
+                System.out.println("Wait-die, aborting: " + transaction.getId());
+                metrics.counter("deadlock.victims").increment();
+                abortTransaction(transaction.getId(), AbortReason.WAIT_DIE);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Wound-wait: the blocked transaction aborts every younger transaction it
+     * conflicts with and waits only for older ones. Waits then always go from
+     * younger to older transactions, so no cycle can form.
+     * @param operation blocked operation
+     * @param transaction transaction that issued the operation
+     */
+    private void applyWoundWait(Operation operation, Transaction transaction) {
+        for (int id : getConflictingTransactionIds(operation)) {
+            Transaction other = getTransactionById(id);
+            if (!other.isAborted() && other.getBirthTime() > transaction.getBirthTime()) {
+                System.out.println("Wound-wait, aborting: " + id);
+                metrics.counter("deadlock.victims").increment();
+                abortTransaction(id, AbortReason.WOUND_WAIT);
+            }
+        }
+    }
+
+    /**
+     * Get the transactions an operation waits for: other holders of conflicting
+     * locks on any available copy, and for writes also the transactions queued
+     * ahead of it on the variable
+     * @param operation blocked operation
+     * @return ids of the conflicting transactions
+     */
+    private Set<Integer> getConflictingTransactionIds(Operation operation) {
+        Set<Integer> conflictingIds = new LinkedHashSet<>();
+        for (Site site : siteList) {
+            conflictingIds.addAll(site.getConflictingTransactionIds(operation));
+        }
+        if (operation.getType() == Operation.OperationType.WRITE) {
+            for (Operation waiting : variableWaitlistMap.getOrDefault(operation.getVariableId(),
+                    Collections.emptyList())) {
+                if (waiting == operation) {
+                    break;
                 }
+                conflictingIds.add(waiting.getTransactionId());
             }
-            variableVisitedTransactionMap.put(variableId, newVisitedList);
         }
+        conflictingIds.remove(operation.getTransactionId());
+        return conflictingIds;
     }
 
     /**
@@ -584,7 +1801,12 @@ public class TransactionManager {
      * @return true if deadlock found, false otherwise
      */
     private boolean deteckDeadlockAndAbortTransaction() {
+        if (victimPolicy != VictimPolicy.YOUNGEST) {
+            return detectCyclesAndAbortVictims();
+        }
+        long start = System.nanoTime();
         List<Integer> transactionIdList = deadlockManager.detectDeadlock();
+        deadlockDetectNanosHistogram.record(System.nanoTime() - start);
         int targetId;
         if (transactionIdList.isEmpty()) {
             return false;
@@ -596,18 +1818,81 @@ public class TransactionManager {
                 }
             }
             System.out.println("Deadlock detected, aborting: " + targetId);
-            abortTransaction(targetId);
+            metrics.counter("deadlock.victims").increment();
+            abortTransaction(targetId, AbortReason.DEADLOCK);
             return true;
         }
     }
 
+    /**
+     * Detect the deadlock cycles and abort one victim on each of them
+     * @return true if deadlock found, false otherwise
+     */
+    private boolean detectCyclesAndAbortVictims() {
+        long start = System.nanoTime();
+        List<List<Integer>> cycles = deadlockManager.detectDeadlockCycles();
+        deadlockDetectNanosHistogram.record(System.nanoTime() - start);
+        for (List<Integer> cycle : cycles) {
+            boolean broken = false;
+            for (int id : cycle) {
+                if (getTransactionById(id).isAborted()) {
+                    broken = true; // already resolved while aborting an earlier victim
+                }
+            }
+            if (broken) {
+                continue;
+            }
+            int targetId = selectVictim(cycle);
+            victimCountMap.merge(targetId, 1, Integer::sum);
+            System.out.println("Deadlock detected, aborting: " + targetId);
+            metrics.counter("deadlock.victims").increment();
+            abortTransaction(targetId, AbortReason.DEADLOCK);
+        }
+        return !cycles.isEmpty();
+    }
+
+    /**
+     * Pick the victim on a deadlock cycle. Under least-work the cost of a
+     * transaction is the work its abort throws away (operations executed, locks
+     * held and pending writes), scaled up by the times it was already a victim, and
+     * divided by its edges within the cycle, since aborting a transaction on more
+     * cycles breaks more of them. Ties go to the youngest transaction. A victim is
+     * retried by issuing begin again with the same id, and its victim count is kept
+     * until it commits, so a transaction aborted again and again is picked less often.
+     * @param cycle ids of the transactions on the cycle
+     * @return id of the victim
+     */
+    private int selectVictim(List<Integer> cycle) {
+        int targetId = cycle.get(0);
+        double targetCost = Double.MAX_VALUE;
+        for (int id : cycle) {
+            Transaction transaction = getTransactionById(id);
+            double cost = 0;
+            if (victimPolicy == VictimPolicy.LEAST_WORK) {
+                int locksHeld = 0;
+                for (Site site : siteList) {
+                    locksHeld += site.countLocksHeld(id);
+                }
+                int work = transaction.getExecutedOperationCount() + locksHeld + transaction.getOperationList().size();
+                int restarts = victimCountMap.getOrDefault(id, 0);
+                cost = (double) (1 + work) * (1 + restarts) / Math.max(1, deadlockManager.getCycleDegree(id, cycle));
+            }
+            if (cost < targetCost || (cost == targetCost
+                    && transaction.getBirthTime() > getTransactionById(targetId).getBirthTime())) {
+                targetId = id;
+                targetCost = cost;
+            }
+        }
+        return targetId;
+    }
+
     /**
      * Add operation to the tail of the waitlist
      * @param operation operation to be added
      */
     private void addOperationToWaitlistTail(Operation operation) {
         int variableId = operation.getVariableId();
-        List<Operation> waitlist = variableWaitlistMap.get(variableId);
+        List<Operation> waitlist = getWaitlist(variableId);
         if (!waitlist.contains(operation)) {
             waitlist.add(operation);
         }
@@ -619,7 +1904,8 @@ public class TransactionManager {
      * @return true if there is other operation waiting, false otherwise
      */
     private boolean isNoOperationInWaitlist(int variableId) {
-        return variableWaitlistMap.get(variableId).isEmpty();
+        List<Operation> waitlist = variableWaitlistMap.get(variableId);
+        return waitlist == null || waitlist.isEmpty();
     }
 
     /**
@@ -627,15 +1913,46 @@ public class TransactionManager {
      * @param transactionId operation belongs to this id needs to be cleaned
      */
     private void clearWaitlistByTransactionId(int transactionId) {
-        for (int variableId : variableWaitlistMap.keySet()) {
-            List<Operation> waitlist = variableWaitlistMap.get(variableId);
-            List<Operation> newWaitlist = new ArrayList<>();
-            for (Operation operation : waitlist) {
-                if (operation.getTransactionId() != transactionId) {
-                    newWaitlist.add(operation);
-                }
+        Iterator<List<Operation>> iterator = variableWaitlistMap.values().iterator();
+        while (iterator.hasNext()) {
+            List<Operation> waitlist = iterator.next();
+            removeOperationsOfTransaction(waitlist, transactionId);
+            if (waitlist.isEmpty()) {
+                iterator.remove();
+                waitlistPool.release(waitlist);
             }
-            variableWaitlistMap.put(variableId, newWaitlist);
+        }
+    }
+
+    /**
+     * Get the waitlist of a variable, adding an empty one if there is none
+     * @param variableId id of the variable
+     * @return waitlist in the map
+     */
+    private List<Operation> getWaitlist(int variableId) {
+        List<Operation> waitlist = variableWaitlistMap.get(variableId);
+        if (waitlist == null) {
+            waitlist = waitlistPool.obtain();
+            variableWaitlistMap.put(variableId, waitlist);
+        }
+        return waitlist;
+    }
+
+    /**
+     * Remove the operations of a transaction from a list in place, keeping the order of the others
+     * @param operations list to be cleaned
+     * @param transactionId operations belongs to this id are removed
+     */
+    private void removeOperationsOfTransaction(List<Operation> operations, int transactionId) {
+        int kept = 0;
+        for (int i = 0; i < operations.size(); i++) {
+            Operation operation = operations.get(i);
+            if (operation.getTransactionId() != transactionId) {
+                operations.set(kept++, operation);
+            }
+        }
+        for (int i = operations.size() - 1; i >= kept; i--) {
+            operations.remove(i);
         }
     }
 
@@ -645,7 +1962,7 @@ public class TransactionManager {
      */
     private void addOperationToWaitlistHead(Operation operation) {
         int variableId = operation.getVariableId();
-        List<Operation> waitlist = variableWaitlistMap.get(variableId);
+        List<Operation> waitlist = getWaitlist(variableId);
         waitlist.add(0, operation);
     }
 
@@ -656,6 +1973,11 @@ public class TransactionManager {
      */
     private Operation removeOperaionFromWaitlistHead(int variableId) {
         List<Operation> waitlist = variableWaitlistMap.get(variableId);
-        return waitlist.remove(0);
+        Operation operation = waitlist.remove(0);
+        if (waitlist.isEmpty()) {
+            variableWaitlistMap.remove(variableId);
+            waitlistPool.release(waitlist);
+        }
+        return operation;
     }
 }
@@ -0,0 +1,138 @@
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * This class holds a committed value of any type, for the paths that
+ * copy whole version histories (checkpoints, catch-up, moving a site
+ * to another store) and for replaying typed writes. Reads and writes
+ * do not create Value objects: an int stays an int, a long travels as
+ * a primitive next to its type, and bytes are kept in a ByteArena by
+ * the stores. A DELETED value is the tombstone left by a delete, and
+ * what a variable reads as before its first write.
+ *
+ * Updated: 10/18/2026
+ */
+public final class Value {
+
+    public enum Type {
+        INT, // 32-bit value, written as W(T1, x1, 5)
+        LONG, // 64-bit value, written as W(T1, x1, 5L)
+        BYTES, // up to MAX_BYTES_LENGTH bytes, written as W(T1, x1, 0x0a1b)
+        DELETED, // no value, written by D(T1, x1)
+    }
+
+    public static final int MAX_BYTES_LENGTH = 0xFFFF;
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private static final Value DELETED_VALUE = new Value(Type.DELETED, 0, null);
+
+    private final Type type; // type of the value
+    private final long number; // INT or LONG value, 0 for BYTES
+    private final byte[] bytes; // BYTES value, null otherwise
+
+    private Value(Type type, long number, byte[] bytes) {
+        this.type = type;
+        this.number = number;
+        this.bytes = bytes;
+    }
+
+    public static Value ofInt(int value) {
+        return new Value(Type.INT, value, null);
+    }
+
+    public static Value ofLong(long value) {
+        return new Value(Type.LONG, value, null);
+    }
+
+    public static Value ofBytes(byte[] value) {
+        if (value.length > MAX_BYTES_LENGTH) {
+            throw new IllegalArgumentException("Value of " + value.length + " bytes is too long");
+        }
+        return new Value(Type.BYTES, 0, value);
+    }
+
+    public static Value ofDeleted() {
+        return DELETED_VALUE;
+    }
+
+    /**
+     * Create a value from its parts.
+     * @param type - type of the value
+     * @param number - INT or LONG value
+     * @param bytes - BYTES value
+     * @return value
+     */
+    public static Value of(Type type, long number, byte[] bytes) {
+        switch (type) {
+            case INT:
+                return ofInt((int) number);
+            case LONG:
+                return ofLong(number);
+            case DELETED:
+                return ofDeleted();
+            default:
+                return ofBytes(bytes);
+        }
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Get an INT or LONG value.
+     * @return number
+     */
+    public long getNumber() {
+        return number;
+    }
+
+    /**
+     * Get a BYTES value.
+     * @return bytes, not to be modified
+     */
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Format a value as it is printed by reads and dumps: a decimal number, 0x and hex digits, or not found.
+     * @param type - type of the value
+     * @param number - INT or LONG value
+     * @param bytes - BYTES value
+     * @return text of the value
+     */
+    public static String format(Type type, long number, byte[] bytes) {
+        if (type == Type.DELETED) {
+            return "not found";
+        } else if (type != Type.BYTES) {
+            return Long.toString(number);
+        }
+        char[] text = new char[2 + bytes.length * 2];
+        text[0] = '0';
+        text[1] = 'x';
+        for (int i = 0; i < bytes.length; i++) {
+            text[2 + i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xF];
+            text[3 + i * 2] = HEX_DIGITS[bytes[i] & 0xF];
+        }
+        return new String(text);
+    }
+
+    @Override
+    public String toString() {
+        return format(type, number, bytes);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        Value that = (Value) o;
+        return type == that.type && number == that.number && Arrays.equals(bytes, that.bytes);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Objects.hash(type, number) + Arrays.hashCode(bytes);
+    }
+}
@@ -1,10 +1,16 @@
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.NavigableMap;
 import java.util.Objects;
 import java.util.TreeMap;
 
 /**
  * This class holds the value of the variables and keeps
  * the history values. It also has a status indicator
- * helping with site recovery.
+ * helping with site recovery. Int versions are kept in a
+ * map; long and byte versions, whose bytes live in the
+ * arena of the store, are kept in primitive arrays created
+ * on the first such write, so int-only variables pay nothing.
  *
  * @author Weiqiang Li
  * Updated: 12/06/2018
@@ -16,12 +22,15 @@ public class Variable {
     private long updateTime; // last update time
     private boolean readable; // if it is readable
     private TreeMap<Long, Integer> previousValues; // all previous values
+    private long lastAppliedSequence; // site commit sequence of the last change
+    private TypedVersions typedVersions; // versions that are not INT, null if there never was one
 
     public Variable(int id) {
         this.id = id;
         this.value = 10 * id;
         this.updateTime = 0;
         this.readable = true;
+        this.lastAppliedSequence = 0;
         this.previousValues = new TreeMap<>();
         previousValues.put(updateTime, value);
     }
@@ -29,12 +38,30 @@ public class Variable {
     /**
      * Update the value of this variable and archive the old value.
      * @param value - new value
+     * @param updateTime - commit time of the new value
      */
     public void updateValue(int value, long updateTime) {
         this.value = value;
-        this.updateTime = System.currentTimeMillis();
+        this.updateTime = updateTime;
         this.readable = true;
         previousValues.put(updateTime, value);
+        if (typedVersions != null) {
+            typedVersions.remove(updateTime);
+        }
+    }
+
+    /**
+     * Update the value of this variable with a LONG, BYTES or DELETED value and archive it.
+     * getValue keeps returning the last INT value; the type of the current value
+     * is the type at Long.MAX_VALUE.
+     * @param type - LONG, BYTES or DELETED
+     * @param typedValue - LONG value, or arena handle of the BYTES value
+     * @param updateTime - commit time of the new value
+     */
+    public void updateTypedValue(Value.Type type, long typedValue, long updateTime) {
+        this.updateTime = updateTime;
+        this.readable = true;
+        putTypedVersion(type, typedValue, updateTime);
     }
 
     /**
@@ -45,6 +72,40 @@ public class Variable {
         return this.value;
     }
 
+    /**
+     * Check if some version is not an INT, in which case the type of a version must be checked before reading it.
+     * @return true if a LONG or BYTES version was ever stored
+     */
+    public boolean hasTypedVersions() {
+        return typedVersions != null;
+    }
+
+    /**
+     * Get the type of the version committed at or before a time.
+     * @param time
+     * @return type of that version
+     */
+    public Value.Type getTypeBeforeTime(long time) {
+        if (typedVersions == null) {
+            return Value.Type.INT;
+        }
+        int index = typedVersions.floorIndex(time);
+        if (index < 0) {
+            return Value.Type.INT;
+        }
+        Long intTime = previousValues.floorKey(time);
+        return intTime != null && intTime > typedVersions.times[index] ? Value.Type.INT : typedVersions.types[index];
+    }
+
+    /**
+     * Get the LONG value or BYTES handle of the version committed at or before a time.
+     * @param time
+     * @return typed value of that version, which must not be an INT
+     */
+    public long getTypedValueBeforeTime(long time) {
+        return typedVersions.values[typedVersions.floorIndex(time)];
+    }
+
     /**
      * Get variable id.
      * @return id
@@ -61,6 +122,22 @@ public class Variable {
         return this.updateTime;
     }
 
+    /**
+     * Get the commit sequence of the site at which this copy last changed.
+     * @return last applied sequence
+     */
+    public long getLastAppliedSequence() {
+        return this.lastAppliedSequence;
+    }
+
+    /**
+     * Record the commit sequence of the site that changed this copy.
+     * @param sequence - commit sequence of the change
+     */
+    public void setLastAppliedSequence(long sequence) {
+        this.lastAppliedSequence = sequence;
+    }
+
     /**
      * Check if it is readable.
      * @return true if it can be read
@@ -76,6 +153,13 @@ public class Variable {
         this.readable = false;
     }
 
+    /**
+     * Mark it readable again once it has caught up with the other copies.
+     */
+    public void recover() {
+        this.readable = true;
+    }
+
     /**
      * Get the value before a specific time.
      * @param time
@@ -85,6 +169,155 @@ public class Variable {
         return previousValues.floorEntry(time).getValue();
     }
 
+    /**
+     * Get all retained versions keyed by their commit time.
+     * @return read-only view of the version history
+     */
+    public NavigableMap<Long, Integer> getVersions() {
+        return Collections.unmodifiableNavigableMap(previousValues);
+    }
+
+    /**
+     * Get the number of versions of every type.
+     * @return version count
+     */
+    public int getVersionCount() {
+        return previousValues.size() + (typedVersions == null ? 0 : typedVersions.count);
+    }
+
+    /**
+     * Get the commit time of the version committed at or before a time.
+     * @param time
+     * @return commit time of that version
+     */
+    public long getVersionTimeBeforeTime(long time) {
+        Long intTime = previousValues.floorKey(time);
+        int index = typedVersions == null ? -1 : typedVersions.floorIndex(time);
+        long typedTime = index < 0 ? -1 : typedVersions.times[index];
+        return intTime == null ? typedTime : Math.max(intTime, typedTime);
+    }
+
+    /**
+     * Get the LONG and BYTES versions committed after a time.
+     * @param time - versions committed at or before this time are skipped
+     * @param consumer - receives the commit time, type and value or arena handle of each version
+     */
+    public void forEachTypedVersionAfter(long time, TypedVersionConsumer consumer) {
+        if (typedVersions == null) {
+            return;
+        }
+        for (int i = typedVersions.floorIndex(time) + 1; i < typedVersions.count; i++) {
+            consumer.accept(typedVersions.times[i], typedVersions.types[i], typedVersions.values[i]);
+        }
+    }
+
+    /**
+     * Receives typed versions.
+     */
+    public interface TypedVersionConsumer {
+        void accept(long updateTime, Value.Type type, long typedValue);
+    }
+
+    /**
+     * Restore a version read back from a checkpoint. The latest restored
+     * version becomes the current value.
+     * @param value - value of the version
+     * @param updateTime - commit time of the version
+     */
+    public void restoreVersion(int value, long updateTime) {
+        previousValues.put(updateTime, value);
+        if (typedVersions != null) {
+            typedVersions.remove(updateTime);
+        }
+        if (updateTime >= this.updateTime) {
+            this.value = value;
+            this.updateTime = updateTime;
+        }
+    }
+
+    /**
+     * Restore a LONG, BYTES or DELETED version. The latest restored version becomes the current value.
+     * @param type - LONG, BYTES or DELETED
+     * @param typedValue - LONG value, or arena handle of the BYTES value
+     * @param updateTime - commit time of the version
+     */
+    public void restoreTypedVersion(Value.Type type, long typedValue, long updateTime) {
+        putTypedVersion(type, typedValue, updateTime);
+        if (updateTime >= this.updateTime) {
+            this.updateTime = updateTime;
+        }
+    }
+
+    /**
+     * Store a typed version, replacing any version of the same commit time.
+     * @param type - LONG, BYTES or DELETED
+     * @param typedValue - LONG value, or arena handle of the BYTES value
+     * @param updateTime - commit time of the version
+     */
+    private void putTypedVersion(Value.Type type, long typedValue, long updateTime) {
+        if (typedVersions == null) {
+            typedVersions = new TypedVersions();
+        }
+        previousValues.remove(updateTime);
+        typedVersions.put(updateTime, type, typedValue);
+    }
+
+    /**
+     * LONG, BYTES and DELETED versions in parallel arrays sorted by commit time.
+     */
+    private static final class TypedVersions {
+        private long[] times = new long[4]; // commit times in ascending order
+        private Value.Type[] types = new Value.Type[4]; // type of each version
+        private long[] values = new long[4]; // LONG value or arena handle of each version
+        private int count; // number of versions
+
+        /**
+         * Find the latest version committed at or before a time.
+         * @param time
+         * @return index of that version, or -1 if every version is newer
+         */
+        private int floorIndex(long time) {
+            if (count > 0 && times[count - 1] <= time) {
+                return count - 1;
+            }
+            int index = Arrays.binarySearch(times, 0, count, time);
+            return index >= 0 ? index : -index - 2;
+        }
+
+        private void put(long time, Value.Type type, long value) {
+            int index = floorIndex(time);
+            if (index >= 0 && times[index] == time) {
+                types[index] = type;
+                values[index] = value;
+                return;
+            }
+            if (count == times.length) {
+                times = Arrays.copyOf(times, count * 2);
+                types = Arrays.copyOf(types, count * 2);
+                values = Arrays.copyOf(values, count * 2);
+            }
+            int insert = index + 1;
+            System.arraycopy(times, insert, times, insert + 1, count - insert);
+            System.arraycopy(types, insert, types, insert + 1, count - insert);
+            System.arraycopy(values, insert, values, insert + 1, count - insert);
+            times[insert] = time;
+            types[insert] = type;
+            values[insert] = value;
+            count += 1;
+        }
+
+        private void remove(long time) {
+            int index = floorIndex(time);
+            if (index < 0 || times[index] != time) {
+                return;
+            }
+            System.arraycopy(times, index + 1, times, index, count - index - 1);
+            System.arraycopy(types, index + 1, types, index, count - index - 1);
+            System.arraycopy(values, index + 1, values, index, count - index - 1);
+            count -= 1;
+        }
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -0,0 +1,229 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.NavigableMap;
+
+/**
+ * This interface is the storage of the variable copies of one
+ * site: the current value, the commit time of the last update,
+ * the readable flag used by recovery, the site commit sequence
+ * of the last change, and the committed versions kept for
+ * snapshot reads. Variables are addressed by id, and every method
+ * but addVariable and containsVariable expects a variable
+ * the store holds. Versions are INT unless hasTypedVersions says
+ * otherwise; only then does a reader need to ask for the type of
+ * a version and read it with getLongValueAt or getBytesValueAt.
+ * A deleted variable stays in the store with a DELETED version, so
+ * snapshot reads before the delete still see its older versions.
+ *
+ * Updated: 10/18/2026
+ */
+public interface VariableStore {
+
+    enum Backend {
+        HEAP, // one Variable object and version map per copy
+        OFF_HEAP, // fixed-size records and version chains in direct buffers
+        MAPPED, // the off-heap layout in memory-mapped files that outlive the process
+    }
+
+    /**
+     * Create or open the store of a site.
+     * @param backend - kind of store
+     * @param directory - directory of the store files, used by MAPPED only
+     * @param siteId - id of the site
+     * @return new store, which holds the variables saved before for MAPPED
+     * @throws IOException if the store files cannot be opened
+     */
+    static VariableStore create(Backend backend, File directory, int siteId) throws IOException {
+        switch (backend) {
+            case OFF_HEAP:
+                return new OffHeapVariableStore();
+            case MAPPED:
+                return MappedVariableStore.open(directory, siteId);
+            default:
+                return new HeapVariableStore();
+        }
+    }
+
+    /**
+     * Add a readable variable whose only version is its initial value committed at time 0.
+     * @param variableId - id of the variable, not negative
+     * @param initialValue - initial value
+     */
+    void addVariable(int variableId, int initialValue);
+
+    /**
+     * Check if the store holds a variable.
+     * @param variableId
+     * @return true if held
+     */
+    boolean containsVariable(int variableId);
+
+    /**
+     * Get the number of variables held.
+     * @return variable count
+     */
+    int getVariableCount();
+
+    /**
+     * Get the ids of the variables held.
+     * @return new array of ids in ascending order
+     */
+    int[] getVariableIds();
+
+    /**
+     * Get the current value.
+     * @param variableId
+     * @return current value
+     */
+    int getValue(int variableId);
+
+    /**
+     * Get the commit time of the current value.
+     * @param variableId
+     * @return update time
+     */
+    long getUpdateTime(int variableId);
+
+    /**
+     * Install a committed value as the current value and a new version, and mark the copy readable.
+     * @param variableId
+     * @param value - new value
+     * @param updateTime - commit time of the new value
+     */
+    void updateValue(int variableId, int value, long updateTime);
+
+    /**
+     * Restore a version read back from a checkpoint, the log or another site.
+     * It becomes the current value unless a later version exists.
+     * @param variableId
+     * @param value - value of the version
+     * @param updateTime - commit time of the version
+     */
+    void restoreVersion(int variableId, int value, long updateTime);
+
+    /**
+     * Install a committed LONG, BYTES or DELETED value as the current value and a new version, and mark the copy readable.
+     * @param variableId
+     * @param type - LONG, BYTES or DELETED
+     * @param number - LONG value
+     * @param bytes - BYTES value, copied by the store
+     * @param updateTime - commit time of the new value
+     */
+    void updateTypedValue(int variableId, Value.Type type, long number, byte[] bytes, long updateTime);
+
+    /**
+     * Restore a version of any type, as restoreVersion does for an INT.
+     * @param variableId
+     * @param value - value of the version
+     * @param updateTime - commit time of the version
+     */
+    void restoreVersion(int variableId, Value value, long updateTime);
+
+    /**
+     * Check if some version of the variable is not an INT.
+     * @param variableId
+     * @return true if a LONG, BYTES or DELETED version was ever stored
+     */
+    boolean hasTypedVersions(int variableId);
+
+    /**
+     * Get the type of the latest version committed at or before a time.
+     * @param variableId
+     * @param time - snapshot time, Long.MAX_VALUE for the current value
+     * @return type of that version
+     */
+    Value.Type getValueTypeAt(int variableId, long time);
+
+    /**
+     * Get the value of the latest version committed at or before a time, which is an INT or a LONG.
+     * @param variableId
+     * @param time - snapshot time, Long.MAX_VALUE for the current value
+     * @return value of that version
+     */
+    long getLongValueAt(int variableId, long time);
+
+    /**
+     * Get the value of the latest version committed at or before a time, which is BYTES.
+     * @param variableId
+     * @param time - snapshot time, Long.MAX_VALUE for the current value
+     * @return new array holding the value of that version
+     */
+    byte[] getBytesValueAt(int variableId, long time);
+
+    /**
+     * Check if the copy can be read.
+     * @param variableId
+     * @return true if readable
+     */
+    boolean isReadable(int variableId);
+
+    /**
+     * Mark the copy unreadable.
+     * @param variableId
+     */
+    void fail(int variableId);
+
+    /**
+     * Mark the copy readable again.
+     * @param variableId
+     */
+    void recover(int variableId);
+
+    /**
+     * Get the site commit sequence at which the copy last changed.
+     * @param variableId
+     * @return last applied sequence
+     */
+    long getLastAppliedSequence(int variableId);
+
+    /**
+     * Record the site commit sequence of a change.
+     * @param variableId
+     * @param sequence - commit sequence of the change
+     */
+    void setLastAppliedSequence(int variableId, long sequence);
+
+    /**
+     * Get the value of the latest version committed at or before a time.
+     * @param variableId
+     * @param time - snapshot time
+     * @return value of that version
+     */
+    int getValueAt(int variableId, long time);
+
+    /**
+     * Get the commit time of the latest version committed at or before a time.
+     * @param variableId
+     * @param time - snapshot time
+     * @return commit time of that version
+     */
+    long getVersionTimeAt(int variableId, long time);
+
+    /**
+     * Get the commit time of the latest version.
+     * @param variableId
+     * @return commit time of the latest version
+     */
+    long getLatestVersionTime(int variableId);
+
+    /**
+     * Get the number of versions kept.
+     * @param variableId
+     * @return version count
+     */
+    int getVersionCount(int variableId);
+
+    /**
+     * Get the versions committed after a time, used to copy or checkpoint a variable.
+     * @param variableId
+     * @param time - versions committed at or before this time are skipped, -1 for all
+     * @return versions keyed by commit time
+     */
+    NavigableMap<Long, Value> getVersionsAfter(int variableId, long time);
+
+    /**
+     * Flush and release whatever the store holds outside the heap.
+     * @throws IOException if the store cannot be flushed
+     */
+    void close() throws IOException;
+}
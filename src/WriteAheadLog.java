@@ -0,0 +1,414 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * This class holds the write-ahead log of a single site.
+ * Every committed transaction is appended as one binary record
+ * (length, checksum, commit time, transaction id and its writes;
+ * a LONG, BYTES or DELETED write has a negated variable id followed
+ * by its type and value, so INT writes keep their fixed 8-byte entry),
+ * staged in a direct buffer and forced to disk according to the
+ * fsync policy. The log is split into numbered segments so that
+ * the part covered by a checkpoint can be dropped. On startup the
+ * log is replayed to rebuild the variables of the site.
+ *
+ * Updated: 10/18/2026
+ */
+public class WriteAheadLog {
+
+    public enum FsyncPolicy {
+        COMMIT, // force after every commit record
+        GROUP, // force once every group of commit records
+        PERIODIC, // force when the sync period has elapsed
+    }
+
+    /**
+     * Receives the writes of the log records during replay.
+     */
+    public interface Replayer {
+        void replayWrite(long commitTime, int variableId, int value);
+
+        void replayTypedWrite(long commitTime, int variableId, Value value);
+    }
+
+    private static final int RECORD_HEADER_SIZE = 8; // payload length + checksum
+    private static final int PAYLOAD_HEADER_SIZE = 16; // commit time + transaction id + write count
+    private static final int WRITE_ENTRY_SIZE = 8; // variable id + value
+    private static final Value.Type[] TYPES = Value.Type.values();
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_PAYLOAD_SIZE = 64 * 1024 * 1024;
+    private static final String FILE_SUFFIX = ".wal";
+
+    private final File directory; // directory of the segment files
+    private final String filePrefix; // segment file name prefix of this site
+    private final FsyncPolicy policy; // fsync policy
+    private final int groupSize; // number of commits per fsync in group mode
+    private final long syncPeriodMillis; // fsync period in periodic mode
+    private final CRC32 checksum; // reused checksum calculator
+    private long currentSegment; // segment new records are appended to
+    private FileChannel channel; // channel of the current segment
+    private ByteBuffer buffer; // staged records not yet written to the channel
+    private int recordStart; // buffer position of the record being built
+    private int pendingWriteCount; // writes of the record being built not yet appended
+    private int unsyncedCommitCount; // commit records not yet forced
+    private long lastSyncTime; // wall time of the last force
+
+    public WriteAheadLog(File directory, int siteId, FsyncPolicy policy, int groupSize, long syncPeriodMillis) {
+        this.directory = directory;
+        this.filePrefix = "site-" + siteId + "-";
+        this.currentSegment = 0;
+        this.policy = policy;
+        this.groupSize = Math.max(1, groupSize);
+        this.syncPeriodMillis = syncPeriodMillis;
+        this.checksum = new CRC32();
+        this.buffer = ByteBuffer.allocateDirect(DEFAULT_BUFFER_SIZE);
+        this.recordStart = -1;
+        this.unsyncedCommitCount = 0;
+        this.lastSyncTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Open the log and replay every complete record in the segments
+     * starting from the given one. Older segments are already covered by
+     * a checkpoint and are deleted. A torn or corrupted tail left by a
+     * crash is cut off so that new records are appended right after the
+     * last valid one.
+     * @param fromSegment - first segment that is not covered by a checkpoint
+     * @param replayer - receives the replayed writes
+     * @return the largest commit time found in the log, or 0 if it is empty
+     * @throws IOException if the log cannot be read
+     */
+    public long open(long fromSegment, Replayer replayer) throws IOException {
+        long lastCommitTime = 0;
+        currentSegment = fromSegment;
+        for (long segment : listSegments()) {
+            if (segment < fromSegment) {
+                Files.deleteIfExists(segmentFile(segment).toPath());
+                continue;
+            }
+            if (channel != null) {
+                channel.close();
+            }
+            currentSegment = segment;
+            channel = FileChannel.open(segmentFile(segment).toPath(),
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            lastCommitTime = Math.max(lastCommitTime, replaySegment(replayer));
+        }
+        if (channel == null) {
+            channel = FileChannel.open(segmentFile(currentSegment).toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+        return lastCommitTime;
+    }
+
+    /**
+     * Get the segment new records are appended to.
+     * @return current segment number
+     */
+    public long getCurrentSegment() {
+        return currentSegment;
+    }
+
+    /**
+     * Force the current segment and continue the log in a new one.
+     * Records appended from now on belong to the returned segment.
+     * @return the new segment number
+     * @throws IOException if the segments cannot be forced or created
+     */
+    public long rollSegment() throws IOException {
+        sync();
+        channel.close();
+        currentSegment += 1;
+        channel = FileChannel.open(segmentFile(currentSegment).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        return currentSegment;
+    }
+
+    /**
+     * Delete the segments that are fully covered by a checkpoint.
+     * @param segment - first segment that is still needed
+     * @throws IOException if a segment cannot be deleted
+     */
+    public void deleteSegmentsBefore(long segment) throws IOException {
+        for (long oldSegment : listSegments()) {
+            if (oldSegment < segment) {
+                Files.deleteIfExists(segmentFile(oldSegment).toPath());
+            }
+        }
+    }
+
+    /**
+     * Replay the segment open in the channel and position the channel
+     * after its last valid record.
+     * @param replayer - receives the replayed writes
+     * @return the largest commit time found in the segment
+     * @throws IOException if the segment cannot be read
+     */
+    private long replaySegment(Replayer replayer) throws IOException {
+        long lastCommitTime = 0;
+        long validPosition = 0;
+        long readPosition = 0;
+        ByteBuffer readBuffer = ByteBuffer.allocateDirect(DEFAULT_BUFFER_SIZE);
+
+        while (true) {
+            int read = channel.read(readBuffer, readPosition);
+            if (read > 0) {
+                readPosition += read;
+            }
+            readBuffer.flip();
+            while (readBuffer.remaining() >= RECORD_HEADER_SIZE) {
+                int start = readBuffer.position();
+                int payloadLength = readBuffer.getInt(start);
+                int expectedChecksum = readBuffer.getInt(start + 4);
+                if (payloadLength < PAYLOAD_HEADER_SIZE || payloadLength > MAX_PAYLOAD_SIZE) {
+                    read = -1; // corrupted length, stop replaying here
+                    break;
+                }
+                if (readBuffer.remaining() < RECORD_HEADER_SIZE + payloadLength) {
+                    if (RECORD_HEADER_SIZE + payloadLength > readBuffer.capacity()) {
+                        readBuffer = growForRead(readBuffer, RECORD_HEADER_SIZE + payloadLength);
+                    }
+                    break;
+                }
+                ByteBuffer payload = readBuffer.duplicate();
+                payload.position(start + RECORD_HEADER_SIZE).limit(start + RECORD_HEADER_SIZE + payloadLength);
+                checksum.reset();
+                checksum.update(payload);
+                if ((int) checksum.getValue() != expectedChecksum) {
+                    read = -1; // torn record, stop replaying here
+                    break;
+                }
+                readBuffer.position(start + RECORD_HEADER_SIZE);
+                long commitTime = readBuffer.getLong();
+                readBuffer.getInt(); // transaction id, kept for diagnostics
+                int writeCount = readBuffer.getInt();
+                for (int i = 0; i < writeCount; i++) {
+                    int variableId = readBuffer.getInt();
+                    if (variableId >= 0) {
+                        replayer.replayWrite(commitTime, variableId, readBuffer.getInt());
+                    } else {
+                        replayer.replayTypedWrite(commitTime, ~variableId, readTypedValue(readBuffer));
+                    }
+                }
+                lastCommitTime = Math.max(lastCommitTime, commitTime);
+                validPosition += RECORD_HEADER_SIZE + payloadLength;
+            }
+            if (read <= 0) {
+                break;
+            }
+            readBuffer.compact();
+        }
+
+        if (channel.size() > validPosition) {
+            channel.truncate(validPosition);
+        }
+        channel.position(validPosition);
+        return lastCommitTime;
+    }
+
+    /**
+     * Read the type and value of a typed write entry.
+     * @param readBuffer - buffer positioned after the negated variable id
+     * @return value of the write
+     */
+    private static Value readTypedValue(ByteBuffer readBuffer) {
+        Value.Type type = TYPES[readBuffer.get()];
+        if (type == Value.Type.LONG) {
+            return Value.ofLong(readBuffer.getLong());
+        } else if (type == Value.Type.DELETED) {
+            return Value.ofDeleted();
+        }
+        byte[] bytes = new byte[readBuffer.getShort() & 0xFFFF];
+        readBuffer.get(bytes);
+        return Value.ofBytes(bytes);
+    }
+
+    /**
+     * List the segment numbers present in the log directory in ascending order.
+     * @return sorted segment numbers
+     */
+    private List<Long> listSegments() {
+        List<Long> segments = new ArrayList<>();
+        String[] names = directory.list();
+        if (names == null) {
+            return segments;
+        }
+        for (String name : names) {
+            if (name.startsWith(filePrefix) && name.endsWith(FILE_SUFFIX)) {
+                String number = name.substring(filePrefix.length(), name.length() - FILE_SUFFIX.length());
+                try {
+                    segments.add(Long.parseLong(number));
+                } catch (NumberFormatException e) {
+                    // not a segment of this log
+                }
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    /**
+     * Get the file of a log segment.
+     * @param segment - segment number
+     * @return segment file
+     */
+    private File segmentFile(long segment) {
+        return new File(directory, filePrefix + segment + FILE_SUFFIX);
+    }
+
+    /**
+     * Start a new commit record. Exactly writeCount calls to appendWrite
+     * or appendTypedWrite must follow before the record is completed with endRecord.
+     * @param commitTime - commit time of the transaction
+     * @param transactionId - id of the committed transaction
+     * @param writeCount - number of writes in the record
+     * @throws IOException if staged records cannot be written out
+     */
+    public void beginRecord(long commitTime, int transactionId, int writeCount) throws IOException {
+        int recordSize = RECORD_HEADER_SIZE + PAYLOAD_HEADER_SIZE + writeCount * WRITE_ENTRY_SIZE;
+        if (buffer.remaining() < recordSize) {
+            writeBuffer();
+            if (buffer.capacity() < recordSize) {
+                buffer = ByteBuffer.allocateDirect(recordSize);
+            }
+        }
+        recordStart = buffer.position();
+        pendingWriteCount = writeCount;
+        buffer.position(recordStart + RECORD_HEADER_SIZE);
+        buffer.putLong(commitTime);
+        buffer.putInt(transactionId);
+        buffer.putInt(writeCount);
+    }
+
+    /**
+     * Append a single write to the current record.
+     * @param variableId - id of the written variable
+     * @param value - the committed value
+     */
+    public void appendWrite(int variableId, int value) {
+        pendingWriteCount -= 1;
+        buffer.putInt(variableId);
+        buffer.putInt(value);
+    }
+
+    /**
+     * Append a single LONG, BYTES or DELETED write to the current record,
+     * growing the staging buffer if the record no longer fits.
+     * @param variableId - id of the written variable
+     * @param type - LONG, BYTES or DELETED
+     * @param number - the committed LONG value
+     * @param bytes - the committed BYTES value
+     */
+    public void appendTypedWrite(int variableId, Value.Type type, long number, byte[] bytes) {
+        pendingWriteCount -= 1;
+        int entrySize = 5 + (type == Value.Type.LONG ? 8 : type == Value.Type.BYTES ? 2 + bytes.length : 0);
+        int needed = entrySize + pendingWriteCount * WRITE_ENTRY_SIZE;
+        if (buffer.remaining() < needed) {
+            ByteBuffer grown = ByteBuffer.allocateDirect(Math.max(buffer.capacity() * 2, buffer.position() + needed));
+            buffer.flip();
+            grown.put(buffer);
+            buffer = grown;
+        }
+        buffer.putInt(~variableId);
+        buffer.put((byte) type.ordinal());
+        if (type == Value.Type.LONG) {
+            buffer.putLong(number);
+        } else if (type == Value.Type.BYTES) {
+            buffer.putShort((short) bytes.length);
+            buffer.put(bytes);
+        }
+    }
+
+    /**
+     * Complete the current record and apply the fsync policy.
+     * @throws IOException if the log cannot be written or forced
+     */
+    public void endRecord() throws IOException {
+        int end = buffer.position();
+        int payloadLength = end - recordStart - RECORD_HEADER_SIZE;
+        ByteBuffer payload = buffer.duplicate();
+        payload.position(recordStart + RECORD_HEADER_SIZE).limit(end);
+        checksum.reset();
+        checksum.update(payload);
+        buffer.putInt(recordStart, payloadLength);
+        buffer.putInt(recordStart + 4, (int) checksum.getValue());
+        recordStart = -1;
+
+        unsyncedCommitCount += 1;
+        if (isSyncDue()) {
+            sync();
+        }
+    }
+
+    /**
+     * Write all staged records and force them to disk.
+     * @throws IOException if the log cannot be written or forced
+     */
+    public void sync() throws IOException {
+        writeBuffer();
+        channel.force(false);
+        unsyncedCommitCount = 0;
+        lastSyncTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Force any staged records and close the log file.
+     * @throws IOException if the log cannot be written or closed
+     */
+    public void close() throws IOException {
+        if (channel == null) {
+            return;
+        }
+        sync();
+        channel.close();
+        channel = null;
+    }
+
+    /**
+     * Check if the staged records should be forced now.
+     * @return true if an fsync is due under the current policy
+     */
+    private boolean isSyncDue() {
+        switch (policy) {
+            case COMMIT:
+                return true;
+            case GROUP:
+                return unsyncedCommitCount >= groupSize;
+            default:
+                return System.currentTimeMillis() - lastSyncTime >= syncPeriodMillis;
+        }
+    }
+
+    /**
+     * Write the staged records to the channel without forcing them.
+     * @throws IOException if the log cannot be written
+     */
+    private void writeBuffer() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Replace the replay buffer with a larger one holding the same unread bytes.
+     * @param readBuffer - the current replay buffer, in read mode
+     * @param minimumCapacity - capacity needed for the next record
+     * @return the new replay buffer, in read mode
+     */
+    private ByteBuffer growForRead(ByteBuffer readBuffer, int minimumCapacity) {
+        ByteBuffer larger = ByteBuffer.allocateDirect(Math.max(minimumCapacity, readBuffer.capacity() * 2));
+        larger.put(readBuffer);
+        larger.flip();
+        return larger;
+    }
+}